@@ -40,7 +40,7 @@
 <li><a href="admin.jsp?menu=3"><span class="ui-icon ui-icon-minus" id="admin_menuicons"></span>Delete</a></li>
 </ul>
 </li>
-<li><a href="#"><span class="ui-icon ui-icon-script" id="admin_menuicons"></span>Logging</a></li>
+<li><a href="admin.jsp?menu=2"><span class="ui-icon ui-icon-script" id="admin_menuicons"></span>Logging</a></li>
 <li><a href="#"><span class="ui-icon ui-icon-wrench" id="admin_menuicons"></span>Settings</a></li>
 </ul>
 
@@ -72,18 +72,38 @@
 <br />
 
 <c:if test="${param.menu == 2}">
-<c:set var="logList">
-	<ct:getLog />
-</c:set>
-<c:set var="result" value="${result-1}" />
 <table>
 	<tr><th>Inhalt vom Log</th></tr>
-	<c:forEach items="${logList}" var="s"> 
-		<tr>
-			<td><c:out value="${s}" /></td>
-		</tr>	
-	</c:forEach>
+	<tr><td><pre id="admin_log"></pre></td></tr>
 </table>
+<script>
+	// streams new log lines from the LogServlet, the request is reopened when the server closes it
+	$(function() {
+		var next = -1;
+		function follow() {
+			var xhr = new XMLHttpRequest();
+			var seen = 0;
+			xhr.open("GET", "log" + (next >= 0 ? "?since=" + next : ""), true);
+			xhr.onreadystatechange = function() {
+				if(xhr.readyState >= 3 && xhr.status == 200) {
+					if(next < 0)
+						next = parseInt(xhr.getResponseHeader("X-Log-Line"), 10);
+					var end = xhr.responseText.lastIndexOf("\n") + 1;
+					if(end > seen) {
+						var lines = xhr.responseText.substring(seen, end);
+						seen = end;
+						next += lines.split("\n").length - 1;
+						$("#admin_log").append(document.createTextNode(lines));
+					}
+				}
+				if(xhr.readyState == 4)
+					setTimeout(follow, xhr.status == 200 ? 0 : 5000);
+			};
+			xhr.send();
+		}
+		follow();
+	});
+</script>
 </c:if>
 
 <c:if test="${param.menu == 3}">
@@ -39,6 +39,7 @@
         <td id="main_table_stream">
         
         	<div id="main_stream">Stream</div>
+        	<div id="main_telemetry"></div>
         	<div id="main_controls">
             	<table id="main_control_table">
             		<tr>
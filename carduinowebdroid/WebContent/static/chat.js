@@ -1,31 +1,62 @@
 $(function() {
 	
-	$.fn.append = function (newPart) {
-		   return this.each(function(){ $(this).val( $(this).val() + newPart); });
-		 };
+	/**
+	 * Adds a line to the chat. The text of other users is only set as value of the textarea,
+	 * it never goes through the HTML parser (jQuery's append() is left alone for the other scripts).
+	 */
+	function addLine(text){
+		var chat = $("#main_chat");
+		chat.val(chat.val() + text + "\n");
+	}
 		
 	
-	$("#main_chat").append("Chat Script loaded!" + "\n");
+	addLine("Chat Script loaded!");
  
-	var ws = new WebSocket("ws://localhost:8080/carduinodroid/chat");
+	var ws;
+	var epoch = "";
+	var lastSequence = 0;
 	
-	ws.onopen = function(){
-		$("#main_chat").append("Connected!" + "\n");
-	};
-	ws.onclose = function(){
-		$("#main_chat").append("Closed!" + "\n");
-	};
-	ws.onmessage = function(message){
-		$("#main_chat").append(message.data + "\n");
-	};
-	ws.onerror = function(){
-		$("#main_chat").append("Error!" + "\n");
-	};
+	/**
+	 * Every line of a frame is "epoch:sequence|message", the epoch and sequence number of the last message
+	 * are passed when reconnecting so only the missed messages are sent again. The epoch changes when the
+	 * server restarts and numbers its messages from 1 again.
+	 */
+	function connect(){
+		ws = new WebSocket("ws://localhost:8080/carduinodroid/chat?epoch=" + epoch + "&since=" + lastSequence);
+		
+		ws.onopen = function(){
+			addLine("Connected!");
+		};
+		ws.onclose = function(){
+			addLine("Closed!");
+			setTimeout(connect, 2000);
+		};
+		ws.onmessage = function(message){
+			var lines = message.data.split("\n");
+			for (var i = 0; i < lines.length; i++){
+				var colon = lines[i].indexOf(":");
+				var separator = lines[i].indexOf("|");
+				var lineEpoch = lines[i].substring(0, colon);
+				var sequence = parseInt(lines[i].substring(colon + 1, separator), 10);
+				if (lineEpoch != epoch){
+					epoch = lineEpoch;
+					lastSequence = 0;
+				}
+				if (sequence > lastSequence)
+					lastSequence = sequence;
+				addLine(lines[i].substring(separator + 1));
+			}
+		};
+		ws.onerror = function(){
+			addLine("Error!");
+		};
+	}
+	connect();
 	
 	
 	
 	function postToServer(){
-		$("#main_chat").append("Sent!" + "\n");
+		addLine("Sent!");
 		ws.send($("#main_chat_textinput").val());
 		$("#main_chat_textinput").val("");
 	};
@@ -169,3 +169,108 @@ $(document).keyup(function(e){
     }
 });
 
+
+/**
+ * Sends the pressed steering keys to the ControllerServlet as binary control frames (see ControlFrame.java).
+ * A frame is sent whenever the pressed keys change and whenever the socket (re)opens: 16 bytes with 'C', the keys,
+ * the sequence number and the time.
+ */
+$(function() {
+	var UP = 1, DOWN = 2, LEFT = 4, RIGHT = 8;
+	var buttons = {
+		"main_steering_button_up": UP,
+		"main_steering_button_down": DOWN,
+		"main_steering_button_left": LEFT,
+		"main_steering_button_right": RIGHT
+	};
+	var codes = { 37: LEFT, 38: UP, 39: RIGHT, 40: DOWN };
+	var keys = 0, sequence = 0;
+	var frame = new ArrayBuffer(16);
+	var view = new DataView(frame);
+	
+	var control;
+	
+	/**
+	 * Opens the control socket. The current keys are sent as soon as it is open, so keys pressed
+	 * before the socket opened or while it was reconnecting are not lost.
+	 */
+	function connect() {
+		control = new WebSocket("ws://" + location.host + "/carduinodroid/control");
+		control.binaryType = "arraybuffer";
+		control.onopen = function() {
+			send();
+		};
+		control.onclose = function() {
+			setTimeout(connect, 2000);
+		};
+	}
+	connect();
+	
+	function setKeys(newKeys) {
+		if (newKeys == keys)
+			return;
+		keys = newKeys;
+		send();
+	}
+	
+	function send() {
+		if (control.readyState != 1)
+			return;
+		sequence = (sequence + 1) >>> 0;
+		view.setUint8(0, 0x43);
+		view.setUint8(1, keys);
+		view.setUint16(2, 0);
+		view.setUint32(4, sequence);
+		view.setFloat64(8, Date.now());
+		control.send(frame);
+	}
+	
+	$.each(buttons, function(id, key) {
+		$("#" + id).on("mousedown", function() {
+			setKeys(keys | key);
+		}).on("mouseup mouseleave", function() {
+			setKeys(keys & ~key);
+		});
+	});
+	$(document).keyup(function(e) {
+		if (codes[e.keyCode])
+			setKeys(keys & ~codes[e.keyCode]);
+	});
+	$(window).blur(function() {
+		setKeys(0);
+	});
+});
+
+
+/**
+ * Shows the state of the car pushed by the TelemetryServlet.
+ * Every message only contains the fields which changed, they are merged into the last known state.
+ */
+$(function() {
+	var state = { lat: null, lon: null, spd: 0, ang: 0, keys: 0 };
+	var names = [[1, "Up"], [2, "Down"], [4, "Left"], [8, "Right"]];
+	
+	function show() {
+		var keys = [];
+		for (var i = 0; i < names.length; i++)
+			if (state.keys & names[i][0])
+				keys.push(names[i][1]);
+		$("#main_telemetry").text("Position: " + (state.lat == null ? "-" : state.lat + ", " + state.lon)
+				+ " | Speed: " + state.spd + " | Angle: " + state.ang + " | Keys: " + (keys.length ? keys.join(" ") : "-"));
+	}
+	
+	function connect() {
+		var telemetry = new WebSocket("ws://" + location.host + "/carduinodroid/telemetry");
+		telemetry.onmessage = function(message) {
+			var update = JSON.parse(message.data);
+			for (var field in update)
+				if (field != "s")
+					state[field] = update[field];
+			show();
+		};
+		telemetry.onclose = function() {
+			setTimeout(connect, 2000);
+		};
+	}
+	connect();
+});
@@ -0,0 +1,35 @@
+package de.carduinodroid.bench;
+
+/**
+ * \brief One measured operation.
+ * \details The Harness calls setUp() once, then run() repeatedly for the warmup and the measurement phase and finally tearDown().
+ * Every call of run() is timed on its own, so an operation should be at least a few microseconds long.
+ */
+public abstract class Benchmark {
+
+	/**
+	 * @return Returns the name printed in the results.
+	 */
+	public abstract String getName();
+
+	/**
+	 * \brief Prepares the data of the benchmark, not measured.
+	 * @throws Exception if the benchmark can not be prepared.
+	 */
+	public void setUp() throws Exception {
+	}
+
+	/**
+	 * \brief Runs the operation once.
+	 * @return Returns any value depending on the result, it is consumed by the Harness so the JIT can not remove the operation.
+	 * @throws Exception if the operation fails, the benchmark is aborted.
+	 */
+	public abstract Object run() throws Exception;
+
+	/**
+	 * \brief Releases everything acquired in setUp().
+	 * @throws Exception if cleaning up fails.
+	 */
+	public void tearDown() throws Exception {
+	}
+}
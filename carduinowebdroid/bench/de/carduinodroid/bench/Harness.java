@@ -0,0 +1,164 @@
+package de.carduinodroid.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import de.carduinodroid.desktop.Controller.CameraPictureBenchmark;
+import de.carduinodroid.desktop.Controller.SocketPictureBenchmark;
+import de.carduinodroid.shared.ControlFrameBenchmark;
+import de.carduinodroid.shared.FrameProducerBenchmark;
+import de.carduinodroid.shared.ImageTransferReceiverBenchmark;
+
+/**
+ * \brief Runs the benchmarks of the video and control path and prints throughput, allocation and latency percentiles.
+ * \details Every benchmark is warmed up first and then measured for a fixed time on the calling thread.
+ * Allocation is taken from the per-thread allocation counter of the JVM and only covers the measuring thread.
+ * \details Usage: java de.carduinodroid.bench.Harness [name filter ...]
+ * \details System properties: bench.warmup and bench.time set the duration of both phases in milliseconds,
+ * bench.stream points to a recorded picture stream (concatenated JPEGs as sent by the phone) used instead of generated frames.
+ */
+public class Harness {
+
+	/** Upper limit of recorded latency samples per benchmark. */
+	static final int MAX_SAMPLES = 1 << 20;
+
+	private static volatile int sink;
+
+	/**
+	 * \brief Result of one benchmark.
+	 */
+	public static class Result {
+		final String name;
+		final long ops;
+		final long nanos;
+		final long allocated;
+		final long[] samples;
+
+		Result(String name, long ops, long nanos, long allocated, long[] samples) {
+			this.name = name;
+			this.ops = ops;
+			this.nanos = nanos;
+			this.allocated = allocated;
+			this.samples = samples;
+		}
+
+		/**
+		 * @return Returns the operations per second.
+		 */
+		public double getOpsPerSecond() {
+			return ops * 1e9 / nanos;
+		}
+
+		/**
+		 * @return Returns the allocated bytes per operation or -1 if the JVM does not count allocations.
+		 */
+		public long getBytesPerOp() {
+			return allocated < 0 ? -1 : allocated / ops;
+		}
+
+		/**
+		 * @param p Percentile between 0 and 100.
+		 * @return Returns the latency at the given percentile in nanoseconds.
+		 */
+		public long getPercentile(double p) {
+			final int i = (int) Math.ceil(p / 100.0 * samples.length) - 1;
+			return samples[Math.max(0, Math.min(samples.length - 1, i))];
+		}
+
+		@Override
+		public String toString() {
+			final long bytes = getBytesPerOp();
+			return String.format("%-40s %10.1f %12s %10.1f %10.1f %10.1f %10.1f",
+					name, getOpsPerSecond(),
+					bytes < 0 ? "n/a" : Long.toString(bytes),
+					bytes < 0 ? 0.0 : bytes * getOpsPerSecond() / (1024 * 1024),
+					getPercentile(50) / 1000.0, getPercentile(99) / 1000.0, samples[samples.length - 1] / 1000.0);
+		}
+	}
+
+	/**
+	 * \brief Warms up and measures one benchmark.
+	 * @param b Benchmark to run.
+	 * @param warmupMillis Duration of the warmup phase.
+	 * @param measureMillis Duration of the measurement phase.
+	 * @return Returns the result of the measurement phase.
+	 * @throws Exception if the benchmark fails.
+	 */
+	public static Result measure(Benchmark b, long warmupMillis, long measureMillis) throws Exception {
+		b.setUp();
+		try {
+			long end = System.nanoTime() + warmupMillis * 1000000L;
+			while (System.nanoTime() < end)
+				consume(b.run());
+
+			final ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+			final com.sun.management.ThreadMXBean alloc = mx instanceof com.sun.management.ThreadMXBean
+					&& ((com.sun.management.ThreadMXBean) mx).isThreadAllocatedMemorySupported()
+					? (com.sun.management.ThreadMXBean) mx : null;
+			final long tid = Thread.currentThread().getId();
+
+			final long[] samples = new long[MAX_SAMPLES];
+			int n = 0;
+			final long allocStart = alloc == null ? 0 : alloc.getThreadAllocatedBytes(tid);
+			final long start = System.nanoTime();
+			end = start + measureMillis * 1000000L;
+			long now = start;
+			while (now < end && n < samples.length) {
+				consume(b.run());
+				final long t = System.nanoTime();
+				samples[n++] = t - now;
+				now = t;
+			}
+			final long allocEnd = alloc == null ? 0 : alloc.getThreadAllocatedBytes(tid);
+
+			final long[] sorted = Arrays.copyOf(samples, n);
+			Arrays.sort(sorted);
+			return new Result(b.getName(), n, now - start, alloc == null ? -1 : allocEnd - allocStart, sorted);
+		} finally {
+			b.tearDown();
+		}
+	}
+
+	private static void consume(Object o) {
+		sink += System.identityHashCode(o);
+	}
+
+	/**
+	 * @return Returns all benchmarks of the video and control path.
+	 */
+	public static List<Benchmark> all() {
+		final List<Benchmark> list = new ArrayList<Benchmark>();
+		list.add(new FrameProducerBenchmark(false));
+		list.add(new FrameProducerBenchmark(true));
+		list.add(new CameraPictureBenchmark(false));
+		list.add(new CameraPictureBenchmark(true));
+		list.add(new SocketPictureBenchmark());
+		list.add(new ImageTransferReceiverBenchmark());
+		list.add(new ControlFrameBenchmark(true));
+		list.add(new ControlFrameBenchmark(false));
+		return list;
+	}
+
+	public static void main(String[] args) throws Exception {
+		final long warmup = Long.getLong("bench.warmup", 3000);
+		final long time = Long.getLong("bench.time", 5000);
+
+		System.out.println(String.format("%-40s %10s %12s %10s %10s %10s %10s",
+				"benchmark", "ops/s", "B/op", "MB/s alloc", "p50 us", "p99 us", "max us"));
+		for (final Benchmark b : all()) {
+			if (args.length > 0 && !matches(b.getName(), args))
+				continue;
+			System.out.println(measure(b, warmup, time));
+		}
+	}
+
+	private static boolean matches(String name, String[] filters) {
+		for (final String f : filters)
+			if (name.contains(f))
+				return true;
+		return false;
+	}
+}
@@ -0,0 +1,182 @@
+package de.carduinodroid.bench;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * \brief Input data for the benchmarks.
+ * \details Frames are generated with some structure and noise so they compress roughly like camera images.
+ * Streams are replayed in an endless loop so a benchmark never runs out of data.
+ */
+public class TestData {
+
+	/** Resolution of the generated frames, the phone sends 640x480 by default. */
+	public static final int W = 640;
+	public static final int H = 480;
+
+	/**
+	 * \brief Generates an opaque test image.
+	 * @param w Width.
+	 * @param h Height.
+	 * @param seed Seed of the noise, different seeds give different images.
+	 * @return Returns the image of type TYPE_INT_RGB.
+	 */
+	public static BufferedImage image(int w, int h, long seed) {
+		final BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+		final Random r = new Random(seed);
+		for (int y = 0; y < h; y++)
+			for (int x = 0; x < w; x++) {
+				final int n = r.nextInt(32);
+				img.setRGB(x, y, ((x + n) & 0xFF) << 16 | ((y + n) & 0xFF) << 8 | ((x ^ y) & 0xFF));
+			}
+		final Graphics2D g = img.createGraphics();
+		g.setColor(Color.WHITE);
+		g.setFont(new Font("Arial", Font.BOLD, 21));
+		g.drawString("frame " + seed, 20, 20);
+		g.dispose();
+		return img;
+	}
+
+	/**
+	 * @return Returns a generated test image as JPEG.
+	 * @throws IOException if encoding fails.
+	 */
+	public static byte[] jpeg(int w, int h, long seed) throws IOException {
+		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ImageIO.write(image(w, h, seed), "jpeg", bos);
+		return bos.toByteArray();
+	}
+
+	/**
+	 * \brief Returns the picture stream as sent by the phone: JPEGs without any framing.
+	 * \details If the system property bench.stream is set, the recorded stream in that file is used.
+	 * @param frames Number of frames to generate if there is no recording.
+	 * @return Returns the stream.
+	 * @throws IOException if the recording can not be read.
+	 */
+	public static byte[] pictureStream(int frames) throws IOException {
+		final String recording = System.getProperty("bench.stream");
+		if (recording != null)
+			return read(new File(recording));
+		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		for (final byte[] jpeg : jpegs(frames))
+			bos.write(jpeg);
+		return bos.toByteArray();
+	}
+
+	/**
+	 * \brief Returns the stream of the RawFrameServer: every JPEG is preceded by its length as 4 byte little endian.
+	 * @param frames Number of frames to generate.
+	 * @return Returns the stream.
+	 * @throws IOException if encoding fails.
+	 */
+	public static byte[] rawFrameStream(int frames) throws IOException {
+		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		for (final byte[] jpeg : jpegs(frames)) {
+			final int l = jpeg.length;
+			bos.write(l & 0xff);
+			bos.write((l >> 8) & 0xff);
+			bos.write((l >> 16) & 0xff);
+			bos.write((l >> 24) & 0xff);
+			bos.write(jpeg);
+		}
+		return bos.toByteArray();
+	}
+
+	private static List<byte[]> jpegs(int frames) throws IOException {
+		final List<byte[]> list = new ArrayList<byte[]>();
+		for (int i = 0; i < frames; i++)
+			list.add(jpeg(W, H, i));
+		return list;
+	}
+
+	private static byte[] read(File file) throws IOException {
+		final RandomAccessFile f = new RandomAccessFile(file, "r");
+		try {
+			final byte[] data = new byte[(int) f.length()];
+			f.readFully(data);
+			return data;
+		} finally {
+			f.close();
+		}
+	}
+
+	/**
+	 * \brief Channel which replays the data in an endless loop.
+	 * \details Every read returns at most chunk bytes, like a socket delivering one segment after another.
+	 */
+	public static class LoopingChannel implements ReadableByteChannel {
+
+		private final ByteBuffer data;
+		private final int chunk;
+
+		public LoopingChannel(byte[] data, int chunk) {
+			this.data = ByteBuffer.wrap(data);
+			this.chunk = chunk;
+		}
+
+		public int read(ByteBuffer dst) {
+			if (!data.hasRemaining())
+				data.rewind();
+			final int n = Math.min(chunk, Math.min(dst.remaining(), data.remaining()));
+			final ByteBuffer src = data.duplicate();
+			src.limit(src.position() + n);
+			dst.put(src);
+			data.position(data.position() + n);
+			return n;
+		}
+
+		public boolean isOpen() {
+			return true;
+		}
+
+		public void close() {
+		}
+	}
+
+	/**
+	 * \brief InputStream which replays the data in an endless loop, at most chunk bytes per read.
+	 */
+	public static class LoopingInputStream extends InputStream {
+
+		private final byte[] data;
+		private final int chunk;
+		private int pos = 0;
+
+		public LoopingInputStream(byte[] data, int chunk) {
+			this.data = data;
+			this.chunk = chunk;
+		}
+
+		@Override
+		public int read() {
+			if (pos == data.length)
+				pos = 0;
+			return data[pos++] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (pos == data.length)
+				pos = 0;
+			final int n = Math.min(chunk, Math.min(len, data.length - pos));
+			System.arraycopy(data, pos, b, off, n);
+			pos += n;
+			return n;
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package de.carduinodroid.desktop.Controller;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+
+import de.carduinodroid.bench.Benchmark;
+import de.carduinodroid.bench.TestData;
+
+/**
+ * \brief Measures the overlay path of Camera_Picture: the 90 degree rotation alone or decoding plus rotation.
+ */
+public class CameraPictureBenchmark extends Benchmark {
+
+	private static final double ANGLE = Math.toRadians(90);
+
+	private final boolean decode;
+	private Camera_Picture camera;
+	private BufferedImage image;
+	private ByteBuffer jpeg;
+
+	/**
+	 * @param decode True to decode the JPEG before rotating, false to rotate an already decoded image.
+	 */
+	public CameraPictureBenchmark(boolean decode) {
+		this.decode = decode;
+	}
+
+	@Override
+	public String getName() {
+		return decode ? "Camera_Picture.decode+rotate" : "Camera_Picture.rotate";
+	}
+
+	@Override
+	public void setUp() throws Exception {
+		camera = new Camera_Picture(null);
+		image = TestData.image(TestData.W, TestData.H, 1);
+		jpeg = ByteBuffer.wrap(TestData.jpeg(TestData.W, TestData.H, 1));
+	}
+
+	@Override
+	public Object run() throws Exception {
+		return camera.rotate(decode ? camera.decode(jpeg) : image, ANGLE);
+	}
+}
@@ -0,0 +1,30 @@
+package de.carduinodroid.desktop.Controller;
+
+import de.carduinodroid.bench.Benchmark;
+import de.carduinodroid.bench.TestData;
+
+/**
+ * \brief Measures how Socket_Picture splits the picture stream: one operation is JpegStreamDemuxer.nextFrame().
+ * \details The stream is a recording given by bench.stream or 30 generated frames,
+ * replayed in chunks of bench.chunk bytes (default 8192) per read call.
+ */
+public class SocketPictureBenchmark extends Benchmark {
+
+	private JpegStreamDemuxer demuxer;
+
+	@Override
+	public String getName() {
+		return "Socket_Picture.readpicture (demuxer)";
+	}
+
+	@Override
+	public void setUp() throws Exception {
+		demuxer = new JpegStreamDemuxer(new TestData.LoopingChannel(TestData.pictureStream(30),
+				Integer.getInteger("bench.chunk", 8192)));
+	}
+
+	@Override
+	public Object run() throws Exception {
+		return demuxer.nextFrame();
+	}
+}
@@ -0,0 +1,67 @@
+package de.carduinodroid.shared;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+import de.carduinodroid.bench.Benchmark;
+
+/**
+ * \brief Measures decoding of control messages as the ControllerServlet receives them.
+ * \details One run() decodes FRAMES messages, so the time per message is the measured time / FRAMES.
+ * The binary mode decodes ControlFrames, the text mode splits "SessionID;keys" text messages like onTextMessage().
+ */
+public class ControlFrameBenchmark extends Benchmark {
+
+	/** Messages decoded per run. */
+	static final int FRAMES = 1000;
+
+	private final boolean binary;
+	private final ByteBuffer[] frames = new ByteBuffer[FRAMES];
+	private final CharBuffer[] texts = new CharBuffer[FRAMES];
+	private final ControlFrame frame = new ControlFrame();
+
+	/**
+	 * @param binary True to decode binary frames, false to decode text messages.
+	 */
+	public ControlFrameBenchmark(boolean binary) {
+		this.binary = binary;
+	}
+
+	@Override
+	public String getName() {
+		return binary ? "ControlFrame.decode x" + FRAMES : "ControllerServlet text message x" + FRAMES;
+	}
+
+	@Override
+	public void setUp() {
+		final String[] keys = { "w", "a", "s", "d", "wa", "wd" };
+		for (int i = 0; i < FRAMES; i++) {
+			frames[i] = ByteBuffer.allocate(ControlFrame.SIZE);
+			ControlFrame.encode(frames[i], i & 15, i, System.currentTimeMillis());
+			frames[i].flip();
+			texts[i] = CharBuffer.wrap("0123456789ABCDEF0123456789ABCDEF;" + keys[i % keys.length]);
+		}
+	}
+
+	@Override
+	public Object run() {
+		int sum = 0;
+		if (binary) {
+			final long now = System.currentTimeMillis();
+			for (int i = 0; i < FRAMES; i++) {
+				if (frame.decode(frames[i], now))
+					sum += frame.getKeys() + frame.getSequence();
+			}
+		} else {
+			for (int i = 0; i < FRAMES; i++) {
+				final CharBuffer buff = texts[i];
+				final String buffer = buff.toString();
+				final int index = buffer.indexOf(';');
+				sum += buffer.substring(0, index).hashCode();
+				for (int j = index + 1; j < buffer.length(); j++)
+					sum += buffer.charAt(j);
+			}
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,49 @@
+package de.carduinodroid.shared;
+
+import de.carduinodroid.bench.Benchmark;
+
+/**
+ * \brief Measures FrameProducer.grabFrame() and FrameProducer.grabJPEGFrame().
+ * \details The producer draws its test frames on its own thread without frame rate cap,
+ * so nearly every grabJPEGFrame() call has to encode a new frame.
+ */
+public class FrameProducerBenchmark extends Benchmark {
+
+	private final boolean jpeg;
+	private FrameProducer producer;
+	private Thread thread;
+
+	/**
+	 * @param jpeg True to measure grabJPEGFrame(), false to measure grabFrame().
+	 */
+	public FrameProducerBenchmark(boolean jpeg) {
+		this.jpeg = jpeg;
+	}
+
+	@Override
+	public String getName() {
+		return jpeg ? "FrameProducer.grabJPEGFrame" : "FrameProducer.grabFrame";
+	}
+
+	@Override
+	public void setUp() {
+		producer = new FrameProducer(new FrameClock(), 1000);
+		thread = new Thread(producer, "FrameProducer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public Object run() throws Exception {
+		return jpeg ? producer.grabJPEGFrame() : producer.grabFrame();
+	}
+
+	@Override
+	public void tearDown() throws InterruptedException {
+		// the producer may swallow an interrupt while sleeping, so repeat until it stopped
+		while (thread.isAlive()) {
+			thread.interrupt();
+			thread.join(10);
+		}
+	}
+}
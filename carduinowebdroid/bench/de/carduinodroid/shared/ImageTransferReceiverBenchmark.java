@@ -0,0 +1,31 @@
+package de.carduinodroid.shared;
+
+import java.io.InputStream;
+
+import de.carduinodroid.bench.Benchmark;
+import de.carduinodroid.bench.TestData;
+
+/**
+ * \brief Measures ImageTransferReceiver.readFrame() on a replayed RawFrameServer stream.
+ * \details The stream is read in chunks of bench.chunk bytes (default 8192) per read call.
+ */
+public class ImageTransferReceiverBenchmark extends Benchmark {
+
+	private InputStream in;
+	private final byte[] buffer = new byte[4];
+
+	@Override
+	public String getName() {
+		return "ImageTransferReceiver.readFrame";
+	}
+
+	@Override
+	public void setUp() throws Exception {
+		in = new TestData.LoopingInputStream(TestData.rawFrameStream(30), Integer.getInteger("bench.chunk", 8192));
+	}
+
+	@Override
+	public Object run() throws Exception {
+		return ImageTransferReceiver.readFrame(in, buffer);
+	}
+}
@@ -3,59 +3,80 @@ package de.carduinodroid;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
-import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
 import org.apache.catalina.websocket.MessageInbound;
 import org.apache.catalina.websocket.StreamInbound;
 import org.apache.catalina.websocket.WebSocketServlet;
 import org.apache.catalina.websocket.WsOutbound;
 import de.carduinodroid.utilities.CarControllerWrapper;
+import de.carduinodroid.utilities.LogNG;
 
+import de.carduinodroid.shared.ControlFrame;
 import de.carduinodroid.shared.activeSession;
 
 /**
  * \brief This Class is used to reveive Car-Control-Messages from the User
+ * \details The Tomcat session is bound to the connection at the handshake. Binary messages are ControlFrames (see ControlFrame),
+ * they are decoded without allocation, frames with an old sequence number are ignored. Text messages ("keys" or the old "SessionID;keys") are
+ * still accepted, the session ID in them is ignored.
+ * \details The time needed to decode and apply the frames is counted, see getStatistics(). The time of arrival is passed on with the command,
+ * commands which reach the car later than the control deadline are dropped on the way (see CarControllerWrapper.getControlStatistics()).
  * @author Alexander Rose
  *
  */
 
+@WebServlet("/control")
 public class ControllerServlet extends WebSocketServlet{
 
 	private static final long serialVersionUID = 1L;
-	static String SessionID = null;
-	
-	public StreamInbound createWebSocketInbound(String protocol) {
-		return new ControllMessageInbound();		 
-		}
-	
+
+	private static final AtomicLong frames = new AtomicLong();	/** accepted binary frames */
+	private static final AtomicLong rejected = new AtomicLong();	/** malformed binary frames */
+	private static final AtomicLong stale = new AtomicLong();	/** frames with an old sequence number */
+	private static final AtomicLong notDriver = new AtomicLong();	/** frames of users who don't drive */
+	private static final AtomicLong parseNanos = new AtomicLong();	/** time spent in onBinaryMessage */
+
 	private class ControllMessageInbound extends MessageInbound{
-		
+
+		private final String SessionID;	/** Tomcat session of the handshake */
+		private final ControlFrame frame = new ControlFrame();
+		private boolean first = true;
+		private int lastSequence;
+		private long count = 0;
+		private long nanos = 0;
+
+		ControllMessageInbound(String SessionID){
+			this.SessionID = SessionID;
+		}
+
 		public void onOpen(WsOutbound outbound){
-			//TODO wie geht das?
 			activeSession.insertSocket(SessionID, outbound);
-			
-
 		}
-		
+
 		@Override
 		public void onClose(int status){
 			activeSession.deleteSocket(SessionID);
+			LogNG log = (LogNG)getServletContext().getAttribute("log");
+			if (log != null && count > 0)
+				log.writelogfile("control connection closed: " + count + " frames, " + (nanos / count) + " ns per frame, "
+						+ CarControllerWrapper.getControlStatistics());
 		}
-	
+
 		protected void onTextMessage(CharBuffer buff) throws IOException{
 			char key;
-			String buffer = buff.toString();
-			int index = buffer.indexOf(';');
-			String SessionID = null;
-			for (int i = 0; i < index; i++){
-				SessionID = SessionID + buff.get();
-			}
-
-			if (activeSession.isDriver(SessionID) == false){
+			// only the session of the handshake counts, a session ID in front of ';' is skipped
+			if (SessionID == null || activeSession.isDriver(SessionID) == false){
 				return;
 			}
-			
-			for (int i = index; i < buff.length(); i++){
+			int index = buff.toString().indexOf(';');
+			buff.position(buff.position() + Math.max(0, index));
+
+			while (buff.hasRemaining()){
 				key = buff.get();
 				switch (key){
 				case 'a':
@@ -70,17 +91,46 @@ public class ControllerServlet extends WebSocketServlet{
 				case 's':
 					CarControllerWrapper.driveBackward();
 					break;
-				
+
 				}
 			}
 		}
-	
+
 		protected void onBinaryMessage (ByteBuffer buff) throws IOException{
-			
+			final long start = System.nanoTime();
+			if (!frame.decode(buff, System.currentTimeMillis(), start)){
+				rejected.incrementAndGet();
+			} else if (!first && !frame.isNewerThan(lastSequence)){
+				stale.incrementAndGet();
+			} else if (!activeSession.isDriver(SessionID)){
+				notDriver.incrementAndGet();
+			} else {
+				first = false;
+				lastSequence = frame.getSequence();
+				CarControllerWrapper.setDirection(frame);
+				frames.incrementAndGet();
+			}
+			final long time = System.nanoTime() - start;
+			parseNanos.addAndGet(time);
+			nanos += time;
+			count++;
 		}
 	}
 
+	/**
+	 * \brief Binds the Tomcat session of the handshake to the new connection.
+	 */
 	protected StreamInbound createWebSocketInbound(String arg0, HttpServletRequest arg1){
-		return null;
+		HttpSession session = arg1.getSession(false);
+		return new ControllMessageInbound(session == null ? null : session.getId());
+	}
+
+	/**
+	 * @return Returns the counters of all binary control frames received so far.
+	 */
+	public static String getStatistics(){
+		long total = frames.get() + rejected.get() + stale.get() + notDriver.get();
+		return "control frames: " + frames.get() + " accepted, " + rejected.get() + " malformed, " + stale.get() + " stale, "
+				+ notDriver.get() + " not from the driver, " + (total == 0 ? 0 : parseNanos.get() / total) + " ns per frame";
 	}
 }
@@ -15,7 +15,7 @@ import de.carduinodroid.utilities.LogNG;
 /**
  * Servlet Filter implementation class Filter
  */
-@WebFilter("/*")
+@WebFilter(urlPatterns = "/*", asyncSupported = true)
 
 /**
  * \brief This Class is used to catch ServletRequest e.g. Login,Logout or enqueue into the waiting queue
@@ -39,6 +39,9 @@ public class Filter implements javax.servlet.Filter {
 		boolean authorized = false;
 		boolean staticRequest = false;
 		boolean chatRequest = false;
+		boolean logRequest = false;
+		boolean controlRequest = false;
+		boolean telemetryRequest = false;
 		String target = "index";
 
 		if(request instanceof HttpServletRequest) {
@@ -127,6 +130,9 @@ public class Filter implements javax.servlet.Filter {
 
 			staticRequest = req.getRequestURI().startsWith(req.getContextPath() + "/static");
 			chatRequest = req.getRequestURI().startsWith(req.getContextPath() + "/chat");
+			logRequest = req.getRequestURI().equals(req.getContextPath() + "/log");	// LogServlet checks the admin right itself
+			controlRequest = req.getRequestURI().equals(req.getContextPath() + "/control");	// ControllerServlet only accepts the driver
+			telemetryRequest = req.getRequestURI().equals(req.getContextPath() + "/telemetry");	// TelemetryServlet only accepts logged in users
 			
 			if(session.getAttribute("nickName") != null && ((String)session.getAttribute("nickName")) != "") {
 				authorized = true;
@@ -135,7 +141,7 @@ public class Filter implements javax.servlet.Filter {
 					target = "admin";				
 			}
 		}
-		if(staticRequest || chatRequest) 
+		if(staticRequest || chatRequest || logRequest || controlRequest || telemetryRequest) 
 			chain.doFilter(request, res);
 		else {
 			if(!authorized) 
@@ -40,7 +40,8 @@ public class Main extends HttpServlet {
 	private static ArrayList<String> aliveSessions;
 	static LogNG log;
 	static int driveID;
-	static int Fahrzeit, gpsLogInterval;
+	static int Fahrzeit;
+	static double gpsLogInterval;
 	static Options opt;
 	static boolean flag;
 	static String aktSessionID;
@@ -122,10 +123,10 @@ public class Main extends HttpServlet {
 					session.setAttribute("nickName", u.getNickname());
 					session.setAttribute("userId", u.getUserID());
 					System.out.println("user " + u.getNickname() + " has logged in");
-					activeSession.insertSession(SessionID, ipAdress, userID);
+					activeSession.insertSession(SessionID, ipAdress, userID, u);
 					break;
 				case "enqueue":					
-					User user = db.getUserBySession(activeSession.getSessionInt(SessionID));
+					User user = activeSession.getUser(SessionID);
 					if (user == null){
 						System.out.println("User nicht gefunden");
 						break;
@@ -143,7 +144,7 @@ public class Main extends HttpServlet {
 					break;
 				case "watchDriver":
 					userID = "guest" + System.currentTimeMillis();
-					activeSession.insertSession(SessionID, ipAdress, userID);
+					activeSession.insertSession(SessionID, ipAdress, userID, new User(userID, userID, User.Right.GUEST));
 					session.setAttribute("isAdmin", false);
 					session.setAttribute("isUser", false);
 					session.setAttribute("nickname", userID);
@@ -276,7 +277,7 @@ public class Main extends HttpServlet {
 			e.printStackTrace();
 		}
 		GPSLog = new Timer();
-		GPSLog.schedule(GPSLogger, 10, gpsLogInterval * 1000);
+		GPSLog.schedule(GPSLogger, 10, Math.max(1, Math.round(gpsLogInterval * 1000)));
     }   
     
 }
@@ -29,8 +29,10 @@ public class MyServletContextListener implements ServletContextListener {
 		this.context = null;
 		
 		DBConnector db = (DBConnector)event.getServletContext().getAttribute("database");
-		db.shutDown();
+		// stop the timers first, so no new GPS records arrive while the writer is drained
 		Main.shutDown();
+		db.shutDown();
+		log.close();
 	}
 
 
@@ -43,7 +45,7 @@ public class MyServletContextListener implements ServletContextListener {
 		
 		// initialize everything		
 		// new log
-		log = new LogNG();
+		log = new LogNG(true);
 		log.writelogfile("logNG instanciated.");
 		context.setAttribute("log", log);
 		
@@ -66,6 +68,10 @@ public class MyServletContextListener implements ServletContextListener {
 		//Controller_Computer controller = new Controller_Computer(log.getOldLog(), gps);	
 		CarControllerWrapper controller = CarControllerWrapper.getCarController(log);
 		log.writelogfile("Controller_Computer instanciated.");
+		CarControllerWrapper.setBinaryControl(options.binaryControl);
+		CarControllerWrapper.setOverlayRequired(options.videoOverlay);
+		CarControllerWrapper.setControlKeepalive(options.controlKeepalive);
+		CarControllerWrapper.setControlDeadline(options.controlDeadline);
 		context.setAttribute("controller", controller);	
 				
 		// database
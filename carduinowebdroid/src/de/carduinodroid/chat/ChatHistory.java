@@ -0,0 +1,97 @@
+package de.carduinodroid.chat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * \brief The last chat messages, numbered by a sequence number.
+ * \details Fixed size ring without locks: append() claims the next sequence number with one atomic increment and publishes the message
+ * in its slot, overwriting the message capacity numbers before. Readers check the sequence number stored with every message,
+ * so they never return an overwritten message or one which is not published yet.
+ * \details Sequence numbers start at 1 and never repeat, so a client can ask for everything after the last message it has seen.
+ * They start at 1 again after a restart, so every history has an epoch (its creation time) which the client sends with the sequence number.
+ */
+class ChatHistory {
+
+	/**
+	 * \brief Message with its sequence number.
+	 */
+	static class Entry {
+		final long sequence;
+		final String text;
+
+		Entry(long sequence, String text) {
+			this.sequence = sequence;
+			this.text = text;
+		}
+	}
+
+	private final int mask;
+	private final AtomicReferenceArray<Entry> slots;
+	private final AtomicLong last = new AtomicLong();	/** sequence number of the newest claimed slot */
+	private final long epoch = System.currentTimeMillis();
+
+	/**
+	 * @param capacity Number of messages kept, rounded up to a power of two.
+	 */
+	ChatHistory(int capacity) {
+		final int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		this.mask = size - 1;
+		this.slots = new AtomicReferenceArray<Entry>(size);
+	}
+
+	/**
+	 * \brief Adds a message.
+	 * @param text Message to add.
+	 * @return Returns the sequence number of the message.
+	 */
+	long append(String text) {
+		final long sequence = last.incrementAndGet();
+		slots.set((int) sequence & mask, new Entry(sequence, text));
+		return sequence;
+	}
+
+	/**
+	 * \brief Returns all messages after the given sequence number which are still kept.
+	 * \details Stops at a message which is claimed but not published yet, it is sent with the live messages anyway.
+	 * @param sequence Sequence number of the last message the client has, 0 for all messages.
+	 * @return Returns the messages in order, an empty list if there are none.
+	 */
+	List<Entry> since(long sequence) {
+		final long newest = last.get();
+		final long first = Math.max(sequence + 1, newest - mask);
+		final List<Entry> list = new ArrayList<Entry>((int) Math.max(0, newest - first + 1));
+		for (long s = first; s <= newest; s++) {
+			final Entry entry = slots.get((int) s & mask);
+			if (entry == null || entry.sequence < s)
+				break;	// not published yet
+			if (entry.sequence > s)
+				continue;	// overwritten meanwhile
+			list.add(entry);
+		}
+		return list;
+	}
+
+	/**
+	 * @return Returns the sequence number of the newest message, 0 if there is none.
+	 */
+	long getLastSequence() {
+		return last.get();
+	}
+
+	/**
+	 * @return Returns the epoch of the sequence numbers, sequence numbers of another epoch belong to an earlier history.
+	 */
+	long getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * @return Returns the number of messages which can be kept.
+	 */
+	int getCapacity() {
+		return mask + 1;
+	}
+}
@@ -3,40 +3,78 @@ package de.carduinodroid.chat;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.ListIterator;
 
+import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
 
 import org.apache.catalina.websocket.MessageInbound;
 import org.apache.catalina.websocket.StreamInbound;
 import org.apache.catalina.websocket.WebSocketServlet;
 import org.apache.catalina.websocket.WsOutbound;
 
+import de.carduinodroid.shared.Broadcaster;
+import de.carduinodroid.shared.ChatMessage;
+import de.carduinodroid.shared.User;
+import de.carduinodroid.shared.activeSession;
+import de.carduinodroid.utilities.DBConnector;
+import de.carduinodroid.utilities.LogNG;
+
+/**
+ * \brief Chat over WebSocket.
+ * \details Every message is sent as "epoch:sequence|nickname: text", one message per line. A new connection first gets the recent messages
+ * from the ChatHistory in one frame, a reconnecting client passes the epoch and sequence number of the last message it has
+ * (/chat?epoch=e&since=n) and only gets the messages it missed. After a restart the sequence numbers start again with a new epoch, a client
+ * with another epoch gets all recent messages. The history is then filled once from the chat table.
+ */
 public class ChatServlet extends WebSocketServlet {
 
 	private static final long serialVersionUID = 4642341228711151433L;
-	
+
+	/** Maximum number of chat messages waiting for one client, a client which falls further behind is disconnected. */
+	static final int CLIENT_QUEUE_SIZE = 256;
+	/** Number of recent messages kept for new connections. */
+	static final int HISTORY_SIZE = 128;
+	/** Maximum length of a message, same as the database. */
+	static final int MAX_LENGTH = 256;
+
+	/**
+	 * Connected clients, every message is sent to them by the worker threads of the broadcaster
+	 */
+	private final Broadcaster clients = new Broadcaster("chat", CLIENT_QUEUE_SIZE, Broadcaster.Overflow.EVICT,
+			Math.max(2, Runtime.getRuntime().availableProcessors()));
+	private final ChatHistory history = new ChatHistory(HISTORY_SIZE);
+	/** Held while a message is added and broadcast or a client is registered and primed, so no client misses or repeats a message */
+	private final Object order = new Object();
+
 	public ChatServlet() {
 		System.out.println("ChatServlet instanciated");
 	}
 
-	/**
-	 * Connected clients
-	 */
-	private static List<StreamInbound> clients = new ArrayList<StreamInbound>();
+	@Override
+	public void init() throws ServletException {
+		super.init();
+		loadHistory();
+	}
 
 	@Override
 	protected StreamInbound createWebSocketInbound(String string,
 			HttpServletRequest hsr) {
+		HttpSession session = hsr.getSession(false);
+		final String SessionID = session == null ? null : session.getId();
+		// sequence numbers of an earlier epoch say nothing about this history
+		final long since = parse(hsr.getParameter("epoch")) == history.getEpoch() ? parse(hsr.getParameter("since")) : 0;
+
 		//anonymous inner class
 		MessageInbound inbound = new MessageInbound() {
 
+			private Broadcaster.Client client;
+
 			@Override
 			protected void onClose(int status) {
 				System.out.println("onClose - status code: " + status);
-				clients.remove(this);
+				clients.remove(client);
 			}
 
 			@Override
@@ -46,45 +84,98 @@ public class ChatServlet extends WebSocketServlet {
 
 			@Override
 			protected void onTextMessage(CharBuffer cb) throws IOException {
-				System.out.println("onTextMessage");
-
-				CharBuffer msg = CharBuffer.wrap(cb);
-				WsOutbound outbound = getWsOutbound();
-				// Send message to client connected
-				outbound.writeTextMessage(msg);
-				// Send message to all clients connected
-				broadcast("Broadcast");
+				User user = activeSession.getUser(SessionID);
+				if (user == null)
+					return;	// not logged in
+				String text = clean(cb.toString());
+				if (text.isEmpty())
+					return;
+				LogNG log = (LogNG) getServletContext().getAttribute("log");
+				if (log != null)
+					log.logChat(user.getUserID(), activeSession.getSessionInt(SessionID), text);
+				// Send message to all clients connected (including the sender)
+				broadcast(user.getNickname() + ": " + text);
 			}
 
 			@Override
 			protected void onOpen(WsOutbound outbound) {
-				int connSize = clients.size();
-				System.out.println("onOpen - connections: " + connSize);
+				synchronized (order) {
+					client = clients.add(outbound);
+					List<ChatHistory.Entry> missed = history.since(since);
+					if (!missed.isEmpty())
+						client.send(join(missed));
+				}
+				System.out.println("onOpen - connections: " + clients.getClientCount());
 			}
 		};
 
-		// Collect clients connected
-		clients.add(inbound);
-
 		return inbound;
 	}
-	
+
 	/**
 	 * Send a message to all clients connected.
-	 * 
+	 * The message is only queued, slow clients don't delay the caller or the other clients.
+	 *
 	 * @param message
 	 */
 	private void broadcast(String message) {
-		StreamInbound someClient;
-		ListIterator<StreamInbound> iter = clients.listIterator();
-		while (iter.hasNext()) {
-			someClient = (MessageInbound) iter.next();
-			try {
-				someClient.getWsOutbound().writeTextMessage(
-						CharBuffer.wrap(message));
-			} catch (IOException e) {
+		synchronized (order) {
+			long sequence = history.append(message);
+			clients.broadcast(history.getEpoch() + ":" + sequence + "|" + message);
+		}
+	}
+
+	/**
+	 * Fills the history with the newest messages of the database, only if it is still empty.
+	 */
+	private void loadHistory() {
+		DBConnector db = (DBConnector) getServletContext().getAttribute("database");
+		if (db == null || history.getLastSequence() > 0)
+			return;
+		List<ChatMessage> recent = db.getRecentChat(history.getCapacity());
+		if (recent == null || recent.isEmpty())
+			return;
+		synchronized (order) {
+			for (ChatMessage message : recent) {
+				String nickname = message.getNickname();
+				history.append((nickname == null ? message.getUserID() : nickname) + ": " + clean(message.getText()));
 			}
 		}
 	}
-}
 
+	private String join(List<ChatHistory.Entry> entries) {
+		StringBuilder frame = new StringBuilder(entries.size() * 64);
+		for (ChatHistory.Entry entry : entries) {
+			if (frame.length() > 0)
+				frame.append('\n');
+			frame.append(history.getEpoch()).append(':').append(entry.sequence).append('|').append(entry.text);
+		}
+		return frame.toString();
+	}
+
+	/**
+	 * Removes line breaks (they separate the messages of a frame) and limits the length.
+	 */
+	private static String clean(String text) {
+		if (text == null)
+			return "";
+		text = text.replace('\r', ' ').replace('\n', ' ').trim();
+		return text.length() > MAX_LENGTH ? text.substring(0, MAX_LENGTH) : text;
+	}
+
+	private static long parse(String value) {
+		if (value == null)
+			return 0;
+		try {
+			return Math.max(0, Long.parseLong(value));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	@Override
+	public void destroy() {
+		clients.close();
+		super.destroy();
+	}
+}
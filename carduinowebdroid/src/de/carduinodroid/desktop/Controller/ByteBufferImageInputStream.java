@@ -0,0 +1,51 @@
+package de.carduinodroid.desktop.Controller;
+
+import java.nio.ByteBuffer;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+
+/**
+ * ImageInputStream on the remaining bytes of a ByteBuffer.
+ * Unlike a MemoryCacheImageInputStream it does not copy the data into its own cache, the decoder reads the buffer directly.
+ */
+class ByteBufferImageInputStream extends ImageInputStreamImpl {
+
+	private final ByteBuffer buffer;
+	private final int offset;
+
+	/**
+	 * @param buffer Buffer to read, it is not modified.
+	 */
+	ByteBufferImageInputStream(ByteBuffer buffer) {
+		this.buffer = buffer.duplicate();
+		this.offset = buffer.position();
+	}
+
+	@Override
+	public int read() {
+		bitOffset = 0;
+		if (streamPos >= length())
+			return -1;
+		return buffer.get(offset + (int) streamPos++) & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) {
+		bitOffset = 0;
+		if (len == 0)
+			return 0;
+		final long left = length() - streamPos;
+		if (left <= 0)
+			return -1;
+		final int n = (int) Math.min(len, left);
+		buffer.position(offset + (int) streamPos);
+		buffer.get(b, off, n);
+		streamPos += n;
+		return n;
+	}
+
+	@Override
+	public long length() {
+		return buffer.limit() - offset;
+	}
+}
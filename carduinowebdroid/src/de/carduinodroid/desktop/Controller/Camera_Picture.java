@@ -4,11 +4,20 @@ import java.awt.Graphics2D;
 import java.awt.GraphicsConfiguration;
 import java.awt.GraphicsDevice;
 import java.awt.GraphicsEnvironment;
-import java.awt.Transparency;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import javax.swing.ImageIcon;
 
+import de.carduinodroid.utilities.CarControllerWrapper;
+
 
 /**
  * This class is used to update the Camera pictures on the GUI
@@ -19,6 +28,29 @@ public class Camera_Picture {
 
 	Controller_Computer controller;
 	
+	/** EXIF orientation 6: the image has to be turned by 90 degrees clockwise for display */
+	private static final byte[] EXIF_ROTATE_90 = {
+		(byte)0xFF, (byte)0xE1, 0x00, 0x22,				// APP1, length 34
+		'E', 'x', 'i', 'f', 0x00, 0x00,					// EXIF identifier
+		'M', 'M', 0x00, 0x2A, 0x00, 0x00, 0x00, 0x08,	// TIFF header, big endian, IFD at offset 8
+		0x00, 0x01,										// one IFD entry
+		0x01, 0x12, 0x00, 0x03, 0x00, 0x00, 0x00, 0x01,	// tag orientation, type SHORT, count 1
+		0x00, 0x06, 0x00, 0x00,							// value 6
+		0x00, 0x00, 0x00, 0x00							// no next IFD
+	};
+	
+	/** Edge length of the tiles used by the transpose, keeps source and target lines in the cache */
+	private static final int TILE = 32;
+	
+	// All buffers are opaque images which are only reallocated when the resolution changes.
+	// JPEGs are decoded into TYPE_3BYTE_BGR, the native format of the reader, everything else is TYPE_INT_RGB.
+	private ImageReader reader;
+	private BufferedImage decoded;
+	private BufferedImage converted;
+	/** The rotated images are double buffered, the FrameProducer draws from one while the next is written into the other */
+	private final BufferedImage[] rotated = new BufferedImage[2];
+	private int current = 0;
+	
 	public Camera_Picture(Controller_Computer controller) {
 		this.controller = controller;
 	}
@@ -33,12 +65,86 @@ public class Camera_Picture {
 		controller.parent.setImg(image);
 	}
 	
+	/**
+	 * This method updates the Image with the JPEG data received from the phone.
+	 * The JPEG data is passed on to the viewers as it is, the rotation is only signalled as EXIF orientation.
+	 * The image is only decoded and rotated if an overlay has to be drawn onto it.
+	 * @param jpeg one complete JPEG image, only valid during this call
+	 */
+	public void receive_jpeg(ByteBuffer jpeg) {
+		BufferedImage image = null;
+		if (CarControllerWrapper.isOverlayRequired()) {
+			try {
+				image = decode(jpeg);
+			} catch (IOException e) {
+				System.out.println("fehler beim dekodieren");
+			}
+			if (image != null)
+				image = rotate(image, Math.toRadians(90));
+		}
+		controller.parent.setFrame(withOrientation(jpeg), image);
+	}
+	
+	/**
+	 * Copies the JPEG data and inserts an EXIF segment which tells the viewer to rotate the image by 90 degrees.
+	 * The segment is placed behind SOI or, if present, behind the JFIF APP0 segment.
+	 * @param jpeg one complete JPEG image
+	 * @return returns the JPEG data including the EXIF segment
+	 */
+	static byte[] withOrientation(ByteBuffer jpeg) {
+		final ByteBuffer src = jpeg.duplicate();
+		final int p = src.position();
+		int insert = 2;
+		if (src.remaining() > 6 && (src.get(p + 2) & 0xFF) == 0xFF && (src.get(p + 3) & 0xFF) == 0xE0)
+			insert += 2 + (((src.get(p + 4) & 0xFF) << 8) | (src.get(p + 5) & 0xFF));
+		if (insert > src.remaining())
+			insert = 2;
+		final byte[] out = new byte[src.remaining() + EXIF_ROTATE_90.length];
+		src.get(out, 0, insert);
+		System.arraycopy(EXIF_ROTATE_90, 0, out, insert, EXIF_ROTATE_90.length);
+		src.get(out, insert + EXIF_ROTATE_90.length, src.remaining());
+		return out;
+	}
+	
+	/**
+	 * Decodes the JPEG data into a reused opaque image of type TYPE_3BYTE_BGR.
+	 * @param jpeg one complete JPEG image
+	 * @return returns the decoded image, it is overwritten by the next call
+	 * @throws IOException if the data can not be decoded
+	 */
+	BufferedImage decode(ByteBuffer jpeg) throws IOException {
+		if (reader == null)
+			reader = ImageIO.getImageReadersByFormatName("JPEG").next();
+		ImageInputStream in = new ByteBufferImageInputStream(jpeg);
+		try {
+			reader.setInput(in, true, true);
+			int w = reader.getWidth(0), h = reader.getHeight(0);
+			decoded = reuse(decoded, w, h, BufferedImage.TYPE_3BYTE_BGR);
+			ImageReadParam param = reader.getDefaultReadParam();
+			param.setDestination(decoded);
+			reader.read(0, param);
+			return decoded;
+		} finally {
+			reader.setInput(null);
+			in.close();
+		}
+	}
+	
+	/**
+	 * Rotates the image. Rotations by 90 degrees are done by transposing the pixels into a reused buffer,
+	 * other angles are drawn into a new opaque image.
+	 * @param image the image to rotate
+	 * @param angle the angle in radians
+	 * @return returns the rotated image, for 90 degrees it stays valid until the next but one call
+	 */
 	public BufferedImage rotate(BufferedImage image, double angle) {
+		if (angle == Math.toRadians(90))
+			return image.getType() == BufferedImage.TYPE_3BYTE_BGR ? rotate90BGR(image) : rotate90(opaque(image));
+		
 	    double sin = Math.abs(Math.sin(angle)), cos = Math.abs(Math.cos(angle));
 	    int w = image.getWidth(), h = image.getHeight();
 	    int neww = (int)Math.floor(w*cos+h*sin), newh = (int)Math.floor(h*cos+w*sin);
-	    GraphicsConfiguration gc = getDefaultConfiguration();
-	    BufferedImage result = gc.createCompatibleImage(neww, newh, Transparency.TRANSLUCENT);
+	    BufferedImage result = new BufferedImage(neww, newh, BufferedImage.TYPE_INT_RGB);
 	    Graphics2D g = result.createGraphics();
 	    g.translate((neww-w)/2, (newh-h)/2);
 	    g.rotate(angle, w/2, h/2);
@@ -47,6 +153,93 @@ public class Camera_Picture {
 	    return result;
 	}
 	
+	/**
+	 * Rotates an opaque image by 90 degrees clockwise into the next of the two output buffers.
+	 * The pixels are transposed tile by tile directly on the int arrays of the images.
+	 * @param image image of type TYPE_INT_RGB
+	 * @return returns the rotated image
+	 */
+	private BufferedImage rotate90(BufferedImage image) {
+		int w = image.getWidth(), h = image.getHeight();
+		BufferedImage result = nextRotated(h, w);
+		int[] src = pixels(image);
+		int[] dst = pixels(result);
+		for (int ty = 0; ty < h; ty += TILE) {
+			int ey = Math.min(ty + TILE, h);
+			for (int tx = 0; tx < w; tx += TILE) {
+				int ex = Math.min(tx + TILE, w);
+				for (int y = ty; y < ey; y++) {
+					// source line y becomes target column h-1-y
+					int s = y * w;
+					int d = h - 1 - y;
+					for (int x = tx; x < ex; x++)
+						dst[x * h + d] = src[s + x];
+				}
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Rotates a decoded image by 90 degrees clockwise and converts it to TYPE_INT_RGB in the same pass.
+	 * @param image image of type TYPE_3BYTE_BGR
+	 * @return returns the rotated image
+	 */
+	private BufferedImage rotate90BGR(BufferedImage image) {
+		int w = image.getWidth(), h = image.getHeight();
+		BufferedImage result = nextRotated(h, w);
+		byte[] src = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+		int[] dst = pixels(result);
+		for (int ty = 0; ty < h; ty += TILE) {
+			int ey = Math.min(ty + TILE, h);
+			for (int tx = 0; tx < w; tx += TILE) {
+				int ex = Math.min(tx + TILE, w);
+				for (int y = ty; y < ey; y++) {
+					int s = (y * w + tx) * 3;
+					int d = h - 1 - y;
+					for (int x = tx; x < ex; x++, s += 3)
+						dst[x * h + d] = (src[s + 2] & 0xFF) << 16 | (src[s + 1] & 0xFF) << 8 | (src[s] & 0xFF);
+				}
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * @return returns the next of the two output buffers in the requested size
+	 */
+	private BufferedImage nextRotated(int w, int h) {
+		current ^= 1;
+		rotated[current] = reuse(rotated[current], w, h, BufferedImage.TYPE_INT_RGB);
+		return rotated[current];
+	}
+	
+	/**
+	 * @return returns the image itself if it is of type TYPE_INT_RGB, otherwise a copy in a reused buffer of that type
+	 */
+	private BufferedImage opaque(BufferedImage image) {
+		if (image.getType() == BufferedImage.TYPE_INT_RGB)
+			return image;
+		converted = reuse(converted, image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = converted.createGraphics();
+		g.drawImage(image, 0, 0, null);
+		g.dispose();
+		return converted;
+	}
+	
+	/**
+	 * @return returns the given buffer if it has the requested size, otherwise a new buffer
+	 */
+	private static BufferedImage reuse(BufferedImage buffer, int w, int h, int type) {
+		if (buffer != null && buffer.getWidth() == w && buffer.getHeight() == h)
+			return buffer;
+		return new BufferedImage(w, h, type);
+	}
+	
+	private static int[] pixels(BufferedImage image) {
+		return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+	}
+	
 	public static GraphicsConfiguration getDefaultConfiguration() {
 		GraphicsEnvironment ge = GraphicsEnvironment.getLocalGraphicsEnvironment();
 		GraphicsDevice gd = ge.getDefaultScreenDevice();
@@ -1,7 +1,15 @@
 package de.carduinodroid.desktop.Controller;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.carduinodroid.shared.ControlFrame;
+import de.carduinodroid.shared.LatencyHistogram;
 
 /**
 * methods for control signals
@@ -13,63 +21,147 @@ public class Car_Controller {
 	Controller_Computer controller_computer;
 	
 	//initiate all used variables
-	int delay=0;
-	boolean RunTimer = false, up = false, down = false, right = false, left = false;
+	volatile boolean up = false, down = false, right = false, left = false;
+	//sequence number and times of the last command, sent with the binary packets
+	volatile int sequence = 0;
+	volatile long client_time = 0, receive_time = 0;
+	volatile boolean binary = false;
+	//System.nanoTime() when the last command arrived
+	volatile long ingress = System.nanoTime();
+	//period of the keepalive signal while the car is moving, in nanoseconds
+	volatile long keepalive_period = TimeUnit.MILLISECONDS.toNanos(100);
+	//maximum age of a control signal, older ones are dropped, in nanoseconds
+	volatile long deadline_budget = TimeUnit.MILLISECONDS.toNanos(50);
+	
+	//latency from ingress to the socket of the commands sent, signals dropped before the socket
+	final LatencyHistogram latency = new LatencyHistogram();
+	final AtomicLong late = new AtomicLong();
 	
-	//constructor of the timer
-	Timer controlsignal = new Timer();
+	//last command sent and the running keepalive, only used by the scheduler thread
+	boolean moving = false;
+	int sent_speed, sent_angle, sent_keys;
+	ScheduledFuture<?> keepalive = null;
+	long keepalive_due;
 	
-	//constructor of the timer task
-	TimerTask ControlTask = new TimerTask(){
+	//set while a ControlTask is queued, so a burst of changes is sent once
+	final AtomicBoolean pending = new AtomicBoolean();
+	
+	//one thread sends all control signals, so they are sent in order
+	final ScheduledExecutorService controlsignal = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "control signal");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	
+	//sends the current command if it differs from the last one
+	Runnable ControlTask = new Runnable(){
 		@Override
 		public void run() {
-			//If someone pushes the up or down key, the Controlsignal will be send
-			if((!up&&down)||(up&&!down)){
-				int Speed = controller_computer.parent.getSpeed();
-				int angle = controller_computer.parent.getAngle();
-				if(!right&&!left)
-					send_controlsignal(SpeedCalculation(Speed),0);
-				else
-					send_controlsignal(SpeedCalculation(Speed),DirectionCalculation(angle));
-			}
-			//With a 200ms period the Buttons will be released, if they are not any longer pushed.
-			delay++;
-			if(delay==2){
-				if(!up) controller_computer.parent.confirmButtonUp(false);
-				if(!down) controller_computer.parent.confirmButtonDown(false);
-				if(!right||!(up||down)) controller_computer.parent.confirmButtonRight(false);
-				if(!left||!(up||down)) controller_computer.parent.confirmButtonLeft(false);
-				delay=0;
-			}
+			pending.set(false);
+			send_state(false);
+		}
+	};
+	
+	//repeats the current command while the car is moving
+	Runnable KeepaliveTask = new Runnable(){
+		@Override
+		public void run() {
+			send_state(true);
 		}
 	};
 	
 	// ***** Car_Controller Konstruktor ***************************************
 	/** 
-	 * Needs the Controller_Computer to get access to the log and starts the 
-	 * timer without any delay and a 100ms period.
+	 * Needs the Controller_Computer to get access to the log. Nothing is sent
+	 * until the first key is pressed.
 	 */
 	public Car_Controller(Controller_Computer ControllerComputer){
 		controller_computer = ControllerComputer;
-		controlsignal.scheduleAtFixedRate(ControlTask, 0, 100);
+	}
+	
+	// ***** Send State ***************************************
+	/** 
+	 * Runs on the scheduler thread. If someone pushes the up or down key, the
+	 * control signal is sent at once when the command changed and repeated
+	 * every keepalive period afterwards, so the car keeps driving. When the
+	 * keys are released the keepalive stops and the car stops by itself
+	 * like before, nothing is sent while it stands.
+	 * A command which is older than the deadline budget when it gets here
+	 * (its ingress time, or for a keepalive the time it was due) is dropped,
+	 * the car then stops by itself or gets the next keepalive.
+	 */
+	private void send_state(boolean repeat){
+		try {
+			if(up != down){
+				int speed = SpeedCalculation(controller_computer.parent.getSpeed());
+				int angle = (!right&&!left) ? 0 : DirectionCalculation(controller_computer.parent.getAngle());
+				int keys = (up ? ControlFrame.UP : 0) | (down ? ControlFrame.DOWN : 0) | (left ? ControlFrame.LEFT : 0) | (right ? ControlFrame.RIGHT : 0);
+				if(repeat || !moving || speed != sent_speed || angle != sent_angle || keys != sent_keys){
+					long stamp = repeat ? keepalive_due : ingress;
+					long budget = deadline_budget;
+					if(System.nanoTime() - stamp > budget)
+						late.incrementAndGet();
+					else if(send_controlsignal(speed, angle, stamp + budget)){
+						sent_speed = speed; sent_angle = angle; sent_keys = keys;
+						if(!repeat) latency.record(System.nanoTime() - stamp);
+					}
+					//the next keepalive follows one period after this signal
+					if(repeat)
+						keepalive_due += keepalive_period;
+					else {
+						if(keepalive != null) keepalive.cancel(false);
+						long period = keepalive_period;
+						keepalive_due = System.nanoTime() + period;
+						keepalive = controlsignal.scheduleAtFixedRate(KeepaliveTask, period, period, TimeUnit.NANOSECONDS);
+					}
+				}
+				moving = true;
+			}
+			else {
+				if(keepalive != null) keepalive.cancel(false);
+				keepalive = null;
+				moving = false;
+			}
+			//buttons which are not longer pushed are released
+			if(!up) controller_computer.parent.confirmButtonUp(false);
+			if(!down) controller_computer.parent.confirmButtonDown(false);
+			if(!right||!(up||down)) controller_computer.parent.confirmButtonRight(false);
+			if(!left||!(up||down)) controller_computer.parent.confirmButtonLeft(false);
+		}
+		catch (RuntimeException e) {
+			//an exception would cancel the keepalive
+			e.printStackTrace();
+		}
 	}
 	
 	// ***** Send Control signal ***************************************
 	/** 
 	 * Control Signal is the method for all direction commands. It has 2
 	 * variables which are already calculated and provides a feedback if 
-	 * the sending was successful.
+	 * the sending was successful. The socket drops the signal if it can
+	 * not be written before the deadline.
 	 */
-	private void send_controlsignal(int speed,int angle){		
-		if (controller_computer.network.send_controllsignal(speed+";"+up+";"+angle+";"+right))
+	private boolean send_controlsignal(int speed,int angle,long deadline){		
+		boolean sent;
+		if (binary){
+			int keys = (up ? ControlFrame.UP : 0) | (down ? ControlFrame.DOWN : 0) | (left ? ControlFrame.LEFT : 0) | (right ? ControlFrame.RIGHT : 0);
+			sent = controller_computer.network.send_controlpacket(speed, angle, keys, sequence, client_time, receive_time, deadline);
+		}
+		else
+			sent = controller_computer.network.send_controllsignal(speed, up, angle, right, deadline);
+		if (sent)
 		 feedback_output();
+		return sent;
 	}
 	
 	// ***** Feedback Output ***************************************
 				/** 
 				 * It is the method to show which button is pressed.
-				 * The feedback works with the timer to check all 200ms
-				 * if the button is still pressed.
+				 * The buttons are released again by send_state when they
+				 * are not longer pressed.
 				 */
 	private void feedback_output(){
 		if(up){controller_computer.parent.confirmButtonUp(true);}
@@ -80,14 +172,78 @@ public class Car_Controller {
 	
 	// ***** Update Variables ***************************************
 			/** 
-			 * The timer needs the current settings of the keys you are 
-			 * pressing. Without variables you won't be able to see what
-			 * is still pressed or not.
+			 * Takes the current settings of the keys you are pressing. A
+			 * change is sent to the car immediately by the scheduler thread.
 			 */
 	public void UpdateVariables(boolean Up, boolean Down, boolean Right, boolean Left){
+		UpdateVariables(Up, Down, Right, Left, System.nanoTime());
+	}
+	
+	/** 
+	 * Same as UpdateVariables(Up, Down, Right, Left) for a command which
+	 * arrived at Ingress (System.nanoTime()), its age is checked against
+	 * the deadline budget on the way to the car.
+	 */
+	public void UpdateVariables(boolean Up, boolean Down, boolean Right, boolean Left, long Ingress){
+		ingress = Ingress;
 		up = Up; down = Down; 
 		if(!left)right = Right; 
 		if(!right)left = Left;
+		if(pending.compareAndSet(false, true))
+			controlsignal.execute(ControlTask);
+	}
+	
+	/** 
+	 * Same as UpdateVariables(Up, Down, Right, Left), additionally keeps
+	 * the sequence number and the times of the command for the binary packets.
+	 */
+	public void UpdateVariables(boolean Up, boolean Down, boolean Right, boolean Left, int Sequence, long ClientTime, long ReceiveTime){
+		UpdateVariables(Up, Down, Right, Left, Sequence, ClientTime, ReceiveTime, System.nanoTime());
+	}
+	
+	/** 
+	 * Same as UpdateVariables(Up, Down, Right, Left, Sequence, ClientTime, ReceiveTime)
+	 * for a command which arrived at Ingress (System.nanoTime()).
+	 */
+	public void UpdateVariables(boolean Up, boolean Down, boolean Right, boolean Left, int Sequence, long ClientTime, long ReceiveTime, long Ingress){
+		sequence = Sequence; client_time = ClientTime; receive_time = ReceiveTime;
+		UpdateVariables(Up, Down, Right, Left, Ingress);
+	}
+	
+	/** 
+	 * Selects binary packets (Socket_Controller.send_controlpacket) or text lines
+	 * for the control signal. Text lines are understood by every version of the app.
+	 */
+	public void setBinary(boolean Binary){
+		binary = Binary;
+	}
+	
+	/** 
+	 * Sets how often the control signal is repeated while the car is moving.
+	 * The car stops if it does not get a signal for a while, so the period
+	 * has to stay below its timeout.
+	 * @param Period period in milliseconds, fractions allowed
+	 */
+	public void setKeepalive(double Period){
+		keepalive_period = Math.max(100000L, (long) (Period * 1000000));
+	}
+	
+	/** 
+	 * Sets the maximum age of a control signal. A command which can not be
+	 * sent to the car within this time after it arrived is dropped.
+	 * @param Budget budget in milliseconds, fractions allowed
+	 */
+	public void setDeadline(double Budget){
+		deadline_budget = Math.max(100000L, (long) (Budget * 1000000));
+	}
+	
+	/** 
+	 * Returns the latency histogram of the commands from ingress to the
+	 * socket and the number of signals dropped because they were late.
+	 */
+	public String getStatistics(){
+		return "control latency: " + latency + ", " + late.get() + " late before sending, "
+				+ controller_computer.network.get_control_late() + " late at the socket";
 	}
 	
 	// ***** Speed Calculation ***************************************
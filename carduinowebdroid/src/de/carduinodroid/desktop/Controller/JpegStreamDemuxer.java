@@ -0,0 +1,262 @@
+package de.carduinodroid.desktop.Controller;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Splits a stream of concatenated JPEG images into single frames.
+ * The stream is read into one reusable direct buffer and parsed incrementally along the JPEG markers:
+ * segments with a length field are skipped as a whole, only the entropy coded data after SOS is scanned byte by byte.
+ * Markers split over two reads and several frames in one read are handled, data in front of a SOI marker is skipped.
+ * Every frame is returned as a read-only view on the internal buffer, no bytes are copied.
+ */
+public class JpegStreamDemuxer {
+
+	/** Initial size of the read buffer. */
+	public static final int INITIAL_CAPACITY = 64 * 1024;
+	/** Frames larger than this are dropped. */
+	public static final int MAX_FRAME_SIZE = 8 * 1024 * 1024;
+
+	private static final int SOI = 0xD8;
+	private static final int EOI = 0xD9;
+	private static final int SOS = 0xDA;
+	private static final int TEM = 0x01;
+	private static final int RST0 = 0xD0;
+	private static final int RST7 = 0xD7;
+
+	private static final int SEARCH_SOI = 0;
+	private static final int MARKER = 1;
+	private static final int ENTROPY = 2;
+
+	private final ReadableByteChannel channel;
+	private ByteBuffer buffer;
+
+	private int state = SEARCH_SOI;
+	/** Index of the SOI marker of the current frame or -1. */
+	private int start = -1;
+	/** Next index to parse. */
+	private int scan = 0;
+	/** End of the valid data in the buffer. */
+	private int end = 0;
+
+	private final long created = System.nanoTime();
+	private long bytesRead = 0;
+	private long frames = 0;
+	private long droppedBytes = 0;
+	private long parseNanos = 0;
+
+	/**
+	 * @param channel Channel delivering the JPEG stream.
+	 */
+	public JpegStreamDemuxer(ReadableByteChannel channel) {
+		this(channel, INITIAL_CAPACITY);
+	}
+
+	/**
+	 * @param channel Channel delivering the JPEG stream.
+	 * @param capacity Initial size of the read buffer, it grows if a frame does not fit.
+	 */
+	public JpegStreamDemuxer(ReadableByteChannel channel, int capacity) {
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocateDirect(capacity);
+	}
+
+	/**
+	 * Reads until the next complete frame is in the buffer.
+	 * The returned buffer is only valid until the next call of this method.
+	 * @return returns a read-only buffer holding exactly one JPEG image from SOI to EOI, or null if the stream ended
+	 * @throws IOException if reading from the channel fails
+	 */
+	public ByteBuffer nextFrame() throws IOException {
+		for (;;) {
+			final long t = System.nanoTime();
+			final int frameEnd = parse();
+			parseNanos += System.nanoTime() - t;
+
+			if (frameEnd >= 0) {
+				final ByteBuffer view = buffer.duplicate();
+				view.limit(frameEnd).position(start);
+				final ByteBuffer frame = view.slice().asReadOnlyBuffer();
+				scan = frameEnd;
+				start = -1;
+				state = SEARCH_SOI;
+				frames++;
+				return frame;
+			}
+			if (!fill())
+				return null;
+		}
+	}
+
+	/**
+	 * Parses the buffer from scan up to end.
+	 * @return returns the index behind the EOI marker of the current frame or -1 if more data is needed
+	 */
+	private int parse() {
+		while (scan < end) {
+			switch (state) {
+			case SEARCH_SOI:
+				if (scan + 1 >= end)
+					return -1;
+				if (get(scan) == 0xFF && get(scan + 1) == SOI) {
+					start = scan;
+					scan += 2;
+					state = MARKER;
+				} else {
+					scan++;
+				}
+				break;
+
+			case MARKER:
+				if (get(scan) != 0xFF) {
+					resync();
+					break;
+				}
+				if (scan + 1 >= end)
+					return -1;
+				final int marker = get(scan + 1);
+				if (marker == 0xFF) {
+					// fill byte
+					scan++;
+				} else if (marker == EOI) {
+					return scan + 2;
+				} else if (marker == SOI) {
+					// previous frame was cut off, start over with this one
+					droppedBytes += scan - start;
+					start = scan;
+					scan += 2;
+				} else if (marker == TEM || (marker >= RST0 && marker <= RST7)) {
+					scan += 2;
+				} else {
+					if (scan + 3 >= end)
+						return -1;
+					final int length = (get(scan + 2) << 8) | get(scan + 3);
+					if (length < 2) {
+						resync();
+						break;
+					}
+					scan += 2 + length;
+					if (marker == SOS)
+						state = ENTROPY;
+				}
+				break;
+
+			case ENTROPY:
+				if (get(scan) != 0xFF) {
+					scan++;
+					break;
+				}
+				if (scan + 1 >= end)
+					return -1;
+				final int next = get(scan + 1);
+				if (next == 0x00 || (next >= RST0 && next <= RST7)) {
+					// stuffed byte or restart marker, still entropy coded data
+					scan += 2;
+				} else if (next == 0xFF) {
+					scan++;
+				} else {
+					state = MARKER;
+				}
+				break;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Drops the current frame after a corrupt marker and searches for the next SOI.
+	 */
+	private void resync() {
+		droppedBytes += scan - start;
+		scan = start + 1;
+		start = -1;
+		state = SEARCH_SOI;
+	}
+
+	private int get(int index) {
+		return buffer.get(index) & 0xFF;
+	}
+
+	/**
+	 * Makes room in the buffer and reads from the channel.
+	 * @return returns false if the stream ended
+	 */
+	private boolean fill() throws IOException {
+		final int keep = start >= 0 ? start : Math.min(scan, end);
+		if (keep > 0) {
+			buffer.limit(end).position(keep);
+			buffer.compact();
+			end -= keep;
+			scan -= keep;
+			if (start >= 0)
+				start -= keep;
+		}
+
+		if (end == buffer.capacity()) {
+			if (buffer.capacity() >= MAX_FRAME_SIZE) {
+				// no end in sight, drop what we have
+				droppedBytes += end;
+				end = 0;
+				scan = 0;
+				start = -1;
+				state = SEARCH_SOI;
+			} else {
+				final ByteBuffer grown = ByteBuffer.allocateDirect(Math.min(buffer.capacity() * 2, MAX_FRAME_SIZE));
+				buffer.limit(end).position(0);
+				grown.put(buffer);
+				buffer = grown;
+			}
+		}
+
+		buffer.limit(buffer.capacity()).position(end);
+		final int n = channel.read(buffer);
+		if (n < 0)
+			return false;
+		end += n;
+		bytesRead += n;
+		return true;
+	}
+
+	/**
+	 * @return returns the number of bytes read from the channel
+	 */
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	/**
+	 * @return returns the number of complete frames returned so far
+	 */
+	public long getFrames() {
+		return frames;
+	}
+
+	/**
+	 * @return returns the number of bytes skipped because they did not belong to a complete frame
+	 */
+	public long getDroppedBytes() {
+		return droppedBytes;
+	}
+
+	/**
+	 * @return returns the parse throughput in megabytes per second of pure parsing time
+	 */
+	public double getParseThroughput() {
+		return parseNanos == 0 ? 0 : bytesRead * 1000.0 / parseNanos;
+	}
+
+	/**
+	 * @return returns the average number of frames per second since the demuxer was created
+	 */
+	public double getFrameRate() {
+		final long elapsed = System.nanoTime() - created;
+		return elapsed == 0 ? 0 : frames * 1e9 / elapsed;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d frames (%.1f fps), %d bytes read, %d bytes dropped, parser %.1f MB/s",
+				frames, getFrameRate(), bytesRead, droppedBytes, getParseThroughput());
+	}
+}
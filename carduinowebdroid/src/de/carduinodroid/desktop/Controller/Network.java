@@ -11,6 +11,7 @@ import java.awt.image.BufferedImage;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 
 import javax.swing.ImageIcon;
 
@@ -94,6 +95,33 @@ public class Network {
 	}
 	
 	
+	/**
+	 * @return
+	 * @see Socket_Controller#send_controllsignal(int, boolean, int, boolean, long)
+	 */
+	public boolean send_controllsignal(int speed, boolean up, int angle, boolean right, long deadline)
+	{
+		return socket_controller.send_controllsignal(speed, up, angle, right, deadline);
+	}
+	
+	/**
+	 * @return
+	 * @see Socket_Controller#send_controlpacket(int, int, int, int, long, long, long)
+	 */
+	public boolean send_controlpacket(int speed, int angle, int keys, int sequence, long client_time, long receive_time, long deadline)
+	{
+		return socket_controller.send_controlpacket(speed, angle, keys, sequence, client_time, receive_time, deadline);
+	}
+	
+	/**
+	 * @return Number of control signals dropped because their deadline passed while waiting for the socket
+	 * @see Socket_Controller#get_control_late()
+	 */
+	public long get_control_late()
+	{
+		return socket_controller.get_control_late();
+	}
+	
 	/**
 	 * @param settings
 	 * @return
@@ -132,6 +160,14 @@ public class Network {
 	public void receive_picture(BufferedImage bufferedImage) {
 		camera_picture.receive_picture(bufferedImage);
 	}
+	
+	/**
+	 * @param jpeg
+	 * @see Camera_Picture#receive_jpeg(ByteBuffer)
+	 */
+	public void receive_jpeg(ByteBuffer jpeg) {
+		camera_picture.receive_jpeg(jpeg);
+	}
 
 	public void close() {
 		socket_picture.close();
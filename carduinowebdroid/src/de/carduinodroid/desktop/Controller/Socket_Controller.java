@@ -2,9 +2,12 @@ package de.carduinodroid.desktop.Controller;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class is used to send Controllsignals to the Android-Application
@@ -14,9 +17,26 @@ import java.net.Socket;
 
 public class Socket_Controller {
 	
+	/** Size of a binary control packet */
+	public static final int PACKET_SIZE = 24;
+	/** First byte of a binary control packet, text commands start with an ASCII digit */
+	public static final byte PACKET_CONTROL = (byte) 0x81;
+	private static final byte[] NEWLINE = System.getProperty("line.separator").getBytes();
+	private static final byte[] TRUE = "true".getBytes();
+	private static final byte[] FALSE = "false".getBytes();
+	
 	BufferedWriter controll;
+	OutputStream controll_stream;
 	Socket socket_controll;
 	String mobilephone_ip;
+	
+	// buffers of the control signals, reused for every signal
+	private final byte[] line = new byte[64];
+	private final byte[] packet = new byte[PACKET_SIZE];
+	private final ByteBuffer packet_buffer = ByteBuffer.wrap(packet);
+	
+	// control signals dropped because their deadline passed while waiting for the socket
+	private final AtomicLong control_late = new AtomicLong();
 
 
 
@@ -31,6 +51,7 @@ public class Socket_Controller {
 	{
 		try {
 			socket_controll = new Socket();
+			socket_controll.setTcpNoDelay(true); // control signals are small and have to be sent at once
 			socket_controll.connect(port_controll);
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
@@ -41,7 +62,8 @@ public class Socket_Controller {
 		}
 		
 		try {
-			controll = new BufferedWriter(new OutputStreamWriter(socket_controll.getOutputStream()));
+			controll_stream = socket_controll.getOutputStream();
+			controll = new BufferedWriter(new OutputStreamWriter(controll_stream));
 		} catch (IOException e) {
 			System.out.println("fehler beim outputstream");
 		}
@@ -56,7 +78,7 @@ public class Socket_Controller {
 	 * @param direction The Signal
 	 * @return True if successful
 	 */
-	public boolean send_controllsignal(String direction)
+	public synchronized boolean send_controllsignal(String direction)
 	{
 		if(!socket_controll.isClosed())
 		{
@@ -77,12 +99,150 @@ public class Socket_Controller {
 		}
 	}
 	
+	/**
+	 * Sends the Carcontrollsignal to the Android-Application, the line is the same as
+	 * send_controllsignal(speed+";"+up+";"+angle+";"+right) but no String is created.
+	 * Only called by the deadline variant, which holds the lock, so every signal passes the deadline check
+	 * @param speed The calculated speed
+	 * @param up True if the car drives forward
+	 * @param angle The calculated angle
+	 * @param right True if the car turns right
+	 * @return True if successful
+	 */
+	private boolean send_controllsignal(int speed, boolean up, int angle, boolean right)
+	{
+		if(!socket_controll.isClosed())
+		{
+			int n = 0;
+			line[n++] = '1';
+			line[n++] = ';';
+			n = put_number(n, speed);
+			line[n++] = ';';
+			n = put_bytes(n, up ? TRUE : FALSE);
+			line[n++] = ';';
+			n = put_number(n, angle);
+			line[n++] = ';';
+			n = put_bytes(n, right ? TRUE : FALSE);
+			n = put_bytes(n, NEWLINE);
+			try {
+				controll_stream.write(line, 0, n);
+			} catch (IOException e) {
+				System.out.println("fail");
+			}
+			return true;
+		}
+		
+		else{
+		return false;
+		}
+	}
+	
+	/**
+	 * Sends the Carcontrollsignal as binary packet of PACKET_SIZE bytes (big endian):
+	 * PACKET_CONTROL, keys, speed, angle, sequence (int), time of the client (long), time the server received the command (long).
+	 * Only called by the deadline variant, which holds the lock, so every packet passes the deadline check
+	 * @param speed The calculated speed
+	 * @param angle The calculated angle
+	 * @param keys Pressed keys, combination of ControlFrame.UP, DOWN, LEFT and RIGHT
+	 * @param sequence Sequence number of the command
+	 * @param client_time Time of the client in milliseconds
+	 * @param receive_time Time the server received the command in milliseconds
+	 * @return True if successful
+	 */
+	private boolean send_controlpacket(int speed, int angle, int keys, int sequence, long client_time, long receive_time)
+	{
+		if(!socket_controll.isClosed())
+		{
+			packet_buffer.put(0, PACKET_CONTROL);
+			packet_buffer.put(1, (byte) keys);
+			packet_buffer.put(2, (byte) speed);
+			packet_buffer.put(3, (byte) angle);
+			packet_buffer.putInt(4, sequence);
+			packet_buffer.putLong(8, client_time);
+			packet_buffer.putLong(16, receive_time);
+			try {
+				controll_stream.write(packet, 0, PACKET_SIZE);
+			} catch (IOException e) {
+				System.out.println("fail");
+			}
+			return true;
+		}
+		
+		else{
+		return false;
+		}
+	}
+	
+	/**
+	 * Same as send_controllsignal(speed, up, angle, right), but the signal is dropped
+	 * if the deadline passed while waiting for the socket (e.g. behind camera settings)
+	 * @param deadline Latest System.nanoTime() the signal may be sent at
+	 * @return True if successful, false if the socket is closed or the signal is late
+	 */
+	public synchronized boolean send_controllsignal(int speed, boolean up, int angle, boolean right, long deadline)
+	{
+		if(System.nanoTime() - deadline > 0)
+		{
+			control_late.incrementAndGet();
+			return false;
+		}
+		return send_controllsignal(speed, up, angle, right);
+	}
+	
+	/**
+	 * Same as send_controlpacket(speed, angle, keys, sequence, client_time, receive_time), but the packet
+	 * is dropped if the deadline passed while waiting for the socket
+	 * @param deadline Latest System.nanoTime() the packet may be sent at
+	 * @return True if successful, false if the socket is closed or the packet is late
+	 */
+	public synchronized boolean send_controlpacket(int speed, int angle, int keys, int sequence, long client_time, long receive_time, long deadline)
+	{
+		if(System.nanoTime() - deadline > 0)
+		{
+			control_late.incrementAndGet();
+			return false;
+		}
+		return send_controlpacket(speed, angle, keys, sequence, client_time, receive_time);
+	}
+	
+	/**
+	 * @return Number of control signals dropped because their deadline passed while waiting for the socket
+	 */
+	public long get_control_late()
+	{
+		return control_late.get();
+	}
+	
+	private int put_number(int n, int value)
+	{
+		if(value < 0)
+		{
+			line[n++] = '-';
+			value = -value;
+		}
+		int digits = 1;
+		for(int v = value / 10; v > 0; v /= 10)
+			digits++;
+		for(int i = n + digits - 1; i >= n; i--)
+		{
+			line[i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		return n + digits;
+	}
+	
+	private int put_bytes(int n, byte[] bytes)
+	{
+		System.arraycopy(bytes, 0, line, n, bytes.length);
+		return n + bytes.length;
+	}
+	
 	/**
 	 * Sends the Camerasettings to the Android-Application
 	 * @param settings The Camerasettings
 	 * @return True if successful
 	 */
-	public boolean send_camera_settings(String settings)
+	public synchronized boolean send_camera_settings(String settings)
 	{
 		if(!socket_controll.isClosed())
 		{
@@ -108,7 +268,7 @@ public class Socket_Controller {
 	 * @param sound_id
 	 * @return True if successful
 	 */
-	public boolean send_sound(String sound_id)
+	public synchronized boolean send_sound(String sound_id)
 	{
 		if(!socket_controll.isClosed())
 		{
@@ -1,15 +1,11 @@
 package de.carduinodroid.desktop.Controller;
 
 
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
-
-import javax.imageio.ImageIO;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 
 
 /**
@@ -22,11 +18,12 @@ public class Socket_Picture implements Runnable{
 	Socket socket_picture;
 	Network network;
 	InetSocketAddress port_picture;
-	private InputStream picturestream;
+	private SocketChannel picturechannel;
+	private JpegStreamDemuxer demuxer;
 	
 	Socket_Picture(Network n_network)
 	{
-		socket_picture = new Socket();
+		// der Kanal wird erst in connect() geoeffnet
 		network = n_network;
 		//log = new Log();
 	}
@@ -39,7 +36,7 @@ public class Socket_Picture implements Runnable{
 	{
 		port_picture = nport_picture;
 		try {
-			socket_picture = new Socket();
+			socket_picture = openSocket();
 			socket_picture.connect(port_picture);
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
@@ -49,11 +46,7 @@ public class Socket_Picture implements Runnable{
 			System.out.println("fehler beim connecten");
 		}
 		
-		try {
-			picturestream = socket_picture.getInputStream();
-		} catch (IOException e) {
-			System.out.println("fehler beim inputstream");
-		}
+		demuxer = new JpegStreamDemuxer(picturechannel);
 		System.out.println("ist connected");
 	}
 		
@@ -64,8 +57,9 @@ public class Socket_Picture implements Runnable{
 	 */
 	public void connect(){
 		try {
+			socket_picture = openSocket();
 			socket_picture.connect(port_picture);
-			picturestream = socket_picture.getInputStream();
+			demuxer = new JpegStreamDemuxer(picturechannel);
 			run();
 			} catch (IOException e) {
 				// TODO Auto-generated catch block
@@ -82,69 +76,58 @@ public class Socket_Picture implements Runnable{
 	 */
 	@Override
 	public void run() {
-		BufferedImage buffer;
-		int i = 0;
-		while(!socket_picture.isClosed())
+		// readpicture() blockiert, bis Daten kommen -> kein Polling mit sleep mehr
+		while(socket_picture != null && !socket_picture.isClosed())
 		{
-			try {
-				i =picturestream.available();
-				if(i > 0){
-				network.receive_picture(readpicture());
-				System.out.println("was da zum lesen" + i + "      " + System.currentTimeMillis());
-				}
-					
-					else
-					{
-						try {
-							Thread.sleep(25);
-						} catch (InterruptedException e) {
-							System.out.println("fehler beim schlafen");
-						}
-					}
-				} catch (IOException e) {
-					System.out.println("fehler beim lesen");
-				}
-			}
+			// das Bild wird nicht mehr hier dekodiert, sondern als JPEG weitergereicht
+			ByteBuffer picture = readpicture();
+			if(picture != null)
+				network.receive_jpeg(picture);
 		}
+	}
+
+	/**
+	 * Creates an unconnected socket backed by a channel, so the pictures can be read into a direct buffer.
+	 * A socket opened before is closed, so its channel does not leak.
+	 * @return returns the socket of the new channel
+	 */
+	private Socket openSocket() {
+		close();
+		try {
+			picturechannel = SocketChannel.open();
+			return picturechannel.socket();
+		} catch (IOException e) {
+			System.out.println("fehler beim oeffnen");
+			picturechannel = null;
+			return new Socket();
+		}
+	}
 
 	/**
 	 * reads the imagedata from the Socket
-	 * @return returns the Image
+	 * @return returns the JPEG data of one image, valid until the next call
 	 */
-	private BufferedImage readpicture() {
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		boolean completeImage = false;
-		byte[] lastBytes = new byte[2];
+	private ByteBuffer readpicture() {
 		try {
-			int i = picturestream.available();	
-			while(!completeImage){
-				byte[] buffer = new byte[i];
-				picturestream.read(buffer);
-				if(i >= 4){
-					lastBytes[0] = buffer[i - 2];
-					lastBytes[1] = buffer[i - 1];
-					System.out.println("daten holen" + new String(lastBytes));
-				}else if(i == 1){
-					lastBytes[0] = lastBytes[1];
-					lastBytes[1] = buffer[0];
-				}
-				
-				if(lastBytes[0] == (byte)255 && lastBytes[1] ==  (byte)217){
-					System.out.println("komplettes bild");
-					completeImage = true;
-				}
-				baos.write(buffer);
-				i = picturestream.available();
+			// der Demuxer liefert genau ein Bild von SOI bis EOI, ohne Kopie
+			ByteBuffer frame = demuxer.nextFrame();
+			if(frame == null){
+				close();
+				return null;
 			}
-			byte[] image = baos.toByteArray();
-			BufferedImage picture = ImageIO.read(new ByteArrayInputStream(image));
-			return picture;
+			return frame;
 		} catch (IOException e) {
+			System.out.println("fehler beim lesen");
+			close();
 		}
 		return null;
 	}
 
 	public void close() {
+		if(socket_picture == null || socket_picture.isClosed())
+			return;
+		if(demuxer != null && network.camera_picture != null)
+			network.camera_picture.controller.log.writelogfile("bilder: " + demuxer);
 		try {
 			socket_picture.close();
 		} catch (IOException e) {
@@ -0,0 +1,341 @@
+package de.carduinodroid.shared;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.apache.catalina.websocket.WsOutbound;
+
+/**
+ * \brief Sends text messages to many WebSocket clients without letting one slow client delay the others.
+ * \details Every client has a bounded queue. broadcast() only puts the message into the queues and returns, a pool of worker threads
+ * drains them. At most one worker writes to a client at a time, so the messages of a client stay in order, and a client whose socket
+ * stalls only holds up its own worker while the other workers continue with the other clients.
+ * \details The message is wrapped into one read-only CharBuffer which is shared by all clients, every write uses its own view of it.
+ * \details If the queue of a client is full, the Overflow policy decides: DROP_OLDEST skips the oldest message (for state updates where only
+ * the latest one matters), EVICT removes and closes the client (for messages which must not be lost, e.g. chat).
+ * \details A write which does not finish within the write timeout (a browser which stopped reading) evicts the client whatever the policy.
+ * The worker stuck in that write no longer counts: the pool gets one more thread until the write returns, so stalled clients can't take all
+ * workers. Evicted clients are closed by separate threads, the close waits behind the stalled write (WsOutbound is synchronized).
+ */
+public class Broadcaster {
+
+	private static final Logger logger = Logger.getLogger(Broadcaster.class.getName());
+
+	/** WebSocket close status for evicted clients ("policy violation"). */
+	static final int STATUS_EVICTED = 1008;
+	/** Default time in milliseconds a write may take before the client is evicted. */
+	static final long WRITE_TIMEOUT = 5000;
+
+	private static final int IDLE = 0;
+	private static final int WRITING = 1;
+	private static final int STALLED = 2;
+
+	/**
+	 * \brief What happens if the queue of a client is full.
+	 */
+	public enum Overflow {
+		DROP_OLDEST,
+		EVICT
+	}
+
+	/**
+	 * \brief Handle of a registered client.
+	 */
+	public class Client implements Runnable {
+		private final WsOutbound outbound;
+		private final ArrayBlockingQueue<CharBuffer> queue;
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+		private volatile boolean closed = false;
+		/** IDLE, WRITING or STALLED, a stalled write is owned by the watchdog which replaced its worker */
+		private final AtomicInteger state = new AtomicInteger(IDLE);
+		private volatile long writeStart;
+
+		Client(WsOutbound outbound) {
+			this.outbound = outbound;
+			this.queue = new ArrayBlockingQueue<CharBuffer>(queueSize);
+		}
+
+		/**
+		 * \brief Sends a message to this client only, e.g. the history after connecting.
+		 * @param message Message to send.
+		 */
+		public void send(String message) {
+			enqueue(CharBuffer.wrap(message).asReadOnlyBuffer());
+		}
+
+		/**
+		 * @return Returns the number of messages waiting for this client.
+		 */
+		public int getPending() {
+			return queue.size();
+		}
+
+		void enqueue(CharBuffer message) {
+			if (closed)
+				return;
+			while (!queue.offer(message)) {
+				if (overflow == Overflow.EVICT) {
+					evict(this);
+					return;
+				}
+				if (queue.poll() != null)
+					dropped.incrementAndGet();
+			}
+			schedule();
+		}
+
+		private void schedule() {
+			if (scheduled.compareAndSet(false, true)) {
+				try {
+					workers.execute(this);
+				} catch (RuntimeException e) {
+					// executor shut down
+					scheduled.set(false);
+				}
+			}
+		}
+
+		/**
+		 * \brief Writes all queued messages, runs on a worker thread.
+		 */
+		@Override
+		public void run() {
+			try {
+				CharBuffer message;
+				while (!closed && (message = queue.poll()) != null) {
+					writeStart = System.nanoTime();
+					state.set(WRITING);
+					writing.add(this);
+					try {
+						outbound.writeTextMessage(message.duplicate());
+						sent.incrementAndGet();
+					} catch (IOException e) {
+						remove(this);
+						return;
+					} finally {
+						writing.remove(this);
+						if (!state.compareAndSet(WRITING, IDLE)) {
+							// the watchdog evicted the client meanwhile and added a worker for this one
+							state.set(IDLE);
+							resize(-1);
+						}
+					}
+				}
+			} finally {
+				scheduled.set(false);
+			}
+			// a message may have arrived after the last poll but before scheduled was reset
+			if (!closed && !queue.isEmpty())
+				schedule();
+		}
+	}
+
+	private final String name;
+	private final int queueSize;
+	private final Overflow overflow;
+	private final ThreadPoolExecutor workers;
+	private final ScheduledExecutorService watchdog;
+	private final ExecutorService closer;
+	private final long writeTimeout;
+	private final Set<Client> clients = Collections.newSetFromMap(new ConcurrentHashMap<Client, Boolean>());
+	/** Clients with a write in progress, also after they were removed */
+	private final Set<Client> writing = Collections.newSetFromMap(new ConcurrentHashMap<Client, Boolean>());
+
+	private final AtomicLong messages = new AtomicLong();
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong evicted = new AtomicLong();
+	private final AtomicLong stalled = new AtomicLong();
+
+	/**
+	 * @param name Name used for the worker threads and the statistics.
+	 * @param queueSize Maximum number of messages waiting per client.
+	 * @param overflow What happens if the queue of a client is full.
+	 * @param threads Number of worker threads.
+	 */
+	public Broadcaster(final String name, int queueSize, Overflow overflow, int threads) {
+		this(name, queueSize, overflow, threads, WRITE_TIMEOUT);
+	}
+
+	/**
+	 * @param name Name used for the worker threads and the statistics.
+	 * @param queueSize Maximum number of messages waiting per client.
+	 * @param overflow What happens if the queue of a client is full.
+	 * @param threads Number of worker threads.
+	 * @param writeTimeout Time in milliseconds a write may take before the client is evicted.
+	 */
+	public Broadcaster(final String name, int queueSize, Overflow overflow, int threads, long writeTimeout) {
+		this.name = name;
+		this.writeTimeout = TimeUnit.MILLISECONDS.toNanos(Math.max(1, writeTimeout));
+		this.queueSize = Math.max(1, queueSize);
+		this.overflow = overflow;
+		this.workers = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name + " broadcaster " + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		this.workers.allowCoreThreadTimeOut(true);
+		this.watchdog = Executors.newSingleThreadScheduledExecutor(daemon(name + " broadcaster watchdog"));
+		this.closer = Executors.newCachedThreadPool(daemon(name + " broadcaster closer"));
+		final long period = Math.max(1, writeTimeout / 2);
+		this.watchdog.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				checkWrites();
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	private static ThreadFactory daemon(final String name) {
+		return new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name);
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+	/**
+	 * \brief Registers a client, called in onOpen() of the WebSocket.
+	 * @param outbound Outbound of the WebSocket.
+	 * @return Returns the handle to remove the client later.
+	 */
+	public Client add(WsOutbound outbound) {
+		Client client = new Client(outbound);
+		clients.add(client);
+		return client;
+	}
+
+	/**
+	 * \brief Unregisters a client, called in onClose() of the WebSocket. Messages still queued for it are discarded.
+	 * @param client Handle returned by add(), null is ignored.
+	 */
+	public void remove(Client client) {
+		if (client != null)
+			unregister(client);
+	}
+
+	/**
+	 * \brief Queues a message for all clients and returns immediately.
+	 * @param message Message to send.
+	 */
+	public void broadcast(String message) {
+		CharBuffer shared = CharBuffer.wrap(message).asReadOnlyBuffer();
+		messages.incrementAndGet();
+		for (Client client : clients)
+			client.enqueue(shared);
+	}
+
+	/**
+	 * @return Returns the number of registered clients.
+	 */
+	public int getClientCount() {
+		return clients.size();
+	}
+
+	/**
+	 * \brief Stops the worker threads, queued messages are discarded.
+	 */
+	public void close() {
+		watchdog.shutdownNow();
+		workers.shutdownNow();
+		for (Client client : clients)
+			remove(client);
+		closer.shutdown();
+		logger.info(toString());
+	}
+
+	@Override
+	public String toString() {
+		return name + ": " + clients.size() + " clients, " + messages.get() + " messages, " + sent.get() + " sent, "
+				+ dropped.get() + " dropped, " + evicted.get() + " clients evicted (" + stalled.get() + " stalled)";
+	}
+
+	/**
+	 * @return Returns "false" if the client was already removed.
+	 */
+	private boolean unregister(Client client) {
+		client.closed = true;
+		client.queue.clear();
+		return clients.remove(client);
+	}
+
+	/**
+	 * \brief Evicts the clients whose current write takes longer than the write timeout, runs on the watchdog thread.
+	 */
+	private void checkWrites() {
+		final long now = System.nanoTime();
+		for (Client client : writing) {
+			if (client.state.get() == WRITING && now - client.writeStart > writeTimeout && client.state.compareAndSet(WRITING, STALLED)) {
+				stalled.incrementAndGet();
+				resize(1);
+				evict(client, "a stalled write");
+			}
+		}
+	}
+
+	/**
+	 * \brief Adds or removes a worker thread, for workers stuck in a stalled write.
+	 */
+	private void resize(int delta) {
+		synchronized (workers) {
+			// the maximum must never be below the core size
+			if (delta > 0) {
+				workers.setMaximumPoolSize(workers.getMaximumPoolSize() + delta);
+				workers.setCorePoolSize(workers.getCorePoolSize() + delta);
+			} else {
+				workers.setCorePoolSize(workers.getCorePoolSize() + delta);
+				workers.setMaximumPoolSize(workers.getMaximumPoolSize() + delta);
+			}
+		}
+	}
+
+	/**
+	 * \brief Removes a client whose queue is full.
+	 */
+	private void evict(final Client client) {
+		evict(client, queueSize + " pending messages");
+	}
+
+	/**
+	 * \brief Removes a client and closes its connection on a closer thread, the close may wait for a stalled write.
+	 */
+	private void evict(final Client client, String reason) {
+		if (!unregister(client))
+			return;
+		evicted.incrementAndGet();
+		logger.info(name + ": evicted a client with " + reason);
+		try {
+			closer.execute(new Runnable() {
+				public void run() {
+					try {
+						client.outbound.close(STATUS_EVICTED, null);
+					} catch (IOException e) {
+						// the connection is gone anyway
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			// executor shut down
+		}
+	}
+}
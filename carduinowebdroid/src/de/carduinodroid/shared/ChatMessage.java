@@ -0,0 +1,62 @@
+package de.carduinodroid.shared;
+
+import java.sql.Timestamp;
+
+/**
+ * \brief One chat message as it is stored in the database.
+ */
+public class ChatMessage {
+
+	private final Timestamp time;
+	private final String userID;
+	private final int sessionID;
+	private final String text;
+	private final String nickname;
+
+	public ChatMessage(String userID, int sessionID, String text, Timestamp time) {
+		this(userID, null, sessionID, text, time);
+	}
+
+	public ChatMessage(String userID, String nickname, int sessionID, String text, Timestamp time) {
+		this.userID = userID;
+		this.nickname = nickname;
+		this.sessionID = sessionID;
+		this.text = text;
+		this.time = time;
+	}
+
+	/**
+	 * @return the time the message was sent
+	 */
+	public Timestamp getTime() {
+		return time;
+	}
+
+	/**
+	 * @return the userID of the sender
+	 */
+	public String getUserID() {
+		return userID;
+	}
+
+	/**
+	 * @return the nickname of the sender, null if it was not read from the database
+	 */
+	public String getNickname() {
+		return nickname;
+	}
+
+	/**
+	 * @return the sessionID of the sender
+	 */
+	public int getSessionID() {
+		return sessionID;
+	}
+
+	/**
+	 * @return the message text
+	 */
+	public String getText() {
+		return text;
+	}
+}
@@ -0,0 +1,131 @@
+package de.carduinodroid.shared;
+
+import java.nio.ByteBuffer;
+
+/**
+ * \brief Binary control frame sent by the browser over the control WebSocket.
+ * \details A frame has a fixed size of SIZE bytes, big endian (the default of DataView in JavaScript):
+ * <pre>
+ * offset 0  byte    MAGIC ('C')
+ * offset 1  byte    pressed keys, combination of UP, DOWN, LEFT and RIGHT
+ * offset 2  short   reserved, 0
+ * offset 4  int     sequence number of the client, unsigned, counts up with every frame
+ * offset 8  double  time of the client in milliseconds (Date.now())
+ * </pre>
+ * \details An instance is reused for every frame of a connection, decode() does not allocate anything.
+ * \details The ingress time (System.nanoTime() when the frame arrived) travels with the command to the car, every hop drops the command
+ * once it is older than the control deadline.
+ */
+public class ControlFrame {
+
+	public static final int SIZE = 16;
+	public static final byte MAGIC = 'C';
+
+	public static final int UP = 1;
+	public static final int DOWN = 2;
+	public static final int LEFT = 4;
+	public static final int RIGHT = 8;
+
+	private int keys;
+	private int sequence;
+	private long clientTime;
+	private long receiveTime;
+	private long ingress;
+
+	/**
+	 * \brief Reads a frame.
+	 * @param buffer Buffer positioned at the start of the frame, the position is not changed.
+	 * @param receiveTime Time the frame was received in milliseconds.
+	 * @return Returns "false" if the buffer does not contain a valid frame, the previous values are kept then.
+	 */
+	public boolean decode(ByteBuffer buffer, long receiveTime) {
+		return decode(buffer, receiveTime, System.nanoTime());
+	}
+
+	/**
+	 * \brief Reads a frame.
+	 * @param buffer Buffer positioned at the start of the frame, the position is not changed.
+	 * @param receiveTime Time the frame was received in milliseconds.
+	 * @param ingress System.nanoTime() when the frame was received.
+	 * @return Returns "false" if the buffer does not contain a valid frame, the previous values are kept then.
+	 */
+	public boolean decode(ByteBuffer buffer, long receiveTime, long ingress) {
+		final int p = buffer.position();
+		if (buffer.remaining() != SIZE || buffer.get(p) != MAGIC)
+			return false;
+		final int k = buffer.get(p + 1);
+		if ((k & ~(UP | DOWN | LEFT | RIGHT)) != 0)
+			return false;
+		keys = k;
+		sequence = buffer.getInt(p + 4);
+		clientTime = (long) buffer.getDouble(p + 8);
+		this.receiveTime = receiveTime;
+		this.ingress = ingress;
+		return true;
+	}
+
+	/**
+	 * \brief Writes a frame, counterpart of decode() for the client side and for tests.
+	 * @param buffer Buffer to write to, its position is advanced by SIZE.
+	 */
+	public static void encode(ByteBuffer buffer, int keys, int sequence, long clientTime) {
+		buffer.put(MAGIC);
+		buffer.put((byte) keys);
+		buffer.putShort((short) 0);
+		buffer.putInt(sequence);
+		buffer.putDouble(clientTime);
+	}
+
+	/**
+	 * @param previous Sequence number of the last accepted frame.
+	 * @return Returns "true" if this frame was sent after the previous one (the sequence may wrap around).
+	 */
+	public boolean isNewerThan(int previous) {
+		return sequence - previous > 0;
+	}
+
+	public int getKeys() {
+		return keys;
+	}
+
+	public boolean isUp() {
+		return (keys & UP) != 0;
+	}
+
+	public boolean isDown() {
+		return (keys & DOWN) != 0;
+	}
+
+	public boolean isLeft() {
+		return (keys & LEFT) != 0;
+	}
+
+	public boolean isRight() {
+		return (keys & RIGHT) != 0;
+	}
+
+	public int getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return Returns the time of the client in milliseconds, the clocks of client and server are not synchronized.
+	 */
+	public long getClientTime() {
+		return clientTime;
+	}
+
+	/**
+	 * @return Returns the time the frame was received by the server in milliseconds.
+	 */
+	public long getReceiveTime() {
+		return receiveTime;
+	}
+
+	/**
+	 * @return Returns System.nanoTime() when the frame was received, only comparable with System.nanoTime() of this JVM.
+	 */
+	public long getIngress() {
+		return ingress;
+	}
+}
@@ -0,0 +1,77 @@
+package de.carduinodroid.shared;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * \brief A JPEG encoded video frame which is shared by all viewers.
+ * \details The encoded bytes are never modified after the frame was published, so every viewer connection can stream the very same buffer.
+ * The sequence number increases with every published frame and can be used to detect frames that were already sent.
+ *
+ */
+public final class EncodedFrame {
+
+	private final long sequence;
+	private final long timestamp;
+	private final byte[] data;
+
+	/**
+	 * \brief Wraps already encoded JPEG data.
+	 * \details The array is taken over as is and must not be modified afterwards.
+	 * @param sequence Sequence number of the frame.
+	 * @param timestamp Capture time of the frame in milliseconds.
+	 * @param data JPEG data of the frame.
+	 */
+	EncodedFrame(long sequence, long timestamp, byte[] data) {
+		this.sequence = sequence;
+		this.timestamp = timestamp;
+		this.data = data;
+	}
+
+	/**
+	 * @return Returns the sequence number of the frame.
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return Returns the capture time of the frame in milliseconds.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return Returns the size of the JPEG data in bytes.
+	 */
+	public int getLength() {
+		return data.length;
+	}
+
+	/**
+	 * \brief Returns a read only view on the JPEG data.
+	 * \details Every call returns a new view with its own position, the data itself is not copied.
+	 * @return Returns a read only ByteBuffer containing the JPEG data.
+	 */
+	public ByteBuffer asByteBuffer() {
+		return ByteBuffer.wrap(data).asReadOnlyBuffer();
+	}
+
+	/**
+	 * \brief Writes the JPEG data to the given stream.
+	 * @param os Stream to write to.
+	 * @throws IOException if writing fails.
+	 */
+	public void writeTo(OutputStream os) throws IOException {
+		os.write(data);
+	}
+
+	/**
+	 * @return Returns a copy of the JPEG data.
+	 */
+	public byte[] toByteArray() {
+		return data.clone();
+	}
+}
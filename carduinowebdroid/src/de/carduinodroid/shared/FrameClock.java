@@ -0,0 +1,77 @@
+package de.carduinodroid.shared;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * \brief Signals the availability of new video frames.
+ * \details A producer calls tick() for every new frame. Blocking consumers wait with awaitAfter() for a frame newer than the one they already have,
+ * event loops register a listener which is called on every tick instead.
+ * Consumers therefore wake up exactly when a frame is ready and never handle the same frame twice.
+ */
+public class FrameClock {
+
+	private long sequence = 0;
+	private final List<Runnable> listeners = new CopyOnWriteArrayList<Runnable>();
+
+	/**
+	 * \brief Announces a new frame.
+	 * @return Returns the sequence number of the new frame.
+	 */
+	public long tick() {
+		final long s;
+		synchronized (this) {
+			s = ++sequence;
+			notifyAll();
+		}
+		for (Runnable listener : listeners)
+			listener.run();
+		return s;
+	}
+
+	/**
+	 * @return Returns the sequence number of the newest frame.
+	 */
+	public synchronized long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * \brief Waits for a frame newer than the given one.
+	 * @param seen Sequence number of the newest frame the caller already has.
+	 * @param timeout Maximum time to wait in milliseconds, 0 waits without limit.
+	 * @return Returns the sequence number of the newest frame, which equals seen if the timeout elapsed.
+	 * @throws InterruptedException if the waiting thread was interrupted.
+	 */
+	public synchronized long awaitAfter(long seen, long timeout) throws InterruptedException {
+		if (timeout <= 0) {
+			while (sequence <= seen)
+				wait();
+			return sequence;
+		}
+		final long deadline = System.currentTimeMillis() + timeout;
+		long remaining = timeout;
+		while (sequence <= seen && remaining > 0) {
+			wait(remaining);
+			remaining = deadline - System.currentTimeMillis();
+		}
+		return sequence;
+	}
+
+	/**
+	 * \brief Registers a listener which is called after every tick.
+	 * \details The listener runs on the producer's thread and should only hand off work, e.g. wake up a Selector.
+	 * @param listener Listener to call.
+	 */
+	public void addListener(Runnable listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * \brief Removes a listener registered with addListener().
+	 * @param listener Listener to remove.
+	 */
+	public void removeListener(Runnable listener) {
+		listeners.remove(listener);
+	}
+}
@@ -0,0 +1,292 @@
+package de.carduinodroid.shared;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.RenderedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import de.carduinodroid.utilities.CarControllerWrapper;
+
+class Util {
+ 
+    public static final void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Logger.getLogger(Util.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+}
+ 
+class FrameProducer implements Runnable {
+ 
+    static final int W = 640;
+    static final int H = 480;
+    static final int D = 30;
+    // Standard-Obergrenze für die Bildrate
+    static final int MAX_FPS = 30;
+    // Ohne neues Kamerabild wird höchstens so oft neu gezeichnet (ms)
+    static final long IDLE_REDRAW = 1000;
+    //private final BufferedImage buffer = new BufferedImage(W, H, BufferedImage.TYPE_3BYTE_BGR);
+    //private final BufferedImage buffer = new BufferedImage(W, H, BufferedImage.TYPE_4BYTE_ABGR);
+    private final BufferedImage buffer = new BufferedImage(W, H, BufferedImage.TYPE_INT_RGB);
+    private Image background;
+    private static final Logger logger = Logger.getLogger(FrameProducer.class.getName());
+    private final ImageWriter imageWriter;
+    // Sequenznummer und Zeitpunkt des zuletzt gezeichneten Frames, geschützt durch buffer
+    private long frameSequence = 0;
+    private long frameTime = System.currentTimeMillis();
+    // Zuletzt kodierter Frame, wird von allen Zuschauern gemeinsam genutzt
+    private volatile EncodedFrame encodedFrame = null;
+    private final Object encodeLock = new Object();
+    // Wiederverwendete Kopie des Zeichenpuffers und Ausgabepuffer für das Kodieren, geschützt durch encodeLock
+    private final BufferedImage snapshot = new BufferedImage(W, H, BufferedImage.TYPE_INT_RGB);
+    private final ByteArrayOutputStream encodeBuffer = new ByteArrayOutputStream(64 * 1024);
+    // Meldet neue Kamerabilder bzw. neu gezeichnete Frames
+    private final FrameClock source;
+    private final FrameClock frames = new FrameClock();
+    private final long minInterval;
+   
+    public FrameProducer() {
+        this(CarControllerWrapper.getImageClock(), MAX_FPS);
+    }
+ 
+    /**
+     * @param source meldet neue Kamerabilder, auf die gewartet wird
+     * @param maxFps Obergrenze für die Bildrate, 0 für unbegrenzt
+     */
+    public FrameProducer(FrameClock source, int maxFps) {
+        this.source = source;
+        this.minInterval = maxFps > 0 ? 1000 / maxFps : 0;
+        Image img = null;
+        ImageWriter wr = null;
+		// Bilddatei für Testzwecke mit Abma�en >= 640 x 480 pix
+        //Test File file = new File("H:\\Eclipse-Apps\\Sender\\GutscheinHinten.jpg");
+        try {
+            //Hier jpg Bilder laden
+            
+        	//Test img = ImageIO.read(file);
+            wr = ImageIO.getImageWritersByFormatName("JPEG").next();
+			img = CarControllerWrapper.getImg();
+        } catch (Exception ex) {
+            logger.severe(ex.getMessage());
+        } finally {
+            background = img;
+            imageWriter = wr;
+        }
+    }
+ 
+    public void run() {
+ 
+        logger.info("producing frames...");
+        int x = D, y = D, inc_x = 1, inc_y = 1, ix = 50, iy = 05, inc_ix = 1, inc_iy = 1;
+ 
+        final Font font = new Font("Arial", Font.BOLD, 21);
+ 
+        final Graphics2D g = buffer.createGraphics();
+        g.setFont(font);
+ 
+        int nFrames = 0;
+        long start = System.currentTimeMillis();
+        long seen = source.getSequence();
+        // true, solange die Kamerabilder unverändert durchgereicht werden
+        boolean passThrough = false;
+ 
+        for (;;) {
+ 
+            // Wartet auf das nächste Kamerabild statt fest zu schlafen. Solange noch
+            // kein Kamerabild kam, wird das Testbild mit der Obergrenze gezeichnet,
+            // ohne Obergrenze mit MAX_FPS (awaitAfter mit 0 würde endlos warten).
+            final long drawStart = System.currentTimeMillis();
+            final long seq;
+            try {
+                seq = source.awaitAfter(seen, seen == 0 ? (minInterval > 0 ? minInterval : 1000 / MAX_FPS) : IDLE_REDRAW);
+            } catch (InterruptedException ex) {
+                logger.info("stopped producing frames");
+                return;
+            }
+            if (seq != seen) {
+                seen = seq;
+                // Ohne Overlay (Option videoOverlay) wird das JPEG der Kamera direkt verschickt, ohne Dekodieren und Neukodieren.
+                // Die Drehung steht dann nur als EXIF-Orientierung im Bild, der ImageTransferReceiver wertet sie aus.
+                final byte[] jpeg = CarControllerWrapper.isOverlayRequired() ? null : CarControllerWrapper.getJpeg();
+                passThrough = jpeg != null;
+                if (passThrough) {
+                    publish(jpeg);
+                } else {
+                    background = CarControllerWrapper.getImg();
+                }
+            } else if (passThrough) {
+                // kein neues Kamerabild, es gibt nichts neu zu zeichnen
+                continue;
+            }
+ 
+            if (!passThrough) {
+                synchronized (buffer) {
+ 
+                    final int backgroundW = background == null ? W : background.getWidth(null);
+                    final int backgroundH = background == null ? H : background.getHeight(null);
+                    if (background != null) {
+                        g.drawImage(background, 0, 0, W, H, ix, iy, ix + W, iy + H, null);
+                    }
+                    if (ix > backgroundW - W || ix < 0) {
+                        inc_ix *= -1;
+                    }
+                    if (iy > backgroundH - H || iy < 0) {
+                        inc_iy *= -1;
+                    }
+                    ix += inc_ix;
+                    iy += inc_iy;
+                    g.setColor(Color.WHITE);
+                    g.fillRect(x, y, D, D);
+                    if (x > W - D || x < 0) {
+                        inc_x *= -1;
+                    }
+                    if (y > H - D || y < 0) {
+                        inc_y *= -1;
+                    }
+                    x += inc_x;
+                    y += inc_y;
+                    g.setColor(Color.GREEN);
+                    final String current = System.currentTimeMillis() + "";
+                    g.drawString(current, 20, 20);
+                    // die Sequenznummer des Frames ist die des Takts, Zuschauer vergleichen beide
+                    frameSequence = frames.tick();
+                    frameTime = System.currentTimeMillis();
+                }
+            }
+ 
+            // Obergrenze der Bildrate einhalten
+            final long rest = drawStart + minInterval - System.currentTimeMillis();
+            if (rest > 0) {
+                Util.sleep(rest);
+            }
+ 
+            nFrames++;
+            final long now = System.currentTimeMillis();
+            final long delta = now - start;
+            if (delta > 2000L) {
+                float fps = ((float) nFrames) / delta * 1000.0f;
+                logger.info(String.format("%1$2.3fFPS", fps));
+ 
+                start = System.currentTimeMillis();
+                nFrames = 0;
+            }
+        }
+    }
+ 
+    public RenderedImage grabFrame() {
+        final BufferedImage frame = new BufferedImage(buffer.getWidth(),
+                buffer.getHeight(), buffer.getType());
+        synchronized (buffer) {
+            copyPixels(buffer, frame);
+        }
+        return frame;
+    }
+ 
+    // Kopiert die Pixel direkt zwischen den int-Arrays zweier gleich großer TYPE_INT_RGB Bilder
+    private static void copyPixels(BufferedImage from, BufferedImage to) {
+        final int[] src = ((DataBufferInt) from.getRaster().getDataBuffer()).getData();
+        final int[] dst = ((DataBufferInt) to.getRaster().getDataBuffer()).getData();
+        System.arraycopy(src, 0, dst, 0, src.length);
+    }
+ 
+    /**
+     * Veröffentlicht ein fertiges JPEG der Kamera als aktuellen Frame, ohne es zu dekodieren.
+     * @param jpeg JPEG-Daten, werden danach nicht mehr verändert
+     */
+    private void publish(byte[] jpeg) {
+        synchronized (buffer) {
+            frameSequence = frames.tick();
+            frameTime = System.currentTimeMillis();
+            encodedFrame = new EncodedFrame(frameSequence, frameTime, jpeg);
+        }
+    }
+ 
+    /**
+     * @return Takt, der jeden neu gezeichneten Frame meldet
+     */
+    public FrameClock getClock() {
+        return frames;
+    }
+ 
+    public byte[] grabJPEGFrame() throws IOException {
+        return grabEncodedFrame().toByteArray();
+    }
+ 
+    /**
+     * Liefert den aktuellen Frame JPEG-kodiert. Jeder gezeichnete Frame wird höchstens
+     * einmal kodiert, alle weiteren Aufrufe für denselben Frame teilen sich den Puffer.
+     * @return der zuletzt gezeichnete Frame
+     * @throws IOException wenn das Kodieren fehlschlägt
+     */
+    public EncodedFrame grabEncodedFrame() throws IOException {
+        EncodedFrame frame = encodedFrame;
+        if (frame != null && frame.getSequence() == currentSequence()) {
+            return frame;
+        }
+        synchronized (encodeLock) {
+            final long sequence;
+            final long time;
+            synchronized (buffer) {
+                sequence = frameSequence;
+                time = frameTime;
+                frame = encodedFrame;
+                if (frame != null && frame.getSequence() == sequence) {
+                    return frame;
+                }
+                copyPixels(buffer, snapshot);
+            }
+            frame = new EncodedFrame(sequence, time, encode(snapshot));
+            synchronized (buffer) {
+                // inzwischen durchgereichte Kamerabilder nicht überschreiben
+                if (frameSequence == sequence) {
+                    encodedFrame = frame;
+                }
+            }
+            return frame;
+        }
+    }
+ 
+    /**
+     * Kodiert das Bild mit dem wiederverwendeten ImageWriter, nur das Ergebnis wird neu angelegt.
+     * Muss unter encodeLock aufgerufen werden.
+     */
+    private byte[] encode(BufferedImage image) throws IOException {
+        encodeBuffer.reset();
+        if (imageWriter == null) {
+            ImageIO.write(image, "jpeg", encodeBuffer);
+            return encodeBuffer.toByteArray();
+        }
+        final ImageOutputStream ios = new MemoryCacheImageOutputStream(encodeBuffer);
+        try {
+            imageWriter.setOutput(ios);
+            imageWriter.write(image);
+        } finally {
+            imageWriter.setOutput(null);
+            ios.close();
+        }
+        return encodeBuffer.toByteArray();
+    }
+ 
+    /**
+     * @return Sequenznummer des zuletzt gezeichneten oder durchgereichten Frames
+     */
+    long currentSequence() {
+        synchronized (buffer) {
+            return frameSequence;
+        }
+    }
+}
@@ -3,8 +3,11 @@ package de.carduinodroid.shared;
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Container;
+import java.awt.Graphics2D;
 import java.awt.Image;
+import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.Socket;
@@ -28,17 +31,111 @@ public class ImageTransferReceiver extends JFrame implements Runnable {
         cnt.add(picPanel, BorderLayout.CENTER);
     }
  
-    public void readBytes(final InputStream is, final byte[] buffer, int l) throws IOException {
+    public static void readBytes(final InputStream is, final byte[] buffer, int l) throws IOException {
         int left = l;
         int read = 0;
  
         while (left > 0) {
             int n = is.read(buffer, read, left);
+            if (n < 0) {
+                throw new EOFException();
+            }
             left -= n;
             read += n;
         }
     }
  
+    /**
+     * Liest einen Frame im Format des RawFrameServers: 4 Byte Länge (little endian), danach die JPEG-Daten.
+     * @param is Stream vom Server
+     * @param buffer Puffer für die Länge, mindestens 4 Byte
+     * @return die JPEG-Daten des Frames
+     * @throws IOException wenn der Stream endet oder nicht gelesen werden kann
+     */
+    public static byte[] readFrame(final InputStream is, final byte[] buffer) throws IOException {
+        readBytes(is, buffer, 4);
+ 
+        int size = 0;
+        size += buffer[0] & 0xff;
+        size += (buffer[1] << 8) & 0xff00;
+        size += (buffer[2] << 16) & 0xff0000;
+        size += (buffer[3] << 24) & 0xff000000;
+ 
+        final byte[] jpeg_frame = new byte[size];
+        readBytes(is, jpeg_frame, size);
+        return jpeg_frame;
+    }
+ 
+    /**
+     * Liest die EXIF-Orientierung aus den JPEG-Daten (Tag 0x0112 im ersten IFD des APP1-Segments).
+     * @param jpeg JPEG-Daten eines Frames
+     * @return die Orientierung (1 = unverändert, 3 = 180°, 6 = 90° im Uhrzeigersinn, 8 = 90° gegen den Uhrzeigersinn), 1 wenn keine angegeben ist
+     */
+    public static int orientation(final byte[] jpeg) {
+        int p = 2;
+        if (jpeg.length < 4 || (jpeg[0] & 0xff) != 0xff || (jpeg[1] & 0xff) != 0xd8) {
+            return 1;
+        }
+        while (p + 4 <= jpeg.length && (jpeg[p] & 0xff) == 0xff) {
+            final int marker = jpeg[p + 1] & 0xff;
+            final int length = ((jpeg[p + 2] & 0xff) << 8) | (jpeg[p + 3] & 0xff);
+            if (marker == 0xda || length < 2) {
+                break;  // Bilddaten beginnen, keine Metadaten mehr
+            }
+            final int data = p + 4;
+            if (marker == 0xe1 && length >= 16 && data + length - 2 <= jpeg.length
+                    && jpeg[data] == 'E' && jpeg[data + 1] == 'x' && jpeg[data + 2] == 'i' && jpeg[data + 3] == 'f') {
+                final int tiff = data + 6;
+                final boolean big = jpeg[tiff] == 'M';
+                final int end = data + length - 2;
+                final int ifd = tiff + read(jpeg, tiff + 4, 4, big);
+                if (ifd + 2 > end || ifd < tiff) {
+                    return 1;
+                }
+                final int entries = read(jpeg, ifd, 2, big);
+                for (int i = 0; i < entries && ifd + 2 + i * 12 + 12 <= end; i++) {
+                    final int entry = ifd + 2 + i * 12;
+                    if (read(jpeg, entry, 2, big) == 0x0112) {
+                        return read(jpeg, entry + 8, 2, big);
+                    }
+                }
+                return 1;
+            }
+            p += 2 + length;
+        }
+        return 1;
+    }
+ 
+    private static int read(final byte[] b, final int p, final int n, final boolean big) {
+        int v = 0;
+        for (int i = 0; i < n; i++) {
+            v |= (b[p + (big ? i : n - 1 - i)] & 0xff) << (8 * (n - 1 - i));
+        }
+        return v;
+    }
+ 
+    /**
+     * Dreht das Bild entsprechend der EXIF-Orientierung.
+     * @param img dekodiertes Bild, darf null sein
+     * @param orientation EXIF-Orientierung, siehe orientation()
+     * @return das gedrehte Bild, bei Orientierung 1 (oder unbekannter) das Bild selbst
+     */
+    public static Image orient(final BufferedImage img, final int orientation) {
+        final int quarter = orientation == 6 ? 1 : orientation == 3 ? 2 : orientation == 8 ? 3 : 0;
+        if (img == null || quarter == 0) {
+            return img;
+        }
+        final int w = img.getWidth(), h = img.getHeight();
+        final BufferedImage rotated = quarter == 2 ? new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB)
+                : new BufferedImage(h, w, BufferedImage.TYPE_INT_RGB);
+        final Graphics2D g = rotated.createGraphics();
+        g.translate(rotated.getWidth() / 2.0, rotated.getHeight() / 2.0);
+        g.rotate(Math.toRadians(90 * quarter));
+        g.drawImage(img, -w / 2, -h / 2, null);
+        g.dispose();
+        return rotated;
+    }
+ 
     public void run() {
         try {
         	// Server IP und Port angeben
@@ -51,23 +148,14 @@ public class ImageTransferReceiver extends JFrame implements Runnable {
             long start = System.currentTimeMillis();
  
             for (;;) {
-                readBytes(is, buffer, 4);
-                readBytes += 4;
- 
-                int size = 0;
-                size += buffer[0] & 0xff;
-                size += (buffer[1] << 8) & 0xff00;
-                size += (buffer[2] << 16) & 0xff0000;
-                size += (buffer[3] << 24) & 0xff000000;
- 
-                final byte[] jpeg_frame = new byte[size];
-                readBytes(is, jpeg_frame, size);
+                final byte[] jpeg_frame = readFrame(is, buffer);
  
-                final Image img = ImageIO.read(new ByteArrayInputStream(jpeg_frame));
+                // ImageIO beachtet die EXIF-Orientierung nicht, die Kamerabilder kommen gedreht an
+                final Image img = orient(ImageIO.read(new ByteArrayInputStream(jpeg_frame)), orientation(jpeg_frame));
                 picPanel.getGraphics().drawImage(img, 0, 0, null);
  
                 nFrames++;
-                readBytes += size;
+                readBytes += 4 + jpeg_frame.length;
                 
                 final long now = System.currentTimeMillis();
                 final long delta = now - start;
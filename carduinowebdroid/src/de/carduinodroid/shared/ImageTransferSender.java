@@ -1,260 +1,167 @@
 package de.carduinodroid.shared;
- 
-import java.awt.Color;
-import java.awt.Font;
-import java.awt.Graphics2D;
-import java.awt.Image;
-import java.awt.image.BufferedImage;
-import java.awt.image.RenderedImage;
-import java.io.ByteArrayOutputStream;
-import java.io.File;
+
 import java.io.IOException;
 import java.io.OutputStream;
-import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.concurrent.Callable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.imageio.ImageIO;
-import javax.imageio.ImageWriter;
 
-import de.carduinodroid.utilities.CarControllerWrapper;
- 
 /**
  * Dieses Package dient dem Senden von Bilddaten über das Internet von einem Server zu einem Client
  * @author Vincenz
  * @version 15.06.2012
  */ 
  
-class Util {
+class MJPGServer extends Server {
  
-    public static final void sleep(long millis) {
-        try {
-            Thread.sleep(millis);
-        } catch (InterruptedException ex) {
-            Logger.getLogger(Util.class.getName()).log(Level.SEVERE, null, ex);
-        }
-    }
-}
+    private static final String boundary = "myboundary";
+    private static final byte[] boundaryBytes = ("\r\n--" + boundary + "\r\n").getBytes();
+    private static final byte[] contentTypeImageJPEG = "Content-Type: image/jpeg\r\n".getBytes();
+    private static final Logger logger = Logger.getLogger(MJPGServer.class.getName());
+    //private static final ExecutorService EXS = Executors.newCachedThreadPool();
+    private final FrameProducer frameProducer;
  
-class FrameProducer implements Runnable {
+    private static final byte[] header = ("HTTP/1.1 200 OK\r\n"
+            + "Expires: 0\r\n"
+            + "Pragma: no-cache\r\n"
+            + "Cache-Control: no-cache\r\n"
+            + "Content-Type: multipart/x-mixed-replace;boundary=" + boundary + "\r\n").getBytes();
  
-    static final int W = 640;
-    static final int H = 480;
-    static final int D = 30;
-    //private final BufferedImage buffer = new BufferedImage(W, H, BufferedImage.TYPE_3BYTE_BGR);
-    //private final BufferedImage buffer = new BufferedImage(W, H, BufferedImage.TYPE_4BYTE_ABGR);
-    private final BufferedImage buffer = new BufferedImage(W, H, BufferedImage.TYPE_INT_RGB);
-    private final Image background;
-    private static final Logger logger = Logger.getLogger(FrameProducer.class.getName());
-    private final ImageWriter imageWriter;
-   
-    public FrameProducer() {
-        Image img = null;
-        ImageWriter wr = null;
-		// Bilddatei für Testzwecke mit Abma�en >= 640 x 480 pix
-        //Test File file = new File("H:\\Eclipse-Apps\\Sender\\GutscheinHinten.jpg");
-        try {
-            //Hier jpg Bilder laden
-            
-        	//Test img = ImageIO.read(file);
-			img = CarControllerWrapper.getImg();
-            wr = ImageIO.getImageWritersByFormatName("JPEG").next();
-        } catch (Exception ex) {
-            logger.severe(ex.getMessage());
-        } finally {
-            background = img;
-            imageWriter = wr;
-        }
+    public MJPGServer(final FrameProducer frameProducer, int port) {
+        this(frameProducer, port, false, FrameProducer.MAX_FPS);
     }
  
-    public void run() {
- 
-        logger.info("producing frames...");
-        int x = D, y = D, inc_x = 1, inc_y = 1, ix = 50, iy = 05, inc_ix = 1, inc_iy = 1;
- 
-        final Font font = new Font("Arial", Font.BOLD, 21);
- 
-        final Graphics2D g = buffer.createGraphics();
-        g.setFont(font);
- 
-        final int backgroundW = background.getWidth(null) ;
-        final int backgroundH = background.getHeight(null);
-        
-        int nFrames = 0;
-        long start = System.currentTimeMillis();
- 
-        for (;;) {
- 
-            synchronized (buffer) {
- 
-                g.drawImage(background, 0, 0, W, H, ix, iy, ix + W, iy + H, null);
-                if (ix > backgroundW - W || ix < 0) {
-                    inc_ix *= -1;
-                }
-                if (iy > backgroundH - H || iy < 0) {
-                    inc_iy *= -1;
-                }
-                ix += inc_ix;
-                iy += inc_iy;
-                g.setColor(Color.WHITE);
-                g.fillRect(x, y, D, D);
-                if (x > W - D || x < 0) {
-                    inc_x *= -1;
-                }
-                if (y > H - D || y < 0) {
-                    inc_y *= -1;
-                }
-                x += inc_x;
-                y += inc_y;
-                g.setColor(Color.GREEN);
-                final String current = System.currentTimeMillis() + "";
-                g.drawString(current, 20, 20);
-            }
- 
-            Util.sleep(10);
- 
-            nFrames++;
-            final long now = System.currentTimeMillis();
-            final long delta = now - start;
-            if (delta > 2000L) {
-                float fps = ((float) nFrames) / delta * 1000.0f;
-                logger.info(String.format("%1$2.3fFPS", fps));
- 
-                start = System.currentTimeMillis();
-                nFrames = 0;
-            }
-        }
+    public MJPGServer(final FrameProducer frameProducer, int port, boolean nonBlocking, int maxFps) {
+        super(port, nonBlocking, maxFps);
+        this.frameProducer = frameProducer;
     }
  
-    public RenderedImage grabFrame() {
-        final BufferedImage frame;
-        synchronized (buffer) {
-            frame = new BufferedImage(buffer.getWidth(),
-                    buffer.getHeight(), buffer.getType());
-            frame.setData(buffer.getData());
-        }
-        return frame;
+    @Override
+    ByteBuffer preamble() {
+        return ByteBuffer.wrap(header).asReadOnlyBuffer();
     }
  
-    public byte[] grabJPEGFrame() throws IOException {
-        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        ImageIO.write(grabFrame(), "jpeg", bos);
-        return bos.toByteArray();
+    @Override
+    ByteBuffer[] frameBuffers(EncodedFrame frame) {
+        final String length = "Content-Length: " + frame.getLength() + "\r\n\r\n";
+        final ByteBuffer partHeader = ByteBuffer.allocate(boundaryBytes.length + contentTypeImageJPEG.length + length.length());
+        partHeader.put(boundaryBytes).put(contentTypeImageJPEG).put(length.getBytes());
+        partHeader.flip();
+        return new ByteBuffer[] { partHeader, frame.asByteBuffer() };
     }
-}
- 
-abstract class Server implements Runnable {
  
-    private final int port;
-    private static final ExecutorService EXS = Executors.newCachedThreadPool();
-    private static final Logger logger = Logger.getLogger(Server.class.getName());
+    @Override
+    EncodedFrame nextFrame() throws IOException {
+        return frameProducer.grabEncodedFrame();
+    }
  
-    public Server(int port) {
-        this.port = port;
+    @Override
+    FrameClock frameClock() {
+        return frameProducer.getClock();
     }
  
-    abstract Object doServe(final Socket socket) throws Exception;
-    
-    public void run() {
-        ServerSocket ssock = null;
-        try {
-            try {
-                ssock = new ServerSocket(port);
+    @Override
+    Object doServe(Socket socket) throws Exception {
+        final OutputStream os = socket.getOutputStream();
  
-                for (;;) {
-                    final Socket sock = ssock.accept();
-                    // Lauscht auf Port und verschickt Pakete an die anfragende Adresse
-                    logger.info("accept: " + sock.getInetAddress());
-                    EXS.submit(new Callable<Object>() {
+        os.write(header);
  
-                        public Object call() throws Exception {
-                            return doServe(sock);
-                        }
-                    });
-                }
-            } finally {
-                if (ssock != null) {
-                    ssock.close();
+        final ViewerStats stats = addViewer(socket.getInetAddress());
+        try {
+            for (;;) {
+                try {
+                    // Es wird immer der neueste Frame geholt, Frames die während eines
+                    // langsamen Schreibvorgangs entstanden sind, werden übersprungen
+                    final EncodedFrame jpg = frameProducer.grabEncodedFrame();
+                    os.write(boundaryBytes);
+                    os.write(contentTypeImageJPEG);
+                    os.write(("Content-Length: " + jpg.getLength() + "\r\n\r\n").getBytes());
+                    jpg.writeTo(os);
+                    os.flush();
+                    final long sent = System.currentTimeMillis();
+                    stats.delivered(jpg, sent);
+                    // während des Schreibens entstandene Frames zählen als verworfen, nicht als gedrosselt
+                    stats.busy(frameProducer.currentSequence());
+                    // schläft nur, bis ein neuer Frame vorliegt, gleiche Frames werden nicht erneut gesendet
+                    awaitNextFrame(jpg.getSequence(), sent);
+                } catch (final Exception ex) {
+                    logger.severe(ex.getMessage());
+                    break;
                 }
             }
-        } catch (final Throwable t) {
-            throw new RuntimeException(t);
+        } finally {
+            removeViewer(stats);
         }
+        logger.info("exit: " + stats);
+        return null;
     }
 }
  
-class MJPGServer extends Server {
+class RawFrameServer extends Server {
  
-    private static final String boundary = "myboundary";
-    private static final byte[] boundaryBytes = ("\r\n--" + boundary + "\r\n").getBytes();
-    private static final byte[] contentTypeImageJPEG = "Content-Type: image/jpeg\r\n".getBytes();
-    private static final Logger logger = Logger.getLogger(MJPGServer.class.getName());
-    //private static final ExecutorService EXS = Executors.newCachedThreadPool();
     private final FrameProducer frameProducer;
  
-    public MJPGServer(final FrameProducer frameProducer, int port) {
-        super(port);
+    public RawFrameServer(final FrameProducer frameProducer, int port) {
+        this(frameProducer, port, false, FrameProducer.MAX_FPS);
+    }
+ 
+    public RawFrameServer(final FrameProducer frameProducer, int port, boolean nonBlocking, int maxFps) {
+        super(port, nonBlocking, maxFps);
         this.frameProducer = frameProducer;
     }
  
     @Override
-    Object doServe(Socket socket) throws Exception {
-        final OutputStream os = socket.getOutputStream();
- 
-        os.write(("HTTP/1.1 200 OK\r\n"
-                + "Expires: 0\r\n"
-                + "Pragma: no-cache\r\n"
-                + "Cache-Control: no-cache\r\n"
-                + "Content-Type: multipart/x-mixed-replace;boundary=" + boundary + "\r\n").getBytes());
- 
-        for (;;) {
-            try {
-                os.write(boundaryBytes);
-                os.write(contentTypeImageJPEG);
- 
-                final byte[] jpg = frameProducer.grabJPEGFrame();
-                os.write(("Content-Length: " + jpg.length + "\r\n\r\n").getBytes());
-                os.write(jpg);
-                os.flush();
-            } catch (final Exception ex) {
-                logger.severe(ex.getMessage());
-                break;
-            }
-            Util.sleep(25);
-        }
-        logger.info("exit: " + socket.getInetAddress());
+    ByteBuffer preamble() {
         return null;
     }
-}
  
-class RawFrameServer extends Server {
+    @Override
+    ByteBuffer[] frameBuffers(EncodedFrame frame) {
+        final ByteBuffer length = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        length.putInt(0, frame.getLength());
+        return new ByteBuffer[] { length, frame.asByteBuffer() };
+    }
  
-    private final FrameProducer frameProducer;
+    @Override
+    EncodedFrame nextFrame() throws IOException {
+        return frameProducer.grabEncodedFrame();
+    }
  
-    public RawFrameServer(final FrameProducer frameProducer, int port) {
-        super(port);
-        this.frameProducer = frameProducer;
+    @Override
+    FrameClock frameClock() {
+        return frameProducer.getClock();
     }
  
     @Override
     Object doServe(Socket socket) throws Exception {
         final OutputStream os = socket.getOutputStream();
         final byte buffer [] = new byte [4];
-        for(;;) {
-            final byte [] frame = frameProducer.grabJPEGFrame();
+        final ViewerStats stats = addViewer(socket.getInetAddress());
+        try {
+            for(;;) {
+                final EncodedFrame frame = frameProducer.grabEncodedFrame();
  
-            final int l = frame.length;
-            buffer[0] = (byte) (l & 0xff);
-            buffer[1] = (byte) ((l >> 8) & 0xff);
-            buffer[2] = (byte) ((l >> 16) & 0xff);
-            buffer[3] = (byte) ((l >> 24) & 0xff);
+                final int l = frame.getLength();
+                buffer[0] = (byte) (l & 0xff);
+                buffer[1] = (byte) ((l >> 8) & 0xff);
+                buffer[2] = (byte) ((l >> 16) & 0xff);
+                buffer[3] = (byte) ((l >> 24) & 0xff);
  
-            os.write(buffer ,0 ,4);
-            os.write(frame);
-            os.flush();
+                os.write(buffer ,0 ,4);
+                frame.writeTo(os);
+                os.flush();
+                final long sent = System.currentTimeMillis();
+                stats.delivered(frame, sent);
+                stats.busy(frameProducer.currentSequence());
+                awaitNextFrame(frame.getSequence(), sent);
+            }
+        } finally {
+            removeViewer(stats);
         }
     }
 }
@@ -268,15 +175,31 @@ class RawFrameServer extends Server {
     private static final Logger logger = Logger.getLogger(ImageTransferSender.class.getName());
     // FrameProducer stellt die Bilder, die Gesendet werden zur Verf�gung --> Testzwecke
     static final FrameProducer frameProducer = new FrameProducer();
+    // true: alle Zuschauer werden über wenige Selector-Event-Loops bedient statt über je einen Thread
+    static final boolean NON_BLOCKING = true;
+    // Obergrenze der Bildrate je Ausgang
+    static final int MJPG_MAX_FPS = 25;
+    static final int RAW_MAX_FPS = FrameProducer.MAX_FPS;
     // MJPGServer Sendet die Bilder von FrameProducer an Port 8889
     // kann in Firefox direkt aufgerufen werden
-    static final MJPGServer MJPGServer = new MJPGServer(frameProducer, 8889);
+    static final MJPGServer MJPGServer = new MJPGServer(frameProducer, 8889, NON_BLOCKING, MJPG_MAX_FPS);
     // RawFrameServer sorgt daf�r, da� der Buffer mit dem richtigen Frame gef�llt wird
     // Kontrollieren kann man den Datenstrom an Port 8888
-    static final RawFrameServer rawFrameServer = new RawFrameServer(frameProducer, 8888);
+    static final RawFrameServer rawFrameServer = new RawFrameServer(frameProducer, 8888, NON_BLOCKING, RAW_MAX_FPS);
     // EXS ist die Javainterne Threadverwaltung
     static final ExecutorService EXS = Executors.newCachedThreadPool();
  
+    /**
+     * Liefert die Zähler aller Zuschauer (gesendete und übersprungene Frames, Verzögerung).
+     * @return Zähler aller verbundenen Zuschauer beider Server
+     */
+    public static List<ViewerStats> getViewerStats() {
+        final List<ViewerStats> stats = new ArrayList<ViewerStats>();
+        stats.addAll(MJPGServer.getViewerStats());
+        stats.addAll(rawFrameServer.getViewerStats());
+        return stats;
+    }
+ 
     public static void main(String[] args) throws IOException, InterruptedException {
  
         EXS.submit(frameProducer);
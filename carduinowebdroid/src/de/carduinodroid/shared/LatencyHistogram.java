@@ -0,0 +1,94 @@
+package de.carduinodroid.shared;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * \brief Histogram of latencies in nanoseconds with power of two buckets.
+ * \details Bucket i counts the values from 2^(i-1) to 2^i - 1 nanoseconds (bucket 0 counts 0), so the error of a percentile is less than
+ * a factor of two over the whole range from nanoseconds to minutes. record() is one atomic increment and does not allocate, it can be called
+ * from any thread on the hot path.
+ */
+public class LatencyHistogram {
+
+	private static final int BUCKETS = 64;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * \brief Counts a latency.
+	 * @param nanos Latency in nanoseconds, negative values count as 0.
+	 */
+	public void record(long nanos) {
+		if (nanos < 0)
+			nanos = 0;
+		buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos)));
+		count.incrementAndGet();
+		total.addAndGet(nanos);
+		long current;
+		while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos));
+	}
+
+	/**
+	 * @return Returns the number of latencies counted.
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return Returns the highest latency in nanoseconds, 0 if none was counted.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return Returns the mean latency in nanoseconds, 0 if none was counted.
+	 */
+	public long getMean() {
+		long n = count.get();
+		return n == 0 ? 0 : total.get() / n;
+	}
+
+	/**
+	 * \brief Returns an upper bound of a percentile.
+	 * @param fraction Percentile as fraction, e.g. 0.99.
+	 * @return Returns the upper end of the bucket which contains the percentile in nanoseconds, at most the highest latency, 0 if none was counted.
+	 */
+	public long getPercentile(double fraction) {
+		long n = count.get();
+		if (n == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(fraction * n));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += buckets.get(i);
+			if (seen >= rank)
+				return Math.min(max.get(), i == 0 ? 0 : (1L << i) - 1);
+		}
+		return max.get();
+	}
+
+	/**
+	 * @return Returns the number of latencies in each bucket.
+	 */
+	public long[] getBuckets() {
+		long[] copy = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++)
+			copy[i] = buckets.get(i);
+		return copy;
+	}
+
+	/**
+	 * \brief Returns count, mean, percentiles and maximum in microseconds, e.g. "1200 samples, mean 80 us, p50 <= 65 us, p99 <= 262 us, max 310 us".
+	 */
+	@Override
+	public String toString() {
+		return count.get() + " samples, mean " + getMean() / 1000 + " us, p50 <= " + getPercentile(0.5) / 1000 + " us, p99 <= "
+				+ getPercentile(0.99) / 1000 + " us, p99.9 <= " + getPercentile(0.999) / 1000 + " us, max " + max.get() / 1000 + " us";
+	}
+}
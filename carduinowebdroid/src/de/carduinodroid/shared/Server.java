@@ -0,0 +1,176 @@
+package de.carduinodroid.shared;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+abstract class Server implements Runnable {
+ 
+    private final int port;
+    private final boolean nonBlocking;
+    private final long minInterval;
+    private static final ExecutorService EXS = Executors.newCachedThreadPool();
+    private static final Logger logger = Logger.getLogger(Server.class.getName());
+    // Anzahl der Event-Loops im nicht blockierenden Modus
+    static final int EVENT_LOOPS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    // Kleiner Sendepuffer, damit sich beim Betriebssystem keine Sekunden an Video aufstauen
+    static final int SEND_BUFFER = 64 * 1024;
+    private final Collection<ViewerStats> viewers = new ConcurrentLinkedQueue<ViewerStats>();
+ 
+    public Server(int port) {
+        this(port, false, FrameProducer.MAX_FPS);
+    }
+ 
+    /**
+     * @param port Port, auf dem gelauscht wird
+     * @param nonBlocking true, wenn alle Zuschauer über Selector-Event-Loops statt über je einen Thread bedient werden sollen
+     * @param maxFps Obergrenze der Bildrate für diesen Ausgang, 0 für unbegrenzt
+     */
+    public Server(int port, boolean nonBlocking, int maxFps) {
+        this.port = port;
+        this.nonBlocking = nonBlocking;
+        this.minInterval = maxFps > 0 ? 1000 / maxFps : 0;
+    }
+ 
+    abstract Object doServe(final Socket socket) throws Exception;
+ 
+    /**
+     * Daten, die im nicht blockierenden Modus einmal zu Beginn jeder Verbindung gesendet werden.
+     * @return Puffer mit den Daten oder null
+     */
+    abstract ByteBuffer preamble();
+ 
+    /**
+     * Baut die Puffer für einen Frame (Header und Bilddaten) für den nicht blockierenden Modus.
+     * Die Puffer werden einmal pro Frame gebaut und für jede Verbindung dupliziert.
+     * @param frame der zu sendende Frame
+     * @return Puffer für ein gathering write
+     */
+    abstract ByteBuffer[] frameBuffers(EncodedFrame frame);
+ 
+    /**
+     * @return den aktuellen Frame
+     * @throws IOException wenn der Frame nicht kodiert werden kann
+     */
+    abstract EncodedFrame nextFrame() throws IOException;
+ 
+    /**
+     * @return Takt, der neue Frames meldet
+     */
+    abstract FrameClock frameClock();
+ 
+    /**
+     * @return Mindestabstand zwischen zwei Frames an einen Zuschauer in ms
+     */
+    long getMinInterval() {
+        return minInterval;
+    }
+ 
+    /**
+     * Wartet, bis ein neuerer Frame als der zuletzt gesendete vorliegt,
+     * und hält dabei die Obergrenze der Bildrate ein.
+     * @param seen Sequenznummer des zuletzt gesendeten Frames
+     * @param lastSend Zeitpunkt des letzten Sendens in ms
+     * @throws InterruptedException wenn der Thread unterbrochen wurde
+     */
+    void awaitNextFrame(long seen, long lastSend) throws InterruptedException {
+        frameClock().awaitAfter(seen, 0);
+        final long rest = lastSend + minInterval - System.currentTimeMillis();
+        if (rest > 0) {
+            Thread.sleep(rest);
+        }
+    }
+ 
+    ViewerStats addViewer(InetAddress address) {
+        final ViewerStats stats = new ViewerStats(address);
+        viewers.add(stats);
+        return stats;
+    }
+ 
+    void removeViewer(ViewerStats stats) {
+        viewers.remove(stats);
+    }
+ 
+    /**
+     * @return Zähler aller verbundenen Zuschauer
+     */
+    public Collection<ViewerStats> getViewerStats() {
+        return Collections.unmodifiableCollection(viewers);
+    }
+    
+    public void run() {
+        if (nonBlocking) {
+            runSelector();
+            return;
+        }
+        ServerSocket ssock = null;
+        try {
+            try {
+                ssock = new ServerSocket(port);
+ 
+                for (;;) {
+                    final Socket sock = ssock.accept();
+                    // Lauscht auf Port und verschickt Pakete an die anfragende Adresse
+                    logger.info("accept: " + sock.getInetAddress());
+                    sock.setSendBufferSize(SEND_BUFFER);
+                    EXS.submit(new Callable<Object>() {
+ 
+                        public Object call() throws Exception {
+                            return doServe(sock);
+                        }
+                    });
+                }
+            } finally {
+                if (ssock != null) {
+                    ssock.close();
+                }
+            }
+        } catch (final Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+ 
+    /**
+     * Nimmt Verbindungen an und verteilt sie reihum auf die Event-Loops,
+     * die Zuschauer belegen dadurch keinen eigenen Thread mehr.
+     */
+    private void runSelector() {
+        ServerSocketChannel ssc = null;
+        try {
+            try {
+                final ViewerLoop[] loops = new ViewerLoop[EVENT_LOOPS];
+                for (int i = 0; i < loops.length; i++) {
+                    loops[i] = new ViewerLoop(this);
+                    EXS.submit(loops[i]);
+                }
+ 
+                ssc = ServerSocketChannel.open();
+                ssc.socket().bind(new InetSocketAddress(port));
+ 
+                for (int next = 0;; next = (next + 1) % loops.length) {
+                    final SocketChannel channel = ssc.accept();
+                    logger.info("accept: " + channel.socket().getInetAddress());
+                    loops[next].register(channel);
+                }
+            } finally {
+                if (ssc != null) {
+                    ssc.close();
+                }
+            }
+        } catch (final Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+}
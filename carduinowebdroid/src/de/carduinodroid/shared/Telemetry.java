@@ -0,0 +1,138 @@
+package de.carduinodroid.shared;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * \brief Latest state of the car for the viewers: position, speed, steering angle and the keys pressed by the driver.
+ * \details Every setter stores the value and marks its field as changed, if the value differs from the stored one. Several updates of a field
+ * before the next takeChanges() coalesce into one, only the latest value is sent. takeChanges() returns and clears the changed fields with one
+ * atomic operation, toJson() then reads the current values, so an update which arrives in between is sent now and marked again for the next
+ * time at worst.
+ * \details The setters are called by the thread which receives the packets of the car, one writer per field is assumed.
+ */
+public class Telemetry {
+
+	public static final int LATITUDE = 1;
+	public static final int LONGITUDE = 2;
+	public static final int SPEED = 4;
+	public static final int ANGLE = 8;
+	public static final int KEYS = 16;
+	public static final int ALL = LATITUDE | LONGITUDE | SPEED | ANGLE | KEYS;
+
+	private volatile String latitude;
+	private volatile String longitude;
+	private volatile int speed;
+	private volatile int angle;
+	private volatile int keys;
+
+	private final AtomicInteger changed = new AtomicInteger();
+	private final AtomicLong updates = new AtomicLong();	/** changes of a field */
+	private final AtomicLong coalesced = new AtomicLong();	/** changes of a field which was not sent yet */
+
+	public void setLatitude(String latitude) {
+		if (!equal(this.latitude, latitude)) {
+			this.latitude = latitude;
+			mark(LATITUDE);
+		}
+	}
+
+	public void setLongitude(String longitude) {
+		if (!equal(this.longitude, longitude)) {
+			this.longitude = longitude;
+			mark(LONGITUDE);
+		}
+	}
+
+	public void setSpeed(int speed) {
+		if (this.speed != speed) {
+			this.speed = speed;
+			mark(SPEED);
+		}
+	}
+
+	public void setAngle(int angle) {
+		if (this.angle != angle) {
+			this.angle = angle;
+			mark(ANGLE);
+		}
+	}
+
+	/**
+	 * @param keys Pressed keys, combination of ControlFrame.UP, DOWN, LEFT and RIGHT.
+	 */
+	public void setKeys(int keys) {
+		if (this.keys != keys) {
+			this.keys = keys;
+			mark(KEYS);
+		}
+	}
+
+	/**
+	 * \brief Returns the fields changed since the last call and clears them.
+	 * @return Returns a combination of LATITUDE, LONGITUDE, SPEED, ANGLE and KEYS, 0 if nothing changed.
+	 */
+	public int takeChanges() {
+		return changed.getAndSet(0);
+	}
+
+	/**
+	 * \brief Serializes the given fields with their current values, e.g. {"s":42,"lat":"52.51","spd":120}.
+	 * \details Fields which are not given are left out, the client keeps their previous values.
+	 * @param sequence Sequence number of the update.
+	 * @param fields Fields to write, ALL for a full snapshot.
+	 * @return Returns the JSON object.
+	 */
+	public String toJson(long sequence, int fields) {
+		StringBuilder json = new StringBuilder(96);
+		json.append("{\"s\":").append(sequence);
+		if ((fields & LATITUDE) != 0)
+			appendString(json.append(",\"lat\":"), latitude);
+		if ((fields & LONGITUDE) != 0)
+			appendString(json.append(",\"lon\":"), longitude);
+		if ((fields & SPEED) != 0)
+			json.append(",\"spd\":").append(speed);
+		if ((fields & ANGLE) != 0)
+			json.append(",\"ang\":").append(angle);
+		if ((fields & KEYS) != 0)
+			json.append(",\"keys\":").append(keys);
+		return json.append('}').toString();
+	}
+
+	@Override
+	public String toString() {
+		return "telemetry: " + updates.get() + " updates, " + coalesced.get() + " coalesced";
+	}
+
+	private void mark(int field) {
+		updates.incrementAndGet();
+		int current;
+		do {
+			current = changed.get();
+			if ((current & field) != 0) {
+				coalesced.incrementAndGet();
+				return;
+			}
+		} while (!changed.compareAndSet(current, current | field));
+	}
+
+	private static boolean equal(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	private static void appendString(StringBuilder json, String value) {
+		if (value == null) {
+			json.append("null");
+			return;
+		}
+		json.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\')
+				json.append('\\').append(c);
+			else if (c >= ' ')
+				json.append(c);
+		}
+		json.append('"');
+	}
+}
@@ -0,0 +1,200 @@
+package de.carduinodroid.shared;
+
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * \brief Thread safe waiting queue with position lookup.
+ * \details Every queued session gets a ticket with a sequence number, the tickets are kept in an order statistic treap
+ * (a binary search tree by sequence number, balanced by random priorities, every node knows the size of its subtree).
+ * A hash map from session to ticket finds a ticket directly, so enqueue, dequeue, cancel and "position of a session" are all O(log n).
+ * \details Tickets added with addFirst() get sequence numbers below all others.
+ */
+class TicketQueue {
+
+	private static class Ticket {
+		final long sequence;
+		final String sessionID;
+		final int priority;
+		int size = 1;
+		Ticket left;
+		Ticket right;
+
+		Ticket(long sequence, String sessionID, int priority) {
+			this.sequence = sequence;
+			this.sessionID = sessionID;
+			this.priority = priority;
+		}
+	}
+
+	private final HashMap<String, Ticket> tickets = new HashMap<String, Ticket>();
+	private final Random random = new Random();
+	private Ticket root = null;
+	private long back = 0;	/** sequence of the next ticket at the end */
+	private long front = -1;	/** sequence of the next ticket at the front */
+
+	/**
+	 * \brief Adds a session at the end of the queue.
+	 * @param sessionID Session to add.
+	 * @return Returns "false" if the session is already queued.
+	 */
+	synchronized boolean add(String sessionID) {
+		if (tickets.containsKey(sessionID))
+			return false;
+		insert(new Ticket(back++, sessionID, random.nextInt()));
+		return true;
+	}
+
+	/**
+	 * \brief Adds a session at the front of the queue, a session which is already queued is moved to the front.
+	 * @param sessionID Session to add.
+	 */
+	synchronized void addFirst(String sessionID) {
+		remove(sessionID);
+		insert(new Ticket(front--, sessionID, random.nextInt()));
+	}
+
+	/**
+	 * \brief Removes the first session.
+	 * @return Returns the first session or null if the queue is empty.
+	 */
+	synchronized String poll() {
+		if (root == null)
+			return null;
+		Ticket first = root;
+		while (first.left != null)
+			first = first.left;
+		remove(first.sessionID);
+		return first.sessionID;
+	}
+
+	/**
+	 * \brief Removes a session from the queue.
+	 * @param sessionID Session to remove.
+	 * @return Returns "false" if the session was not queued.
+	 */
+	synchronized boolean remove(String sessionID) {
+		final Ticket ticket = tickets.remove(sessionID);
+		if (ticket == null)
+			return false;
+		root = remove(root, ticket.sequence);
+		return true;
+	}
+
+	/**
+	 * @param sessionID Session to look up.
+	 * @return Returns the position of the session starting at 0 or -1 if it is not queued.
+	 */
+	synchronized int position(String sessionID) {
+		final Ticket ticket = tickets.get(sessionID);
+		if (ticket == null)
+			return -1;
+		int position = 0;
+		Ticket node = root;
+		while (node != null) {
+			if (ticket.sequence < node.sequence) {
+				node = node.left;
+			} else {
+				position += size(node.left);
+				if (node == ticket)
+					return position;
+				position++;
+				node = node.right;
+			}
+		}
+		return -1;	// not reached
+	}
+
+	synchronized int size() {
+		return size(root);
+	}
+
+	/**
+	 * @return Returns all queued sessions in order.
+	 */
+	synchronized String[] toArray() {
+		final String[] sessions = new String[size(root)];
+		fill(root, sessions, 0);
+		return sessions;
+	}
+
+	synchronized void clear() {
+		tickets.clear();
+		root = null;
+	}
+
+	private void insert(Ticket ticket) {
+		tickets.put(ticket.sessionID, ticket);
+		final Ticket[] parts = split(root, ticket.sequence);
+		root = merge(merge(parts[0], ticket), parts[1]);
+	}
+
+	/**
+	 * \brief Splits a subtree into tickets below the given sequence and all others.
+	 */
+	private static Ticket[] split(Ticket node, long sequence) {
+		if (node == null)
+			return new Ticket[2];
+		if (node.sequence < sequence) {
+			final Ticket[] parts = split(node.right, sequence);
+			node.right = parts[0];
+			update(node);
+			parts[0] = node;
+			return parts;
+		} else {
+			final Ticket[] parts = split(node.left, sequence);
+			node.left = parts[1];
+			update(node);
+			parts[1] = node;
+			return parts;
+		}
+	}
+
+	/**
+	 * \brief Merges two subtrees, all tickets of a are before all tickets of b.
+	 */
+	private static Ticket merge(Ticket a, Ticket b) {
+		if (a == null)
+			return b;
+		if (b == null)
+			return a;
+		if (a.priority > b.priority) {
+			a.right = merge(a.right, b);
+			update(a);
+			return a;
+		} else {
+			b.left = merge(a, b.left);
+			update(b);
+			return b;
+		}
+	}
+
+	private static Ticket remove(Ticket node, long sequence) {
+		if (node == null)
+			return null;
+		if (sequence == node.sequence)
+			return merge(node.left, node.right);
+		if (sequence < node.sequence)
+			node.left = remove(node.left, sequence);
+		else
+			node.right = remove(node.right, sequence);
+		update(node);
+		return node;
+	}
+
+	private static int fill(Ticket node, String[] sessions, int index) {
+		if (node == null)
+			return index;
+		index = fill(node.left, sessions, index);
+		sessions[index++] = node.sessionID;
+		return fill(node.right, sessions, index);
+	}
+
+	private static void update(Ticket node) {
+		node.size = 1 + size(node.left) + size(node.right);
+	}
+
+	private static int size(Ticket node) {
+		return node == null ? 0 : node.size;
+	}
+}
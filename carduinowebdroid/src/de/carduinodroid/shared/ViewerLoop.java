@@ -0,0 +1,319 @@
+package de.carduinodroid.shared;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Logger;
+
+/**
+ * \brief Event loop which streams frames to many viewer channels on a single thread.
+ * \details Every loop owns one Selector. Channels are written with gathering writes, a channel which cannot take the whole frame
+ * keeps the rest as pending buffers and waits for OP_WRITE instead of blocking the loop.
+ * Frame data is shared between all connections, each connection only holds its own buffer views.
+ * \details Delivery follows "latest frame wins": a connection which is still busy with an older frame skips all frames produced meanwhile
+ * and gets the newest one as soon as the old one is written completely.
+ * \details The loop sleeps in select() until a viewer channel is ready or the server's FrameClock announces a new frame,
+ * the frame rate cap of the server is kept by limiting the select timeout.
+ */
+class ViewerLoop implements Runnable {
+
+	private static final Logger logger = Logger.getLogger(ViewerLoop.class.getName());
+
+	private final Server server;
+	private final Selector selector;
+	private final Queue<SocketChannel> newChannels = new ConcurrentLinkedQueue<SocketChannel>();
+	private final ByteBuffer readBuffer = ByteBuffer.allocate(1024);
+
+	private EncodedFrame latest = null;
+	private ByteBuffer[] template = null;
+	private long nextOffer = 0;
+
+	ViewerLoop(Server server) throws IOException {
+		this.server = server;
+		this.selector = Selector.open();
+		server.frameClock().addListener(new Runnable() {
+			public void run() {
+				selector.wakeup();
+			}
+		});
+	}
+
+	/**
+	 * \brief Hands a freshly accepted channel over to this loop.
+	 * \details Can be called from any thread.
+	 * @param channel Accepted viewer channel.
+	 */
+	void register(SocketChannel channel) {
+		newChannels.add(channel);
+		selector.wakeup();
+	}
+
+	/**
+	 * @return Returns the number of viewers served by this loop.
+	 */
+	int getViewerCount() {
+		return selector.keys().size();
+	}
+
+	public void run() {
+		try {
+			for (;;) {
+				final long wait = nextOffer - System.currentTimeMillis();
+				// without viewers there is nothing to offer, register() wakes the loop up
+				if (selector.keys().isEmpty() || !frameReady())
+					selector.select();
+				else if (wait > 0)
+					selector.select(wait);
+				else
+					selector.selectNow();
+				registerNewChannels();
+
+				final Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					final SelectionKey key = it.next();
+					it.remove();
+					if (!key.isValid())
+						continue;
+					if (key.isReadable())
+						read(key);
+					if (key.isValid() && key.isWritable())
+						write(key);
+				}
+
+				final long now = System.currentTimeMillis();
+				if (frameReady() && now >= nextOffer) {
+					offerFrame();
+					nextOffer = now + server.getMinInterval();
+				}
+			}
+		} catch (final IOException ex) {
+			logger.severe(ex.getMessage());
+		}
+	}
+
+	/**
+	 * \brief Compares the clock with the newest offered frame, the producer numbers its frames with the sequence numbers of its clock.
+	 * @return Returns "true" if the server has a frame which was not offered yet.
+	 */
+	private boolean frameReady() {
+		return latest == null || server.frameClock().getSequence() != latest.getSequence();
+	}
+
+	private void registerNewChannels() {
+		SocketChannel channel;
+		while ((channel = newChannels.poll()) != null) {
+			try {
+				channel.configureBlocking(false);
+				channel.socket().setSendBufferSize(Server.SEND_BUFFER);
+				final ViewerConnection connection = new ViewerConnection(channel, server.addViewer(channel.socket().getInetAddress()));
+				final SelectionKey key = channel.register(selector, SelectionKey.OP_READ, connection);
+				final ByteBuffer preamble = server.preamble();
+				if (preamble != null) {
+					connection.enqueue(new ByteBuffer[] { preamble.duplicate() }, null);
+					write(key);
+				}
+				if (latest != null && !connection.hasPending() && connection.getLastSequence() != latest.getSequence())
+					offerLatest(key, connection);
+			} catch (final IOException ex) {
+				logger.severe(ex.getMessage());
+				closeQuietly(channel);
+			}
+		}
+	}
+
+	/**
+	 * \brief Queues the current frame on every connection which is ready for it.
+	 * \details The frame buffers are built once per frame and duplicated for every connection.
+	 */
+	private void offerFrame() {
+		if (selector.keys().isEmpty())
+			return;
+
+		final EncodedFrame frame;
+		try {
+			frame = server.nextFrame();
+		} catch (final IOException ex) {
+			logger.severe(ex.getMessage());
+			return;
+		}
+		if (frame == null)
+			return;
+
+		if (latest == null || frame.getSequence() != latest.getSequence()) {
+			template = server.frameBuffers(frame);
+			latest = frame;
+		}
+
+		for (final SelectionKey key : selector.keys()) {
+			if (!key.isValid())
+				continue;
+			final ViewerConnection connection = (ViewerConnection) key.attachment();
+			if (connection.getLastSequence() == frame.getSequence())
+				continue;
+			if (connection.hasPending()) {
+				// viewer has not taken the previous frame yet, it gets the newest one when done
+				connection.stalled(frame.getSequence());
+				continue;
+			}
+			offerLatest(key, connection);
+		}
+	}
+
+	private void offerLatest(SelectionKey key, ViewerConnection connection) {
+		final ByteBuffer[] buffers = new ByteBuffer[template.length];
+		for (int i = 0; i < buffers.length; i++)
+			buffers[i] = template[i].duplicate();
+		connection.enqueue(buffers, latest);
+		connection.setLastSequence(latest.getSequence());
+		write(key);
+	}
+
+	private void read(SelectionKey key) {
+		final SocketChannel channel = (SocketChannel) key.channel();
+		try {
+			int n;
+			do {
+				readBuffer.clear();
+				n = channel.read(readBuffer);
+			} while (n > 0);
+			if (n < 0)
+				close(key);
+		} catch (final IOException ex) {
+			close(key);
+		}
+	}
+
+	private void write(SelectionKey key) {
+		final ViewerConnection connection = (ViewerConnection) key.attachment();
+		try {
+			if (connection.write() && latest != null && connection.getLastSequence() != latest.getSequence()) {
+				// a newer frame was produced while this one was written
+				connection.getStats().busy(latest.getSequence());
+				offerLatest(key, connection);
+				return;
+			}
+			key.interestOps(connection.hasPending()
+					? SelectionKey.OP_READ | SelectionKey.OP_WRITE
+					: SelectionKey.OP_READ);
+		} catch (final IOException ex) {
+			close(key);
+		}
+	}
+
+	private void close(SelectionKey key) {
+		final ViewerConnection connection = (ViewerConnection) key.attachment();
+		final SocketChannel channel = (SocketChannel) key.channel();
+		key.cancel();
+		server.removeViewer(connection.getStats());
+		logger.info("exit: " + connection);
+		closeQuietly(channel);
+	}
+
+	private static void closeQuietly(SocketChannel channel) {
+		try {
+			channel.close();
+		} catch (final IOException ex) {
+			logger.severe(ex.getMessage());
+		}
+	}
+}
+
+/**
+ * \brief State of one viewer channel inside a ViewerLoop.
+ * \details Besides the buffers which are still to be written this keeps track of the write backpressure of the viewer:
+ * the number of bytes waiting in user space and how often a new frame was ready while the old one was still pending.
+ */
+class ViewerConnection {
+
+	private final SocketChannel channel;
+	private final ViewerStats stats;
+	private ByteBuffer[] pending = null;
+	private EncodedFrame pendingFrame = null;
+	private long pendingBytes = 0;
+	private long lastSequence = -1;
+	private long sentBytes = 0;
+	private long stalls = 0;
+
+	ViewerConnection(SocketChannel channel, ViewerStats stats) {
+		this.channel = channel;
+		this.stats = stats;
+	}
+
+	/**
+	 * \brief Sets the buffers to write next.
+	 * @param buffers Buffers to write.
+	 * @param frame The frame contained in the buffers or null if they carry no frame.
+	 */
+	void enqueue(ByteBuffer[] buffers, EncodedFrame frame) {
+		pending = buffers;
+		pendingFrame = frame;
+		pendingBytes = 0;
+		for (final ByteBuffer b : buffers)
+			pendingBytes += b.remaining();
+	}
+
+	/**
+	 * \brief Writes as much of the pending buffers as the socket accepts without blocking.
+	 * @return Returns "true" if the buffers were written completely by this call.
+	 * @throws IOException if the channel was closed by the viewer.
+	 */
+	boolean write() throws IOException {
+		if (pending == null)
+			return false;
+		final long n = channel.write(pending);
+		pendingBytes -= n;
+		sentBytes += n;
+		if (pendingBytes > 0)
+			return false;
+
+		pending = null;
+		if (pendingFrame != null) {
+			stats.delivered(pendingFrame, System.currentTimeMillis());
+			pendingFrame = null;
+		}
+		return true;
+	}
+
+	boolean hasPending() {
+		return pending != null;
+	}
+
+	/**
+	 * \brief Records that a frame was ready while the previous one was still pending.
+	 * @param sequence Sequence number of the frame the viewer could not take.
+	 */
+	void stalled(long sequence) {
+		stalls++;
+		stats.busy(sequence);
+	}
+
+	ViewerStats getStats() {
+		return stats;
+	}
+
+	long getPendingBytes() {
+		return pendingBytes;
+	}
+
+	long getStalls() {
+		return stalls;
+	}
+
+	long getLastSequence() {
+		return lastSequence;
+	}
+
+	void setLastSequence(long sequence) {
+		lastSequence = sequence;
+	}
+
+	@Override
+	public String toString() {
+		return stats + ", sent " + sentBytes + " bytes, " + stalls + " stalls, " + pendingBytes + " bytes pending";
+	}
+}
@@ -0,0 +1,125 @@
+package de.carduinodroid.shared;
+
+import java.net.InetAddress;
+
+/**
+ * \brief Delivery counters of one video viewer.
+ * \details Viewers always get the newest frame, frames which were produced while a viewer was still busy with an older one are skipped.
+ * This class counts the delivered and the skipped frames and the lag between capturing a frame and handing it to the viewer's socket.
+ * \details Skipped frames are counted as dropped only if the viewer was busy when they were produced (see busy()), the others were
+ * skipped to keep the frame rate cap of the server and are counted as capped.
+ * \details The counters are written by the thread which serves the viewer and can be read from any thread.
+ */
+public class ViewerStats {
+
+	private final InetAddress address;
+	private final long connectedSince;
+	private long lastSequence = -1;
+	private volatile long delivered = 0;
+	private volatile long dropped = 0;
+	private volatile long capped = 0;
+	private long busyUntil = -1;
+	private volatile long lastLag = 0;
+	private volatile long maxLag = 0;
+	private volatile long totalLag = 0;
+
+	ViewerStats(InetAddress address) {
+		this.address = address;
+		this.connectedSince = System.currentTimeMillis();
+	}
+
+	/**
+	 * \brief Records that frames up to the given sequence number were produced while the viewer was still busy with an older one.
+	 * @param sequence Sequence number of the newest frame the viewer could not take.
+	 */
+	void busy(long sequence) {
+		if (sequence > busyUntil)
+			busyUntil = sequence;
+	}
+
+	/**
+	 * \brief Records that a frame was completely written to the viewer.
+	 * \details Sequence numbers between the previous and this frame count as dropped if they were marked by busy(), as capped otherwise.
+	 * @param frame The delivered frame.
+	 * @param now Current time in milliseconds.
+	 */
+	void delivered(EncodedFrame frame, long now) {
+		final long sequence = frame.getSequence();
+		if (lastSequence >= 0 && sequence > lastSequence + 1) {
+			final long skipped = sequence - lastSequence - 1;
+			final long busySkipped = Math.max(0, Math.min(sequence - 1, busyUntil) - lastSequence);
+			dropped += busySkipped;
+			capped += skipped - busySkipped;
+		}
+		lastSequence = sequence;
+
+		final long lag = Math.max(0, now - frame.getTimestamp());
+		lastLag = lag;
+		totalLag += lag;
+		if (lag > maxLag)
+			maxLag = lag;
+		delivered++;
+	}
+
+	/**
+	 * @return Returns the address of the viewer.
+	 */
+	public InetAddress getAddress() {
+		return address;
+	}
+
+	/**
+	 * @return Returns the time the viewer connected in milliseconds.
+	 */
+	public long getConnectedSince() {
+		return connectedSince;
+	}
+
+	/**
+	 * @return Returns the number of frames written to the viewer.
+	 */
+	public long getDelivered() {
+		return delivered;
+	}
+
+	/**
+	 * @return Returns the number of frames skipped because the viewer was still busy.
+	 */
+	public long getDropped() {
+		return dropped;
+	}
+
+	/**
+	 * @return Returns the number of frames skipped to keep the frame rate cap.
+	 */
+	public long getCapped() {
+		return capped;
+	}
+
+	/**
+	 * @return Returns the lag of the last delivered frame in milliseconds.
+	 */
+	public long getLastLag() {
+		return lastLag;
+	}
+
+	/**
+	 * @return Returns the highest lag seen so far in milliseconds.
+	 */
+	public long getMaxLag() {
+		return maxLag;
+	}
+
+	/**
+	 * @return Returns the average lag of all delivered frames in milliseconds.
+	 */
+	public long getAverageLag() {
+		final long n = delivered;
+		return n == 0 ? 0 : totalLag / n;
+	}
+
+	@Override
+	public String toString() {
+		return address + ": " + delivered + " delivered, " + dropped + " dropped, " + capped + " capped, lag " + lastLag + " ms (avg " + getAverageLag() + " ms, max " + maxLag + " ms)";
+	}
+}
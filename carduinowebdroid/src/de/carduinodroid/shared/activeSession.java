@@ -1,6 +1,9 @@
 package de.carduinodroid.shared;
 
-import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
 import de.carduinodroid.utilities.DBConnector;
 import org.apache.catalina.websocket.WsOutbound;
 
@@ -12,10 +15,27 @@ import org.apache.catalina.websocket.WsOutbound;
 
 public class activeSession {
 
-	private static ArrayList<String> activeSessions;
-	private static ArrayList<Integer> activeInt;
-	private static ArrayList<WsOutbound> activeSocket;
-	private static int Driver;
+	/**
+	 * \brief Everything known about one active session.
+	 */
+	static class SessionRecord {
+		final String sessionID;	/** Tomcat session */
+		final int sessionInt;	/** SessionID of the DB */
+		final String userID;
+		volatile WsOutbound socket;	/** controller socket, null if not connected */
+		volatile User user;	/** cached user, null if not loaded yet or invalidated */
+		
+		SessionRecord(String sessionID, int sessionInt, String userID, User user) {
+			this.sessionID = sessionID;
+			this.sessionInt = sessionInt;
+			this.userID = userID;
+			this.user = user;
+		}
+	}
+
+	private static final ConcurrentHashMap<String, SessionRecord> sessions = new ConcurrentHashMap<String, SessionRecord>();
+	/** record of the driver, a reference instead of an index so it stays valid when other sessions are removed */
+	private static final AtomicReference<SessionRecord> driver = new AtomicReference<SessionRecord>();
 	static DBConnector db;
 	
 	/** 
@@ -23,11 +43,9 @@ public class activeSession {
 	 */
 	
 	public static void init(){
-		activeSessions = new ArrayList<String>();
-		activeInt = new ArrayList<Integer>();
-		activeSocket = new ArrayList<WsOutbound>();
+		sessions.clear();
+		driver.set(null);
 		db = null;
-		Driver = -1;
 		try {
 			db = new DBConnector();
 		} catch (Exception e) {
@@ -37,21 +55,37 @@ public class activeSession {
 	
 	/** 
 	 * \brief inserts a session into the queue and also creates a session in the DB
+	 * \details If the Tomcat session is already active, the old DB session is closed and replaced.
 	 * @param SessionID Tomcat session of the user
 	 * @param ipadress of the user (ipv4 and ipv6 are possible)
 	 * @param userid of the user
 	 */
 	
 	public static void insertSession(String SessionID,String ipadress,String userid){
+		insertSession(SessionID, ipadress, userid, null);
+	}
+	
+	/** 
+	 * \brief inserts a session into the queue and also creates a session in the DB
+	 * \details Like insertSession(String, String, String), the given User is cached so getUser() doesn't need the DB.
+	 * @param SessionID Tomcat session of the user
+	 * @param ipadress of the user (ipv4 and ipv6 are possible)
+	 * @param userid of the user
+	 * @param user User object of the user, e.g. from the login, or null to load it on first use
+	 */
+	
+	public static void insertSession(String SessionID,String ipadress,String userid,User user){
 		int ID = -1;		
 		ID = db.createSession(userid, ipadress);
 		if (ID == -1){
 			System.out.println("konnte Session nicht erstellen");
 			return;
 		}
-		activeSessions.add(SessionID);
-		activeInt.add(ID);
-		activeSocket.add(null);
+		SessionRecord old = sessions.put(SessionID, new SessionRecord(SessionID, ID, userid, user));
+		if (old != null){
+			driver.compareAndSet(old, null);
+			db.closeSession(old.sessionInt);
+		}
 	}
 	
 	/** 
@@ -59,11 +93,7 @@ public class activeSession {
 	 */
 	
 	public static String[] getAllSessions(){
-		String[] AllSessions = new String[activeSessions.size()];
-		for(int i = 0; i < AllSessions.length; i++){
-			AllSessions[i] = activeSessions.get(i);
-		}
-		return AllSessions;
+		return sessions.keySet().toArray(new String[0]);
 	}
 	
 	/** 
@@ -72,26 +102,13 @@ public class activeSession {
 	 */
 	
 	public static void deleteSession(String SessionID){
-		int index = activeSessions.indexOf(SessionID);
-		if (index == -1){
+		SessionRecord record = sessions.remove(SessionID);
+		if (record == null){
 			System.out.println("Session bereits gel�scht");
 			return;
 		}
-		db.closeSession(getSessionInt(SessionID));
-		activeSessions.remove(index);
-		activeInt.remove(index);
-		activeSocket.remove(index);
-		
-		if (index < Driver){
-			Driver = Driver -1;
-		}
-		if (index == Driver){
-			Driver = -1;
-		}
-	
-		if (activeSessions.size() == 0){
-			deleteAll();
-		}
+		driver.compareAndSet(record, null);
+		db.closeSession(record.sessionInt);
 	}
 	
 	/** 
@@ -99,53 +116,142 @@ public class activeSession {
 	 */
 	
 	public static void deleteAll(){
-		for (int i = 0; i < activeSessions.size(); i++){
-			db.closeSession(getSessionInt(activeSessions.get(i)));
+		for (String SessionID : sessions.keySet()){
+			SessionRecord record = sessions.remove(SessionID);
+			if (record != null)
+				db.closeSession(record.sessionInt);
 		}
-		
-		activeSessions.clear();
-		activeInt.clear();	
-		activeSocket.clear();
-		Driver = -1;
+		driver.set(null);
 	}
 
 	/** 
 	 * \brief returns the SessionID of the DB which belongs to the given Tomcat SessionID
 	 * @param SessionID from Tomcat
-	 * @return Returns SessionID from DB
+	 * @return Returns SessionID from DB or -1 if the session is not active
 	 */
 	
 	public static int getSessionInt(String SessionID){
-		int SessionInt = activeInt.get(activeSessions.indexOf(SessionID));
-		return SessionInt;
+		SessionRecord record = get(SessionID);
+		return record == null ? -1 : record.sessionInt;
+	}
+	
+	/** 
+	 * \brief returns the User of a session
+	 * \details The User is cached in the session, the DB is only asked once per session (or after invalidateUser()).
+	 * @param SessionID from Tomcat
+	 * @return Returns the User or null if the session is not active or has no user
+	 */
+	
+	public static User getUser(String SessionID){
+		SessionRecord record = get(SessionID);
+		if (record == null)
+			return null;
+		User user = record.user;
+		if (user == null){
+			user = db.getUserBySession(record.sessionInt);
+			record.user = user;
+		}
+		return user;
+	}
+	
+	/** 
+	 * \brief returns the Users of several sessions
+	 * \details Users which are not cached yet are loaded with one query and cached.
+	 * @param SessionIDs from Tomcat
+	 * @return Returns the Users in the same order, null for sessions which are not active or have no user
+	 */
+	
+	public static User[] getUsers(String[] SessionIDs){
+		User[] users = new User[SessionIDs.length];
+		SessionRecord[] missing = new SessionRecord[SessionIDs.length];
+		int count = 0;
+		for (int i = 0; i < SessionIDs.length; i++){
+			SessionRecord record = get(SessionIDs[i]);
+			if (record == null)
+				continue;
+			users[i] = record.user;
+			if (users[i] == null)
+				missing[count++] = record;
+		}
+		if (count == 0)
+			return users;
+		
+		int[] ids = new int[count];
+		for (int i = 0; i < count; i++)
+			ids[i] = missing[i].sessionInt;
+		Map<Integer, User> loaded = db.getUsersBySessions(ids);
+		if (loaded == null)
+			return users;
+		for (int i = 0; i < count; i++)
+			missing[i].user = loaded.get(missing[i].sessionInt);
+		for (int i = 0; i < SessionIDs.length; i++){
+			if (users[i] == null){
+				SessionRecord record = get(SessionIDs[i]);
+				users[i] = record == null ? null : record.user;
+			}
+		}
+		return users;
+	}
+	
+	/** 
+	 * \brief drops the cached User of all sessions of a user, e.g. after his nickname changed
+	 * @param userid of the user
+	 */
+	
+	public static void invalidateUser(String userid){
+		for (SessionRecord record : sessions.values()){
+			if (record.userID.equals(userid))
+				record.user = null;
+		}
 	}
 	
 	//debug Funktion
 	public static String getSession(String SessionID){
-		int Session = getSessionInt(SessionID);
-		int index = activeInt.indexOf(Session);
-		String debug = activeSessions.get(index);
-		return debug;
+		SessionRecord record = get(SessionID);
+		return record == null ? null : record.sessionID;
 	}
 
 	public static void insertSocket(String SessionID, WsOutbound sock){
-		int index = activeSessions.indexOf(SessionID);
-		activeSocket.set(index, sock);
+		SessionRecord record = get(SessionID);
+		if (record != null)
+			record.socket = sock;
 	}
 
 	public static void deleteSocket(String SessionID){
-		int index = activeSessions.indexOf(SessionID);
-		activeSocket.set(index, null);
+		SessionRecord record = get(SessionID);
+		if (record != null)
+			record.socket = null;
+	}
+	
+	/** 
+	 * @param SessionID from Tomcat
+	 * @return Returns the controller socket of the session or null
+	 */
+	
+	public static WsOutbound getSocket(String SessionID){
+		SessionRecord record = get(SessionID);
+		return record == null ? null : record.socket;
 	}
 
 	public static boolean isDriver(String SessionID){
-		int index = activeSessions.indexOf(SessionID);
-		boolean isDriver = (index == Driver);
-		return isDriver;
+		SessionRecord current = driver.get();
+		return current != null && current == get(SessionID);
 	}
 
 	public static void setDriver(String SessionID){
-		int index = activeSessions.indexOf(SessionID);
-		Driver = index;
+		driver.set(get(SessionID));
+	}
+	
+	/** 
+	 * @return Returns the Tomcat SessionID of the driver or null if nobody drives
+	 */
+	
+	public static String getDriver(){
+		SessionRecord current = driver.get();
+		return current == null ? null : current.sessionID;
+	}
+	
+	private static SessionRecord get(String SessionID){
+		return SessionID == null ? null : sessions.get(SessionID);
 	}
 }
@@ -1,6 +1,8 @@
 package de.carduinodroid.shared;
 
+import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.NoSuchElementException;
 import de.carduinodroid.utilities.DBConnector;
 
 /**
@@ -11,7 +13,7 @@ import de.carduinodroid.utilities.DBConnector;
 
 public class waitingqueue {
 
-	private static LinkedList<String> Warteschlange = null;
+	private static TicketQueue Warteschlange = null;
 	static DBConnector db;
 	
 	/** 
@@ -21,7 +23,7 @@ public class waitingqueue {
 	
 	public static void initqueue(DBConnector db2){
 		if (Warteschlange == null){
-			Warteschlange = new LinkedList<String>();
+			Warteschlange = new TicketQueue();
 			db = db2;
 		}
 		else{
@@ -31,30 +33,37 @@ public class waitingqueue {
 	
 	/** 
 	 * \brief returns the waiting queue
-	 * @return returns a LinkedList of Strings
+	 * @return returns a copy of the queue as LinkedList of Strings
 	 */
 	
 	public static LinkedList<String> getqueue(){
-		return Warteschlange;
+		return new LinkedList<String>(Arrays.asList(Warteschlange.toArray()));
 	}
 	
 	/** 
 	 * \brief returns the first User from the Queue and removes the User from the Queue
 	 * @return returns the UserID from the first User as String
+	 * @throws NoSuchElementException if the queue is empty
 	 */
 	
 	public static String getNextUser(){
-		return Warteschlange.removeFirst();
+		String SessionID = Warteschlange.poll();
+		if (SessionID == null){
+			throw new NoSuchElementException();
+		}
+		return SessionID;
 	}
 	
 	/** 
 	 * \brief inserts a new User at the end of the waiting queue
+	 * \details A User who is already waiting keeps his position.
 	 * @param SessionID from the User
 	 */
 	
 	public static void insertUser(String SessionID){
-		Warteschlange.add(SessionID);
-		System.out.println("User in Warteschlange eingereiht");
+		if (Warteschlange.add(SessionID)){
+			System.out.println("User in Warteschlange eingereiht");
+		}
 	}
 	
 	/** 
@@ -70,7 +79,7 @@ public class waitingqueue {
 	 */
 	
 	public static boolean isEmpty(){
-		return Warteschlange.isEmpty();
+		return Warteschlange.size() == 0;
 	}
 	
 	/** 
@@ -79,12 +88,10 @@ public class waitingqueue {
 	 */
 	
 	public static void deleteTicket(String SessionID){
-		int index = Warteschlange.indexOf(SessionID);
-		if (index == -1){
+		if (!Warteschlange.remove(SessionID)){
 			System.out.println("Wurde bereits gel�scht");
 			return;
 		}
-		Warteschlange.remove(index);
 	}
 	
 	/** 
@@ -97,14 +104,25 @@ public class waitingqueue {
 	}
 	
 	/** 
+	 * \brief returns the position of a User in the waiting queue
+	 * @param SessionID of the User
+	 * @return Returns the position starting at 0 (next driver) or -1 if the User is not waiting
+	 */
+	
+	public static int getPosition(String SessionID){
+		return Warteschlange.position(SessionID);
+	}
+	
+	/** 
+	 * \details The Users are cached in activeSession, only Users which are not cached yet are loaded (with one query).
 	 * @return Returns the nicknames of all users in the waiting queue in the right order
 	 */
 	
 	public static String[] getNickname(){
-		String[] Nickname = new String[Warteschlange.size()];
+		User[] users = activeSession.getUsers(Warteschlange.toArray());
+		String[] Nickname = new String[users.length];
 		for(int i = 0;i < Nickname.length; i++){
-			User user = db.getUserBySession(activeSession.getSessionInt(Warteschlange.get(i)));
-			Nickname[i] = user.getNickname();
+			Nickname[i] = users[i] == null ? "" : users[i].getNickname();
 		}
 		
 		return Nickname;
@@ -115,10 +133,6 @@ public class waitingqueue {
 	 */
 	
 	public static String[] getAllSessions(){
-		String[] Liste = new  String [Warteschlange.size()];
-		for (int i = 0;i < Warteschlange.size();i++){
-			Liste[i] = Warteschlange.get(i);
-		}
-		return Liste;
+		return Warteschlange.toArray();
 	}
 }
@@ -0,0 +1,274 @@
+package de.carduinodroid.utilities;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * \brief Writes records in batches on a background thread.
+ * \details Producers put records into a bounded ring buffer and return immediately, a flusher thread hands them to write(List) in batches.
+ * A batch is written as soon as batchSize records are waiting or the oldest waiting record is older than flushInterval.
+ * \details If the buffer is full the producer waits up to offerTimeout for free space (backpressure),
+ * after that the oldest record is dropped so a slow database never blocks the producer for long. Dropped and failed records are counted.
+ * @param <T> Type of the records.
+ */
+abstract class AsyncBatchWriter<T> implements Runnable {
+
+	private final String name;
+	private final int batchSize;
+	private final long flushInterval;
+	private final long offerTimeout;
+	protected final LogNG log;
+
+	private final Object[] ring;
+	private final long[] added;	/** time each record in the ring was added */
+	private int head = 0;	/** index of the oldest record */
+	private int count = 0;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+	private final Condition drained = lock.newCondition();
+	private boolean writing = false;	/** a batch is written right now */
+	private boolean flushRequested = false;
+	private final Thread thread;
+	private volatile boolean closed = false;
+
+	private final AtomicLong accepted = new AtomicLong();
+	private final AtomicLong written = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong batches = new AtomicLong();
+
+	/**
+	 * \brief Creates the writer and starts its flusher thread.
+	 * @param name Name of the flusher thread and prefix of log messages.
+	 * @param capacity Maximum number of records waiting in the buffer.
+	 * @param batchSize Maximum number of records per batch.
+	 * @param flushInterval Maximum time a record waits before it is written in milliseconds.
+	 * @param offerTimeout Maximum time a producer waits for free space in milliseconds, 0 drops immediately.
+	 * @param log Log for logging.
+	 */
+	AsyncBatchWriter(String name, int capacity, int batchSize, long flushInterval, long offerTimeout, LogNG log) {
+		this.name = name;
+		this.ring = new Object[Math.max(1, capacity)];
+		this.added = new long[ring.length];
+		this.batchSize = Math.max(1, Math.min(batchSize, ring.length));
+		this.flushInterval = Math.max(1, flushInterval);
+		this.offerTimeout = Math.max(0, offerTimeout);
+		this.log = log;
+
+		thread = new Thread(this, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * \brief Writes one batch.
+	 * \details Called on the flusher thread only, the list is reused after the call returns.
+	 * @param batch Records to write in the order they were added.
+	 * @return Returns "true" if successful or "false" if the records are lost.
+	 */
+	protected abstract boolean write(List<T> batch);
+
+	/**
+	 * \brief Adds a record to the buffer.
+	 * \details Waits up to offerTimeout if the buffer is full and then drops the oldest record.
+	 * @param record Record to add.
+	 * @return Returns "false" if the writer is closed, "true" otherwise.
+	 */
+	boolean offer(T record) {
+		lock.lock();
+		try {
+			if (closed)
+				return false;
+			if (count == ring.length && offerTimeout > 0) {
+				long nanos = TimeUnit.MILLISECONDS.toNanos(offerTimeout);
+				while (count == ring.length && nanos > 0 && !closed)
+					nanos = notFull.awaitNanos(nanos);
+				if (closed)
+					return false;
+			}
+			if (count == ring.length) {
+				ring[head] = null;
+				head = (head + 1) % ring.length;
+				count--;
+				if (dropped.incrementAndGet() % 100 == 1)
+					log.writelogfile(name + ": buffer full, dropping oldest records (" + dropped.get() + " so far)");
+			}
+			final int tail = (head + count) % ring.length;
+			ring[tail] = record;
+			added[tail] = System.currentTimeMillis();
+			count++;
+			accepted.incrementAndGet();
+			if (count >= batchSize)
+				notEmpty.signal();
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * \brief Writes all waiting records now and waits until they are written.
+	 * @param timeout Maximum time to wait in milliseconds.
+	 * @return Returns "true" if all records were written in time.
+	 */
+	boolean flush(long timeout) {
+		lock.lock();
+		try {
+			long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+			flushRequested = true;
+			notEmpty.signal();
+			while ((count > 0 || writing) && nanos > 0)
+				nanos = drained.awaitNanos(nanos);
+			return count == 0 && !writing;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * \brief Writes all waiting records and stops the flusher thread.
+	 * @param timeout Maximum time to wait for the last batches in milliseconds.
+	 */
+	void close(long timeout) {
+		lock.lock();
+		try {
+			closed = true;
+			notEmpty.signal();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		try {
+			thread.join(timeout);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (thread.isAlive())
+			log.writelogfile(name + ": closed with " + getPending() + " records left");
+		else
+			log.writelogfile(toString());
+	}
+
+	/**
+	 * \brief Flusher loop, waits until a batch is due and writes it outside of the lock.
+	 */
+	@Override
+	public void run() {
+		final List<T> batch = new ArrayList<T>(batchSize);
+		while (true) {
+			lock.lock();
+			try {
+				writing = false;
+				if (count == 0) {
+					flushRequested = false;
+					drained.signalAll();
+				}
+				while (!closed && (count == 0 || (count < batchSize && !flushRequested && System.currentTimeMillis() - added[head] < flushInterval))) {
+					if (count == 0)
+						notEmpty.await();
+					else
+						notEmpty.await(flushInterval - (System.currentTimeMillis() - added[head]), TimeUnit.MILLISECONDS);
+				}
+				if (count == 0)
+					return;	// closed and drained
+				take(batch);
+				writing = true;
+			} catch (InterruptedException e) {
+				if (!closed)
+					continue;
+				Thread.currentThread().interrupt();
+				return;
+			} finally {
+				lock.unlock();
+			}
+			flush(batch);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void take(List<T> batch) {
+		final int n = Math.min(count, batchSize);
+		for (int i = 0; i < n; i++) {
+			batch.add((T) ring[head]);
+			ring[head] = null;
+			head = (head + 1) % ring.length;
+		}
+		// records left behind keep their own add time, so they still wait at most flushInterval
+		count -= n;
+		notFull.signalAll();
+	}
+
+	private void flush(List<T> batch) {
+		boolean ok;
+		try {
+			ok = write(batch);
+		} catch (RuntimeException e) {
+			log.writelogfile(name + ": " + e.getMessage());
+			ok = false;
+		}
+		batches.incrementAndGet();
+		if (ok)
+			written.addAndGet(batch.size());
+		else
+			failed.addAndGet(batch.size());
+		batch.clear();
+	}
+
+	/**
+	 * @return Returns the number of records waiting to be written.
+	 */
+	int getPending() {
+		lock.lock();
+		try {
+			return count;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return Returns the number of records accepted by offer().
+	 */
+	long getAccepted() {
+		return accepted.get();
+	}
+
+	/**
+	 * @return Returns the number of records written successfully.
+	 */
+	long getWritten() {
+		return written.get();
+	}
+
+	/**
+	 * @return Returns the number of records dropped because the buffer was full.
+	 */
+	long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * @return Returns the number of records lost because write() failed.
+	 */
+	long getFailed() {
+		return failed.get();
+	}
+
+	@Override
+	public String toString() {
+		return name + ": " + accepted.get() + " accepted, " + written.get() + " written in " + batches.get()
+				+ " batches, " + dropped.get() + " dropped, " + failed.get() + " failed";
+	}
+}
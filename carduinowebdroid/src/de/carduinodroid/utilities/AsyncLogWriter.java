@@ -0,0 +1,195 @@
+package de.carduinodroid.utilities;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * \brief Writer thread of the asynchronous LogNG mode.
+ * \details Logging threads put their lines into a lock-free ring (multiple producers, one consumer): a producer claims a slot with one CAS
+ * on the tail, stores time, text and flags and publishes the slot by its sequence number. No objects are allocated per line.
+ * The claim order is the output order, so lines of one thread stay in order and lines of different threads are ordered by their call.
+ * \details The writer thread drains the ring, lets LogNG format and write the lines and flushes the file every FLUSH_INTERVAL
+ * or after FLUSH_SIZE characters, instead of after every line. If the ring is full, producers wait for the writer (nothing is dropped).
+ */
+class AsyncLogWriter implements Runnable {
+
+	/** Maximum time a written line stays in the file buffer in milliseconds. */
+	static final long FLUSH_INTERVAL = 200;
+	/** Number of characters after which the file is flushed in any case. */
+	static final int FLUSH_SIZE = 64 * 1024;
+
+	/**
+	 * \brief Receives the lines on the writer thread.
+	 */
+	interface Sink {
+		/**
+		 * @param time Time of the logging call in milliseconds.
+		 * @param line Text to log.
+		 * @param flags Combination of SKIP_LIVE_LOG and SKIP_FILE.
+		 * @return Returns the number of characters written to the file.
+		 */
+		int write(long time, String line, int flags);
+
+		/**
+		 * \brief Flushes the file and the console after a batch of lines.
+		 */
+		void flush();
+	}
+
+	static final int SKIP_LIVE_LOG = 1;
+	static final int SKIP_FILE = 2;
+
+	private final int mask;
+	private final AtomicLongArray sequences;
+	private final long[] times;
+	private final String[] lines;
+	private final int[] flags;
+	private final AtomicLong tail = new AtomicLong();
+	private long head = 0;	/** only used by the writer thread */
+	private volatile long written = 0;	/** all lines before this one are flushed */
+
+	private final Sink sink;
+	private final Thread thread;
+	private volatile boolean parked = false;
+	private volatile boolean flushRequested = false;
+	private volatile boolean closed = false;
+
+	/**
+	 * \brief Creates the ring and starts the writer thread.
+	 * @param capacity Number of lines the ring can hold, rounded up to a power of two.
+	 * @param sink Formats and writes the lines.
+	 */
+	AsyncLogWriter(int capacity, Sink sink) {
+		final int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		this.mask = size - 1;
+		this.sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++)
+			sequences.set(i, i);
+		this.times = new long[size];
+		this.lines = new String[size];
+		this.flags = new int[size];
+		this.sink = sink;
+
+		thread = new Thread(this, "LogNG writer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * \brief Puts a line into the ring, called by the logging threads.
+	 * @param time Time of the logging call in milliseconds.
+	 * @param line Text to log.
+	 * @param lineFlags Combination of SKIP_LIVE_LOG and SKIP_FILE.
+	 * @return Returns "false" if the writer is closed.
+	 */
+	boolean offer(long time, String line, int lineFlags) {
+		while (!closed) {
+			final long t = tail.get();
+			final int i = (int) t & mask;
+			final long diff = sequences.get(i) - t;
+			if (diff == 0) {
+				if (tail.compareAndSet(t, t + 1)) {
+					times[i] = time;
+					lines[i] = line;
+					flags[i] = lineFlags;
+					sequences.set(i, t + 1);	// publishes the slot, volatile so the writer's parked flag is read after it
+					if (parked)
+						LockSupport.unpark(thread);
+					return true;
+				}
+			} else if (diff < 0) {
+				// ring full, wait for the writer
+				LockSupport.unpark(thread);
+				LockSupport.parkNanos(100000);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * \brief Waits until all lines logged so far are written and flushed.
+	 * @param timeout Maximum time to wait in milliseconds.
+	 * @return Returns "true" if everything was written in time.
+	 */
+	boolean flush(long timeout) {
+		final long target = tail.get();
+		final long deadline = System.currentTimeMillis() + timeout;
+		flushRequested = true;
+		LockSupport.unpark(thread);
+		while (written < target && thread.isAlive()) {
+			if (System.currentTimeMillis() > deadline)
+				return false;
+			LockSupport.parkNanos(100000);
+		}
+		return written >= target;
+	}
+
+	/**
+	 * \brief Writes the remaining lines and stops the writer thread.
+	 * @param timeout Maximum time to wait in milliseconds.
+	 */
+	void close(long timeout) {
+		closed = true;
+		LockSupport.unpark(thread);
+		try {
+			thread.join(timeout);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void run() {
+		long lastFlush = System.currentTimeMillis();
+		int unflushed = 0;
+		long pending = 0;	/** lines written since the last flush */
+		while (true) {
+			int i = (int) head & mask;
+			if (sequences.get(i) == head + 1) {
+				final String line = lines[i];
+				final long time = times[i];
+				final int lineFlags = flags[i];
+				lines[i] = null;
+				sequences.lazySet(i, head + mask + 1);	// frees the slot
+				head++;
+				pending++;
+				try {
+					unflushed += sink.write(time, line, lineFlags);
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				}
+				if (unflushed < FLUSH_SIZE)
+					continue;
+			}
+
+			// ring empty or enough data for a flush
+			final long now = System.currentTimeMillis();
+			if (pending > 0 && (flushRequested || closed || unflushed >= FLUSH_SIZE || now - lastFlush >= FLUSH_INTERVAL)) {
+				sink.flush();
+				written = head;
+				pending = 0;
+				unflushed = 0;
+				lastFlush = now;
+			}
+			if (flushRequested && pending == 0) {
+				written = head;
+				flushRequested = false;
+			}
+			if (sequences.get((int) head & mask) == head + 1)
+				continue;	// more lines arrived meanwhile
+			if (closed && tail.get() == head)
+				return;
+
+			if (pending > 0) {
+				// the lines are due with the next flush anyway, so producers don't have to wake the writer (only if the ring is full)
+				LockSupport.parkNanos(Math.max(1, FLUSH_INTERVAL - (now - lastFlush)) * 1000000);
+			} else {
+				parked = true;
+				if (sequences.get((int) head & mask) != head + 1 && !flushRequested && !closed)
+					LockSupport.parkNanos(1000000000L);
+				parked = false;
+			}
+		}
+	}
+}
@@ -3,6 +3,9 @@ package de.carduinodroid.utilities;
 import java.awt.image.BufferedImage;
 
 import de.carduinodroid.desktop.Controller.Controller_Computer;
+import de.carduinodroid.shared.ControlFrame;
+import de.carduinodroid.shared.FrameClock;
+import de.carduinodroid.shared.Telemetry;
 
 /**
  * \brief Wrapper to combine the given source code in one class.
@@ -13,10 +16,14 @@ import de.carduinodroid.desktop.Controller.Controller_Computer;
  */
 public class CarControllerWrapper {
 	static CarControllerWrapper ccw = null;
+	static final FrameClock imageClock = new FrameClock();
+	static final Telemetry telemetry = new Telemetry();
 	
 	Controller_Computer cc;
 	int speed, angle;
 	BufferedImage img;
+	byte[] jpeg;
+	static volatile boolean overlayRequired = false;
 	String[] resolutions;
 	String latitude, longitude;
 
@@ -56,7 +63,53 @@ public class CarControllerWrapper {
 	 * @param left
 	 */
 	public static void setDirection(boolean up, boolean down, boolean right, boolean left) {
-		ccw.cc.car_controller.UpdateVariables(up, down, right, left);
+		ccw.cc.car_controller.UpdateVariables(up, down, right, left, System.nanoTime());
+		telemetry.setKeys((up ? ControlFrame.UP : 0) | (down ? ControlFrame.DOWN : 0) | (left ? ControlFrame.LEFT : 0) | (right ? ControlFrame.RIGHT : 0));
+	}
+	
+	/**
+	 * \brief Send control signal to the car.
+	 * \details Sequence number and times of the frame are passed on to the car with binary control packets (see setBinaryControl()).
+	 * \details The command is dropped if it can not be sent within the control deadline after the frame arrived (see setControlDeadline()).
+	 * @param frame Frame received from the driver.
+	 */
+	public static void setDirection(ControlFrame frame) {
+		ccw.cc.car_controller.UpdateVariables(frame.isUp(), frame.isDown(), frame.isRight(), frame.isLeft(),
+				frame.getSequence(), frame.getClientTime(), frame.getReceiveTime(), frame.getIngress());
+		telemetry.setKeys(frame.getKeys());
+	}
+	
+	/**
+	 * \brief Selects the format of the control signals sent to the car.
+	 * @param binary True to send fixed size binary packets, false to send text lines (understood by every version of the app).
+	 */
+	public static void setBinaryControl(boolean binary) {
+		ccw.cc.car_controller.setBinary(binary);
+	}
+	
+	/**
+	 * \brief Sets how often the control signal is repeated while the car is moving.
+	 * \details A changed control signal is sent immediately, the repetition only keeps the car driving.
+	 * @param period Period in milliseconds, fractions allowed.
+	 */
+	public static void setControlKeepalive(double period) {
+		ccw.cc.car_controller.setKeepalive(period);
+	}
+	
+	/**
+	 * \brief Sets the maximum age of a control signal, later signals are dropped instead of being executed late.
+	 * @param budget Budget in milliseconds from the arrival of the command to the socket, fractions allowed.
+	 */
+	public static void setControlDeadline(double budget) {
+		ccw.cc.car_controller.setDeadline(budget);
+	}
+	
+	/**
+	 * \brief Returns the latency of the control signals from their arrival to the socket and the number of late signals dropped.
+	 * @return Returns the statistics as one line.
+	 */
+	public static String getControlStatistics() {
+		return ccw.cc.car_controller.getStatistics();
 	}
 	
 	public static void driveForward() { setDirection(true, false, false, false); }
@@ -98,6 +151,7 @@ public class CarControllerWrapper {
 	 */
 	public void setSpeed(int speed) {
 		ccw.speed = speed;
+		telemetry.setSpeed(speed);
 	}
 
 	/**
@@ -114,6 +168,7 @@ public class CarControllerWrapper {
 	 */
 	public void setAngle(int angle) {
 		ccw.angle = angle;
+		telemetry.setAngle(angle);
 	}
 
 	/**
@@ -130,8 +185,63 @@ public class CarControllerWrapper {
 	 */
 	public void setImg(BufferedImage img) {
 		ccw.img = img;
+		imageClock.tick();
 	}	
 	
+	/**
+	 * \brief Returns the current image as received from the car.
+	 * @return Returns the JPEG data of the current image or null if not available.
+	 */
+	public static byte[] getJpeg() {
+		return ccw.jpeg;
+	}
+	
+	/**
+	 * \brief Sets the current image.
+	 * \details The JPEG data is sent to the viewers as it is, the decoded image is only needed while an overlay is required.
+	 * @param jpeg The JPEG data of the image, must not be modified afterwards.
+	 * @param img The decoded image or null if it was not decoded.
+	 */
+	public void setFrame(byte[] jpeg, BufferedImage img) {
+		ccw.jpeg = jpeg;
+		ccw.img = img;
+		imageClock.tick();
+	}
+	
+	/**
+	 * \brief Returns whether the video frames have to be drawn with an overlay.
+	 * @return Returns true if the images have to be decoded, false if they are passed through unchanged.
+	 */
+	public static boolean isOverlayRequired() {
+		return overlayRequired;
+	}
+	
+	/**
+	 * \brief Sets whether the video frames have to be drawn with an overlay.
+	 * @param required True to decode and redraw every image, false to pass the JPEG data through.
+	 */
+	public static void setOverlayRequired(boolean required) {
+		overlayRequired = required;
+	}
+	
+	/**
+	 * \brief Returns the clock which announces every new image.
+	 * \details Consumers can wait on this clock instead of polling getImg().
+	 * @return Returns the image clock.
+	 */
+	public static FrameClock getImageClock() {
+		return imageClock;
+	}
+	
+	/**
+	 * \brief Returns the state of the car sent to the viewers.
+	 * \details The setters of speed, angle, position and the control signals update it.
+	 * @return Returns the telemetry.
+	 */
+	public static Telemetry getTelemetry() {
+		return telemetry;
+	}
+	
 	/**
 	 * \brief Returns all possible resolutions.
 	 * @return Returns all possible resolutions as a String array.
@@ -162,6 +272,7 @@ public class CarControllerWrapper {
 	 */
 	public void setLatitude(String latitude) {
 		ccw.latitude = latitude;
+		telemetry.setLatitude(latitude);
 	}
 
 	/**
@@ -178,5 +289,6 @@ public class CarControllerWrapper {
 	 */
 	public void setLongitude(String longitude) {
 		ccw.longitude = longitude;
+		telemetry.setLongitude(longitude);
 	}
 }
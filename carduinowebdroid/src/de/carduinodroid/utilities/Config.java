@@ -30,9 +30,27 @@ public class Config {
 		public boolean logChatToFile; /** should the chat be logged to file */
 		public boolean logGPS; /** should gps be logged */
 		public boolean logGPSToFile; /** should gps be logged to file */
-		public int logGPSInterval; /** in seconds */
+		public double logGPSInterval; /** in seconds, fractions allowed */
 		public boolean logQueue; /** should queue events be logged */
 		public boolean logQueueToFile; /** should queue events be logged to file */
+		public int dbPoolSize = 8; /** maximum number of open database connections */
+		public int dbMaxLifetime = 1800; /** in seconds, database connections are replaced after this time */
+		public int dbIdleTimeout = 300; /** in seconds, unused database connections are closed after this time */
+		public int dbStatementCache = 32; /** number of prepared statements cached per database connection */
+		public int userCacheSize = 1024; /** maximum number of sessions and of users kept in the user cache */
+		public int gpsBufferSize = 1000; /** maximum number of gps records waiting to be written to the database */
+		public int gpsBatchSize = 50; /** maximum number of gps records written with one batch */
+		public int gpsFlushInterval = 1000; /** in milliseconds, maximum time a gps record waits before it is written */
+		public int chatBufferSize = 1000; /** maximum number of chat messages waiting to be written to the database */
+		public int chatBatchSize = 32; /** maximum number of chat messages written with one statement */
+		public int chatFlushInterval = 500; /** in milliseconds, maximum time a chat message waits before it is written */
+		public int logSegmentSize = 16; /** in megabytes, size of one segment file if gps, chat or queue events are logged to file */
+		public int logSegmentRetention = 64; /** maximum number of segment files kept per event type */
+		public boolean binaryControl = false; /** send control signals to the car as binary packets instead of text lines */
+		public boolean videoOverlay = false; /** decode the camera images and draw the overlay of the video server onto them instead of passing the JPEG data through */
+		public double controlKeepalive = 100; /** in milliseconds, fractions allowed, control signal repeated while the car is moving */
+		public double controlDeadline = 50; /** in milliseconds, fractions allowed, control signals older than this are dropped */
+		public int telemetryInterval = 100; /** in milliseconds, time between two telemetry updates sent to the viewers */
 	}
 	
 	private LogNG log;
@@ -93,9 +111,27 @@ public class Config {
 			options.logChatToFile = Boolean.valueOf(p.getProperty("logChatToFile"));
 			options.logGPS = Boolean.valueOf(p.getProperty("logGPS"));
 			options.logGPSToFile = Boolean.valueOf(p.getProperty("logGPSToFile"));
-			options.logGPSInterval = Integer.parseInt(p.getProperty("logGPSInterval"));
+			options.logGPSInterval = Double.parseDouble(p.getProperty("logGPSInterval"));
 			options.logQueue = Boolean.valueOf(p.getProperty("logQueue"));
 			options.logQueueToFile = Boolean.valueOf(p.getProperty("logQueueToFile"));
+			options.dbPoolSize = Integer.parseInt(p.getProperty("dbPoolSize", "8"));
+			options.dbMaxLifetime = Integer.parseInt(p.getProperty("dbMaxLifetime", "1800"));
+			options.dbIdleTimeout = Integer.parseInt(p.getProperty("dbIdleTimeout", "300"));
+			options.dbStatementCache = Integer.parseInt(p.getProperty("dbStatementCache", "32"));
+			options.userCacheSize = Integer.parseInt(p.getProperty("userCacheSize", "1024"));
+			options.gpsBufferSize = Integer.parseInt(p.getProperty("gpsBufferSize", "1000"));
+			options.gpsBatchSize = Integer.parseInt(p.getProperty("gpsBatchSize", "50"));
+			options.gpsFlushInterval = Integer.parseInt(p.getProperty("gpsFlushInterval", "1000"));
+			options.chatBufferSize = Integer.parseInt(p.getProperty("chatBufferSize", "1000"));
+			options.chatBatchSize = Integer.parseInt(p.getProperty("chatBatchSize", "32"));
+			options.chatFlushInterval = Integer.parseInt(p.getProperty("chatFlushInterval", "500"));
+			options.logSegmentSize = Integer.parseInt(p.getProperty("logSegmentSize", "16"));
+			options.logSegmentRetention = Integer.parseInt(p.getProperty("logSegmentRetention", "64"));
+			options.binaryControl = Boolean.valueOf(p.getProperty("binaryControl", "false"));
+			options.videoOverlay = Boolean.valueOf(p.getProperty("videoOverlay", "false"));
+			options.controlKeepalive = Double.parseDouble(p.getProperty("controlKeepalive", "100"));
+			options.controlDeadline = Double.parseDouble(p.getProperty("controlDeadline", "50"));
+			options.telemetryInterval = Integer.parseInt(p.getProperty("telemetryInterval", "100"));
 		}
 		catch (Exception e) {
 			  System.out.println(e);
@@ -121,6 +157,24 @@ public class Config {
 			p.setProperty("logGPSInterval", String.valueOf(options.logGPSInterval));
 			p.setProperty("logQueue", String.valueOf(options.logQueue));
 			p.setProperty("logQueueToFile", String.valueOf(options.logQueueToFile));
+			p.setProperty("dbPoolSize", String.valueOf(options.dbPoolSize));
+			p.setProperty("dbMaxLifetime", String.valueOf(options.dbMaxLifetime));
+			p.setProperty("dbIdleTimeout", String.valueOf(options.dbIdleTimeout));
+			p.setProperty("dbStatementCache", String.valueOf(options.dbStatementCache));
+			p.setProperty("userCacheSize", String.valueOf(options.userCacheSize));
+			p.setProperty("gpsBufferSize", String.valueOf(options.gpsBufferSize));
+			p.setProperty("gpsBatchSize", String.valueOf(options.gpsBatchSize));
+			p.setProperty("gpsFlushInterval", String.valueOf(options.gpsFlushInterval));
+			p.setProperty("chatBufferSize", String.valueOf(options.chatBufferSize));
+			p.setProperty("chatBatchSize", String.valueOf(options.chatBatchSize));
+			p.setProperty("chatFlushInterval", String.valueOf(options.chatFlushInterval));
+			p.setProperty("logSegmentSize", String.valueOf(options.logSegmentSize));
+			p.setProperty("logSegmentRetention", String.valueOf(options.logSegmentRetention));
+			p.setProperty("binaryControl", String.valueOf(options.binaryControl));
+			p.setProperty("videoOverlay", String.valueOf(options.videoOverlay));
+			p.setProperty("controlKeepalive", String.valueOf(options.controlKeepalive));
+			p.setProperty("controlDeadline", String.valueOf(options.controlDeadline));
+			p.setProperty("telemetryInterval", String.valueOf(options.telemetryInterval));
 			p.store(new FileOutputStream(optionsPath), null);
 		}
 		catch (Exception e) {
@@ -0,0 +1,189 @@
+package de.carduinodroid.utilities;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * \brief Bounded pool of database connections.
+ * \details At most maxSize connections are handed out at the same time, further callers wait up to BORROW_TIMEOUT for a free one.
+ * Idle connections are kept in LIFO order so the most recently used (and most likely still alive) connection is reused first.
+ * \details Connections are checked with Connection.isValid() if they were idle for longer than VALIDATE_AFTER,
+ * they are replaced after maxLifetime and closed by a background timer after being idle for idleTimeout.
+ * A connection whose statement failed with a connection error (see PooledConnection.isBroken()) is closed when it is released,
+ * so a dead connection only fails the call using it, the next call gets a fresh one.
+ */
+class ConnectionPool {
+
+	/** Maximum time to wait for a free connection in milliseconds. */
+	static final long BORROW_TIMEOUT = 10000;
+	/** Idle connections older than this are validated before they are handed out, in milliseconds. */
+	static final long VALIDATE_AFTER = 5000;
+	/** Timeout of the validation query in seconds. */
+	static final int VALIDATE_TIMEOUT = 2;
+
+	private final String url;
+	private final String user;
+	private final String password;
+	private final LogNG log;
+	private final int maxSize;
+	private final long maxLifetime;
+	private final long idleTimeout;
+	private final int statementCacheSize;
+
+	private final Semaphore permits;
+	private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<PooledConnection>();
+	private final AtomicInteger open = new AtomicInteger();
+	private final Timer evictor = new Timer("db pool evictor", true);
+	private volatile boolean closed = false;
+
+	/**
+	 * \brief Creates an empty pool, connections are opened on demand.
+	 * @param url JDBC URL of the database.
+	 * @param user Database username.
+	 * @param password Database password.
+	 * @param maxSize Maximum number of open connections.
+	 * @param maxLifetime Maximum age of a connection in milliseconds.
+	 * @param idleTimeout Idle connections are closed after this time in milliseconds.
+	 * @param statementCacheSize Number of prepared statements cached per connection.
+	 * @param log Log for logging.
+	 */
+	ConnectionPool(String url, String user, String password, int maxSize, long maxLifetime, long idleTimeout, int statementCacheSize, LogNG log) {
+		this.url = url;
+		this.user = user;
+		this.password = password;
+		this.maxSize = Math.max(1, maxSize);
+		this.maxLifetime = maxLifetime;
+		this.idleTimeout = idleTimeout;
+		this.statementCacheSize = statementCacheSize;
+		this.log = log;
+		this.permits = new Semaphore(this.maxSize, true);
+
+		final long period = Math.max(1000, Math.min(idleTimeout, 30000));
+		evictor.schedule(new TimerTask() {
+			public void run() {
+				evict();
+			}
+		}, period, period);
+	}
+
+	/**
+	 * \brief Takes a connection from the pool or opens a new one.
+	 * \details Every borrowed connection has to be given back with release(), preferably in a finally block.
+	 * @return Returns a connection for exclusive use by the caller.
+	 * @throws SQLException if no connection became free in time or a new connection can not be opened.
+	 */
+	PooledConnection borrow() throws SQLException {
+		if (closed)
+			throw new SQLException("connection pool is closed");
+		try {
+			if (!permits.tryAcquire(BORROW_TIMEOUT, TimeUnit.MILLISECONDS))
+				throw new SQLException("timeout while waiting for a database connection");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("interrupted while waiting for a database connection");
+		}
+
+		try {
+			PooledConnection con;
+			while ((con = idle.pollFirst()) != null) {
+				final long now = System.currentTimeMillis();
+				if (now - con.created > maxLifetime) {
+					destroy(con);
+				} else if (now - con.lastUsed > VALIDATE_AFTER && !con.isValid()) {
+					log.writelogfile("DB connection lost, opening a new one.");
+					destroy(con);
+				} else {
+					return con;
+				}
+			}
+			return create();
+		} catch (SQLException e) {
+			permits.release();
+			throw e;
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * \brief Gives a borrowed connection back to the pool.
+	 * @param con Connection to give back, null is ignored.
+	 */
+	void release(PooledConnection con) {
+		if (con == null)
+			return;
+		try {
+			con.lastUsed = System.currentTimeMillis();
+			if (con.isBroken())
+				log.writelogfile("DB connection broken, opening a new one next time.");
+			if (closed || con.isBroken() || con.isClosed() || con.lastUsed - con.created > maxLifetime)
+				destroy(con);
+			else
+				idle.offerFirst(con);
+		} finally {
+			permits.release();
+		}
+	}
+
+	/**
+	 * \brief Closes all idle connections and refuses further borrowing.
+	 * \details Connections which are still in use are closed when they are released.
+	 */
+	void close() {
+		closed = true;
+		evictor.cancel();
+		PooledConnection con;
+		while ((con = idle.pollFirst()) != null)
+			destroy(con);
+	}
+
+	/**
+	 * @return Returns the number of currently open connections.
+	 */
+	int getOpenCount() {
+		return open.get();
+	}
+
+	/**
+	 * @return Returns the number of open connections which are not in use.
+	 */
+	int getIdleCount() {
+		return idle.size();
+	}
+
+	private PooledConnection create() throws SQLException {
+		final PooledConnection con = new PooledConnection(DriverManager.getConnection(url, user, password), statementCacheSize, log);
+		open.incrementAndGet();
+		return con;
+	}
+
+	private void destroy(PooledConnection con) {
+		open.decrementAndGet();
+		con.close();
+	}
+
+	/**
+	 * \brief Closes connections which were idle too long or reached their maximum lifetime.
+	 * \details Idle connections are ordered by last use, so the search starts at the oldest one.
+	 */
+	private void evict() {
+		final long now = System.currentTimeMillis();
+		final Iterator<PooledConnection> it = idle.descendingIterator();
+		while (it.hasNext()) {
+			final PooledConnection con = it.next();
+			if (now - con.lastUsed > idleTimeout || now - con.created > maxLifetime) {
+				// only close it if no borrower took it meanwhile
+				if (idle.removeLastOccurrence(con))
+					destroy(con);
+			}
+		}
+	}
+}
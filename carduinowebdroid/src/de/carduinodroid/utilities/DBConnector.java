@@ -5,15 +5,18 @@ import java.net.Inet4Address;
 import java.net.UnknownHostException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import de.carduinodroid.shared.*;
 import de.carduinodroid.shared.User.Right;
@@ -27,10 +30,22 @@ import de.carduinodroid.utilities.Config.Options;
  */
 public class DBConnector {
 
-	static Connection dbConnection = null;
+	static ConnectionPool pool = null;
+	static AsyncBatchWriter<GPS> gpsWriter = null;
+	static AsyncBatchWriter<ChatMessage> chatWriter = null;
+	static UserCache userCache = null;
 	static LogNG log;
 	static Options options;
 	
+	/** Maximum time a GPS sample waits for free space in the buffer in milliseconds. */
+	static final long GPS_OFFER_TIMEOUT = 50;
+	/** Maximum time to wait for the remaining GPS records on shutdown in milliseconds. */
+	static final long GPS_CLOSE_TIMEOUT = 5000;
+	/** Maximum time a chat message waits for free space in the buffer in milliseconds. */
+	static final long CHAT_OFFER_TIMEOUT = 200;
+	/** Maximum time to wait for the remaining chat messages on shutdown in milliseconds. */
+	static final long CHAT_CLOSE_TIMEOUT = 5000;
+	
 	/**
 	 * \brief Initializes database connection and sets static variables.
 	 * \details This constructor sets or updates the static log and options. It also calls connect() is necessary.
@@ -41,7 +56,7 @@ public class DBConnector {
 		log = logIN;
 		options = opt;
 		
-		if(dbConnection == null)
+		if(pool == null)
 			connect();
 		
 	}
@@ -57,50 +72,111 @@ public class DBConnector {
 	}
 
 	/**
-	 * \brief Commits all pending queries/updates and closes database connecting
+	 * \brief Closes all database connections
+	 * \details Every statement runs in auto commit mode, so there is nothing left to commit.
 	 */
 	public void shutDown() {
-		if(dbConnection == null)
+		if(pool == null)
 			return;
 		
-		log.writelogfile("closing db connection!");
+		log.writelogfile("closing db connections!");
 		
-		try {
-			dbConnection.commit();
-			dbConnection.close();
-		} catch (SQLException e) {
-			log.writelogfile(e.getMessage());
+		if(gpsWriter != null) {
+			gpsWriter.close(GPS_CLOSE_TIMEOUT);
+			gpsWriter = null;
 		}
+		if(chatWriter != null) {
+			chatWriter.close(CHAT_CLOSE_TIMEOUT);
+			chatWriter = null;
+		}
+		if(userCache != null) {
+			log.writelogfile(userCache.toString());
+			userCache.clear();
+		}
+		pool.close();
+		pool = null;
 	}
 	
 	/**
-	 * \brief Establishes the connection to the database.
-	 * \details Establish the connection to the database based on given options. It can be called even if the connections is already established.
+	 * \brief Creates the connection pool.
+	 * \details Creates the pool based on given options and opens a first connection to check them. It can be called even if the pool already exists.
+	 * Even if the first connection fails the pool stays usable, every call tries to open a new connection.
 	 * @return Returns "true" if successful or "false" if an error occurs.
 	 */
 	private boolean connect() {
+		if(pool != null) {
+			log.writelogfile("DB Connection already established.");
+			return true;
+		}
 		try {
-			if(dbConnection == null || dbConnection.isClosed()) {			
-				Class.forName("org.mariadb.jdbc.Driver");
-				dbConnection = DriverManager.getConnection("jdbc:mysql://" + options.dbAddress, options.dbUser, options.dbPW);
-				log.writelogfile("DB Connection established.");
-			} 
-			else
-				log.writelogfile("DB Connection already established.");
+			Class.forName("org.mariadb.jdbc.Driver");
+		} catch (ClassNotFoundException e) {
+			log.writelogfile("DB Connection failed.");
+			log.writelogfile(e.getMessage());
+			return false;
 		}
-		catch (Exception e) {
+		pool = new ConnectionPool("jdbc:mysql://" + options.dbAddress, options.dbUser, options.dbPW,
+				options.dbPoolSize, options.dbMaxLifetime * 1000L, options.dbIdleTimeout * 1000L, options.dbStatementCache, log);
+		userCache = new UserCache(options.userCacheSize);
+		gpsWriter = new AsyncBatchWriter<GPS>("gps writer", options.gpsBufferSize, options.gpsBatchSize, options.gpsFlushInterval, GPS_OFFER_TIMEOUT, log) {
+			@Override
+			protected boolean write(List<GPS> batch) {
+				return writeGPS(batch);
+			}
+		};
+		chatWriter = new AsyncBatchWriter<ChatMessage>("chat writer", options.chatBufferSize, options.chatBatchSize, options.chatFlushInterval, CHAT_OFFER_TIMEOUT, log) {
+			@Override
+			protected boolean write(List<ChatMessage> batch) {
+				return writeChat(batch);
+			}
+		};
+		
+		PooledConnection con = null;
+		try {
+			con = pool.borrow();
+			log.writelogfile("DB Connection established.");
+		} catch (SQLException e) {
 			log.writelogfile("DB Connection failed.");
 			log.writelogfile(e.getMessage());
 			return false;
+		} finally {
+			pool.release(con);
 		}
 		return true;
 	}	
 		
 	// --------------------- Hilfsfunktionen ---------------------
+	/**
+	 * \brief Takes a connection from the pool.
+	 * \details Every borrowed connection has to be given back with release(PooledConnection con) in a finally block.
+	 * @return Returns a connection for exclusive use by the calling thread.
+	 * @throws SQLException if the pool is not initialized or no connection is available.
+	 */
+	private PooledConnection borrow() throws SQLException {
+		ConnectionPool p = pool;
+		if(p == null)
+			throw new SQLException("no database connection");
+		return p.borrow();
+	}
+	
+	/**
+	 * \brief Gives a connection back to the pool.
+	 * @param con Connection to give back, can be null.
+	 */
+	private void release(PooledConnection con) {
+		ConnectionPool p = pool;
+		if(con == null)
+			return;
+		if(p != null)
+			p.release(con);
+		else
+			con.close();
+	}
+	
 	/**
 	 * \brief Executes a given PreparedStatement.
 	 * \details Use this function for statements without a return value like INSERT, UPDATE or DELETE.
-	 * The PreparedStatement will be closed by this function.
+	 * The PreparedStatement is cached by its connection, so it is not closed but its parameters are cleared for the next use.
 	 * @param stmt PreparedStatement to execute.
 	 * @return Returns "true" if successful or "false" if an error occurs.
 	 */
@@ -109,18 +185,10 @@ public class DBConnector {
 			stmt.executeUpdate();
 		} catch (SQLException e) {
 			log.writelogfile(e.getMessage());
-			
-			try {
-				if (stmt != null) { stmt.close(); }
-			}
-			catch (Exception e2) {
-				log.writelogfile(e2.getMessage());
-			}
-			
 			return false;
 		} finally {
 			try {
-				stmt.close();
+				stmt.clearParameters();
 			} catch (SQLException e) {
 				log.writelogfile(e.getMessage());
 			}
@@ -129,7 +197,7 @@ public class DBConnector {
 	}
 	/**
 	 * \brief Executes a given PreparedStatement. 
-	 * \details Use this function for statements with a return value like SELECT. Don't forget to close the PreparedStatement later!
+	 * \details Use this function for statements with a return value like SELECT. Don't forget to call closeStatement(PreparedStatement stmt) later!
 	 * @param stmt PreparedStatement to execute
 	 * @return Returns the resulting ResultSet.
 	 */
@@ -139,27 +207,52 @@ public class DBConnector {
 			rset = stmt.executeQuery();
 		} catch (SQLException e) {
 			log.writelogfile(e.getMessage());
-			
+			return null;
+		}
+		return rset; /**  don't release the statement yet, you need it for the result set! */
+	}
+	/**
+	 * \brief Executes a given INSERT statement and returns the ID the database assigned to the new row.
+	 * \details The statement has to be prepared with Statement.RETURN_GENERATED_KEYS. Like executeUpdate(PreparedStatement stmt) it clears the parameters afterwards.
+	 * @param stmt PreparedStatement to execute.
+	 * @return Returns the generated ID or -1 if an error occurs.
+	 */
+	private int executeInsert(PreparedStatement stmt) {
+		ResultSet keys = null;
+		try {
+			stmt.executeUpdate();
+			keys = stmt.getGeneratedKeys();
+			if(!keys.next())
+				return -1;
+			return keys.getInt(1);
+		} catch (SQLException e) {
+			log.writelogfile(e.getMessage());
+			return -1;
+		} finally {
 			try {
-				if (stmt != null) { stmt.close(); }
-			}
-			catch (Exception e2) {
-				log.writelogfile(e2.getMessage());				
+				if(keys != null)
+					keys.close();
+				stmt.clearParameters();
+			} catch (SQLException e) {
+				log.writelogfile(e.getMessage());
 			}
-			return null;
 		}
-		return rset; /**  don't close the statement yet, you need it for the result set! */
 	}
 	
 	/**
-	 * \brief Closes a given PreparedStatement
-	 * \details Use this function to close a PreparedStatement. 
+	 * \brief Releases a given PreparedStatement for its next use.
+	 * \details The statements are cached by their connection, so this function closes the current ResultSet and clears the parameters instead of closing the statement.
 	 * You will mostly need this function together with executeQuery(PreparedStatement stmt).
-	 * @param stmt
+	 * @param stmt Statement to release, can be null.
 	 */
 	private void closeStatement(PreparedStatement stmt) {
+		if(stmt == null)
+			return;
 		try {
-			stmt.close();
+			ResultSet rset = stmt.getResultSet();
+			if(rset != null)
+				rset.close();
+			stmt.clearParameters();
 		} catch (SQLException e) {
 			log.writelogfile(e.getMessage());
 		}		
@@ -191,38 +284,124 @@ public class DBConnector {
 	// --- Chat ---
 	/**
 	 * \brief Saves a chat text to database.
-	 * \details The current timestamp is added by this function.
+	 * \details The current timestamp is added by this function. The message is only queued here,
+	 * the chat writer thread stores it together with other messages within chatFlushInterval (see writeChat(List<ChatMessage> batch)).
 	 * @param userID The UserID of the user who sad that.
 	 * @param sessionID	The associated SessionID.
 	 * @param text The actual chat text (max length is 256!).
-	 * @return Returns "true" if successful or "false" if an error occurs.
+	 * @return Returns "true" if the message was queued or "false" if the database is closed.
 	 */
 	protected boolean logChat(String userID, int sessionID, String text) {
-		PreparedStatement stmt = null;
+		AsyncBatchWriter<ChatMessage> writer = chatWriter;
 	
 		if(text.length() > 256) {	// TODO: den Wert vllt zentral speichern? 
 			log.writelogfile("logChat: text too long!");
 			text = text.substring(0, 255);
 		}
 		
-		Timestamp datetime = new Timestamp(System.currentTimeMillis());
+		if(writer == null) {
+			log.writelogfile("logChat: no database connection");
+			return false;
+		}
+		return writer.offer(new ChatMessage(userID, sessionID, text, new Timestamp(System.currentTimeMillis())));
+	}
+	
+	/**
+	 * \brief Writes queued chat messages with multi-row INSERTs.
+	 * \details Called by the chat writer thread and the segment importer (TelemetryFileLog). To keep the number of different statements small,
+	 * the batch is split into chunks with a power of two rows (e.g. 13 messages are written as 8 + 4 + 1 rows).
+	 * All chunks are written in one transaction, so a failed batch leaves no rows behind and can be written again without duplicates.
+	 * @param batch Chat messages to write.
+	 * @return Returns "true" if successful or "false" if an error occurs.
+	 */
+	boolean writeChat(List<ChatMessage> batch) {
+		PreparedStatement stmt = null;
+		PooledConnection con = null;
+		
+		boolean transaction = false;
 		
 		try {
-			stmt = dbConnection.prepareStatement("INSERT INTO chat (`time`, `userID`, `sessionID`, `text`) VALUES (?, ?, ?, ?)");
-			stmt.setTimestamp(1, datetime);
-			stmt.setString(2, userID);
-			stmt.setInt(3, sessionID); 
-			stmt.setString(4, text);
-			
-			executeUpdate(stmt);
+			con = borrow();
+			con.begin();
+			transaction = true;
+			int offset = 0;
+			while(offset < batch.size()) {
+				int rows = Integer.highestOneBit(batch.size() - offset);
+				stmt = con.prepare(chatInsert(rows));
+				for(int i = 0; i < rows; i++) {
+					ChatMessage msg = batch.get(offset + i);
+					stmt.setTimestamp(4 * i + 1, msg.getTime());
+					stmt.setString(4 * i + 2, msg.getUserID());
+					stmt.setInt(4 * i + 3, msg.getSessionID());
+					stmt.setString(4 * i + 4, msg.getText());
+				}
+				stmt.executeUpdate();
+				stmt.clearParameters();
+				offset += rows;
+			}
+			con.commit();
 		} catch (SQLException e) {
 			log.writelogfile(e.getMessage());
+			if(transaction)
+				con.rollback();
 			return false;
+		} finally {
+			closeStatement(stmt);
+			if(transaction)
+				con.end();
+			release(con);
 		}
 
 		return true;
 	}
 	
+	/**
+	 * \brief Builds the INSERT statement for the given number of chat messages.
+	 * @param rows Number of messages.
+	 * @return SQL with one group of placeholders per message.
+	 */
+	private static String chatInsert(int rows) {
+		StringBuilder sql = new StringBuilder("INSERT INTO chat (`time`, `userID`, `sessionID`, `text`) VALUES (?, ?, ?, ?)");
+		for(int i = 1; i < rows; i++)
+			sql.append(", (?, ?, ?, ?)");
+		return sql.toString();
+	}
+	
+	/**
+	 * \brief Gets the newest chat messages, e.g. to fill the chat history after a restart.
+	 * \details Messages which are still waiting in the chat writer are not included. The nickname of the sender is read with the same query.
+	 * @param limit Maximum number of messages.
+	 * @return Returns the messages from old to new or null if an error occurs.
+	 */
+	public List<ChatMessage> getRecentChat(int limit) {
+		PreparedStatement stmt = null;
+		PooledConnection con = null;
+		ResultSet rset = null;
+		List<ChatMessage> list = new ArrayList<ChatMessage>();
+		
+		try {
+			con = borrow();
+			// chatID breaks ties between messages with the same time
+			stmt = con.prepare("SELECT c.`time`, c.`userID`, u.`nickname`, c.`sessionID`, c.`text` FROM chat c LEFT JOIN user u ON u.userID = c.userID ORDER BY c.`time` DESC, c.`chatID` DESC LIMIT ?");
+			stmt.setInt(1, limit);
+			
+			rset = executeQuery(stmt);
+			if(rset == null)
+				return null;
+			while(rset.next())
+				list.add(new ChatMessage(rset.getString("userID"), rset.getString("nickname"), rset.getInt("sessionID"), rset.getString("text"), rset.getTimestamp("time")));
+		} catch (SQLException e) {
+			log.writelogfile(e.getMessage());
+			return null;
+		} finally {
+			closeStatement(stmt);
+			release(con);
+		}
+		
+		Collections.reverse(list);
+		return list;
+	}
+	
 	// --- Drive ---	
 	/**
 	 * \brief Creates a new drive.
@@ -232,7 +411,7 @@ public class DBConnector {
 	 */
 	public int startDrive(String userID) {
 		PreparedStatement stmt = null;
-		ResultSet rset = null;
+		PooledConnection con = null;
 		int driveID = -1;
 		
 		if(!isValidUserID(userID)) {
@@ -242,38 +421,21 @@ public class DBConnector {
 
 		Timestamp datetime = new Timestamp(System.currentTimeMillis());
 		
-		// insert new session
 		try {
-			stmt = dbConnection.prepareStatement("INSERT INTO driver (`userID`, `startTime`) VALUES (?, ?);");
+			con = borrow();
+			stmt = con.prepare("INSERT INTO driver (`userID`, `startTime`) VALUES (?, ?);", Statement.RETURN_GENERATED_KEYS);
 			stmt.setString(1, userID);
 			stmt.setTimestamp(2, datetime);
 			
-			executeUpdate(stmt);
-		} catch (SQLException e) {
-			log.writelogfile(e.getMessage());
-		}
-		
-		// lookup sessionID
-		try {
-			stmt = dbConnection.prepareStatement("SELECT driveID FROM driver WHERE `userID`=? AND `startTime`=?");
-			stmt.setString(1, userID);
-			stmt.setTimestamp(2, datetime);
-			
-			rset = executeQuery(stmt);
-			
-			if(!rset.isBeforeFirst()) {
+			driveID = executeInsert(stmt);
+			if(driveID == -1)
 				log.writelogfile("unable to create new session");
-				return driveID; 	// -> return -1;
-			} else {
-				rset.next();
-				driveID = rset.getInt("driveID");
-			}			
 		} catch (SQLException e) {
 			log.writelogfile(e.getMessage());
+		} finally {
+			release(con);
 		}
 		
-		closeStatement(stmt);
-		
 		return driveID;
 	}
 
@@ -286,6 +448,7 @@ public class DBConnector {
 	 */
 	public boolean stopDrive(int driveID) {
 		PreparedStatement stmt = null;
+		PooledConnection con = null;
 		
 		if(!isValidDriveID(driveID)) {
 			log.writelogfile("createSession: invalid userID " + driveID);
@@ -295,7 +458,8 @@ public class DBConnector {
 		Timestamp datetime = new Timestamp(System.currentTimeMillis());
 		
 		try {
-			stmt = dbConnection.prepareStatement("UPDATE driver SET `stopTime`=? WHERE `driveID`=?");
+			con = borrow();
+			stmt = con.prepare("UPDATE driver SET `stopTime`=? WHERE `driveID`=?");
 			stmt.setTimestamp(1, datetime);
 			stmt.setInt(2, driveID);
 			
@@ -303,6 +467,9 @@ public class DBConnector {
 		} catch (SQLException e) {
 			log.writelogfile(e.getMessage());
 			return false;
+		} finally {
+			closeStatement(stmt);
+			release(con);
 		}
 		return true;
 	}
@@ -314,10 +481,12 @@ public class DBConnector {
 	 */
 	private boolean isValidDriveID(int driveID) {
 		PreparedStatement stmt = null;
+		PooledConnection con = null;
 		ResultSet rset = null;
 		boolean found = false;
 		try {
-			stmt = dbConnection.prepareStatement("SELECT driveID FROM driver WHERE driveID = ?");
+			con = borrow();
+			stmt = con.prepare("SELECT driveID FROM driver WHERE driveID = ?");
 			stmt.setInt(1, driveID);
 			
 			rset = executeQuery(stmt);
@@ -329,38 +498,77 @@ public class DBConnector {
 			}			
 		} catch (SQLException e) {
 			log.writelogfile(e.getMessage());
+		} finally {
+			closeStatement(stmt);
+			release(con);
 		}
 
-		closeStatement(stmt);
-		
 		return found;
 	}
 	
 	// --- GPS ---
 	/**
 	 * \brief Logs GPS coordinates.
-	 * \details Save lat, long and the current timestamp in the database.
+	 * \details Saves lat, long and the current timestamp in the database. The record is only queued here,
+	 * it is written together with other records by the GPS writer thread (see writeGPS(List<GPS> batch)).
 	 * @param driveID DriveID to search GPS coordinates to.
 	 * @param longitude Longitude
 	 * @param latitude Latitude
-	 * @return Returns "true" if successful or "false" if an error occurs.
+	 * @return Returns "true" if the record was queued or "false" if the database is closed.
 	 */
 	protected boolean logGPS(int driveID, String latitude, String longitude) {
+		AsyncBatchWriter<GPS> writer = gpsWriter;
+		if(writer == null) {
+			log.writelogfile("logGPS: no database connection");
+			return false;
+		}
+		return writer.offer(new GPS(driveID, longitude, latitude, new Timestamp(System.currentTimeMillis())));
+	}
+	
+	/**
+	 * \brief Writes queued GPS records with one batch.
+	 * \details Called by the GPS writer thread and the segment importer (TelemetryFileLog).
+	 * The batch is written in one transaction, so a failed batch leaves no rows behind and can be written again without duplicates.
+	 * @param batch GPS records to write.
+	 * @return Returns "true" if successful or "false" if an error occurs.
+	 */
+	boolean writeGPS(List<GPS> batch) {
 		PreparedStatement stmt = null;
+		PooledConnection con = null;
 		
-		Timestamp datetime = new Timestamp(System.currentTimeMillis());
+		boolean transaction = false;
 		
 		try {
-			stmt = dbConnection.prepareStatement("INSERT INTO gps (`time`, `driveID`, `latitude`, `longitude`) VALUES (?, ?, ?, ?)");
-			stmt.setTimestamp(1, datetime);
-			stmt.setInt(2, driveID); 
-			stmt.setString(3, latitude);
-			stmt.setString(4, longitude);
-			
-			executeUpdate(stmt);
+			con = borrow();
+			con.begin();
+			transaction = true;
+			stmt = con.prepare("INSERT INTO gps (`time`, `driveID`, `latitude`, `longitude`) VALUES (?, ?, ?, ?)");
+			for(GPS gps : batch) {
+				stmt.setTimestamp(1, gps.getDateTime());
+				stmt.setInt(2, gps.getDriveID());
+				stmt.setString(3, gps.getLatitude());
+				stmt.setString(4, gps.getLongitude());
+				stmt.addBatch();
+			}
+			stmt.executeBatch();
+			con.commit();
 		} catch (SQLException e) {
 			log.writelogfile(e.getMessage());
+			if(transaction)
+				con.rollback();
 			return false;
+		} finally {
+			if(stmt != null) {
+				try {
+					stmt.clearBatch();
+				} catch (SQLException e) {
+					log.writelogfile(e.getMessage());
+				}
+			}
+			closeStatement(stmt);
+			if(transaction)
+				con.end();
+			release(con);
 		}
 
 		return true;
@@ -373,6 +581,7 @@ public class DBConnector {
 	 */
 	public List<GPS> getGPSByDriveID(int driveID) {
 		PreparedStatement stmt = null;
+		PooledConnection con = null;
 		ResultSet rset = null;
 		GPS gps= null;
 		List<GPS> list = new ArrayList<GPS>();
@@ -381,7 +590,8 @@ public class DBConnector {
 		String latitude, longitude;
 		
 		try {
-			stmt = dbConnection.prepareStatement("SELECT time, latitude, longitude FROM gps WHERE driveID=?");
+			con = borrow();
+			stmt = con.prepare("SELECT time, latitude, longitude FROM gps WHERE driveID=?");
 			stmt.setInt(1, driveID);
 			
 			rset = executeQuery(stmt);
@@ -404,10 +614,11 @@ public class DBConnector {
 			}			
 		} catch (SQLException e) {
 			log.writelogfile(e.getMessage());
+		} finally {
+			closeStatement(stmt);
+			release(con);
 		}
 
-		closeStatement(stmt);
-		
 		return list;	
 	}
 	
@@ -419,6 +630,7 @@ public class DBConnector {
 	 */
 	public List<GPS> getGPSByTime(Timestamp begin, Timestamp end) {
 		PreparedStatement stmt = null;
+		PooledConnection con = null;
 		ResultSet rset = null;
 		GPS gps= null;
 		List<GPS> list = new ArrayList<GPS>();
@@ -428,7 +640,8 @@ public class DBConnector {
 		String latitude, longitude;
 		
 		try {
-			stmt = dbConnection.prepareStatement("SELECT time, driveID, latitude, longitude FROM gps WHERE time BETWEEN ? AND ?");
+			con = borrow();
+			stmt = con.prepare("SELECT time, driveID, latitude, longitude FROM gps WHERE time BETWEEN ? AND ?");
 			stmt.setTimestamp(1, begin);
 			stmt.setTimestamp(2, end);
 			
@@ -453,10 +666,11 @@ public class DBConnector {
 			}			
 		} catch (SQLException e) {
 			log.writelogfile(e.getMessage());
+		} finally {
+			closeStatement(stmt);
+			release(con);
 		}
 
-		closeStatement(stmt);
-		
 		return list;	
 	}
 	
@@ -470,7 +684,7 @@ public class DBConnector {
 	 */
 	public int createSession(String userID, String ip) {
 		PreparedStatement stmt = null;
-		ResultSet rset = null;
+		PooledConnection con = null;
 		int sessionID = -1;
 		
 		if(!isValidUserID(userID)) {
@@ -480,40 +694,24 @@ public class DBConnector {
 
 		Timestamp datetime = new Timestamp(System.currentTimeMillis());
 		
-		// insert new session
-		try {
-			stmt = dbConnection.prepareStatement("INSERT INTO session (`userID`, `ipAddress`, `loginTime`) VALUES (?, ?, ?);");
-			stmt.setString(1, userID);
-			stmt.setString(2, ip);
-			stmt.setTimestamp(3, datetime);
-			
-			executeUpdate(stmt);
-		} catch (SQLException e) {
-			log.writelogfile(e.getMessage());
-		}
-		
-		// lookup sessionID
 		try {
-			stmt = dbConnection.prepareStatement("SELECT sessionID FROM session WHERE `userID`=? AND `ipAddress`=? AND `loginTime`=?");
+			con = borrow();
+			stmt = con.prepare("INSERT INTO session (`userID`, `ipAddress`, `loginTime`) VALUES (?, ?, ?);", Statement.RETURN_GENERATED_KEYS);
 			stmt.setString(1, userID);
 			stmt.setString(2, ip);
 			stmt.setTimestamp(3, datetime);
 			
-			rset = executeQuery(stmt);
-			
-			if(!rset.isBeforeFirst()) {
+			sessionID = executeInsert(stmt);
+			if(sessionID == -1)
 				log.writelogfile("unable to create new session");
-				return sessionID; 	// -> return -1;
-			} else {
-				rset.next();
-				sessionID = rset.getInt("sessionID");
-			}			
+			else
+				userCache.putSession(sessionID, userID);
 		} catch (SQLException e) {
 			log.writelogfile(e.getMessage());
+		} finally {
+			release(con);
 		}
 		
-		closeStatement(stmt);
-		
 		return sessionID;
 	}
 
@@ -525,6 +723,7 @@ public class DBConnector {
 	 */
 	public boolean closeSession(int sessionID) {
 		PreparedStatement stmt = null;
+		PooledConnection con = null;
 				
 		if(!isValidSessionID(sessionID)) {
 			log.writelogfile("closeSession: invalid sessionID " + sessionID);
@@ -534,7 +733,8 @@ public class DBConnector {
 		Timestamp datetime = new Timestamp(System.currentTimeMillis());
 		
 		try {
-			stmt = dbConnection.prepareStatement("UPDATE session SET `logoutTime`=? WHERE `sessionID`=?");
+			con = borrow();
+			stmt = con.prepare("UPDATE session SET `logoutTime`=? WHERE `sessionID`=?");
 			stmt.setTimestamp(1, datetime);
 			stmt.setInt(2, sessionID);
 			
@@ -542,6 +742,9 @@ public class DBConnector {
 		} catch (SQLException e) {
 			log.writelogfile(e.getMessage());
 			return false;
+		} finally {
+			closeStatement(stmt);
+			release(con);
 		}
 		return true;
 	}
@@ -553,10 +756,12 @@ public class DBConnector {
 	 */
 	private boolean isValidSessionID(int sessionID) {
 		PreparedStatement stmt = null;
+		PooledConnection con = null;
 		ResultSet rset = null;
 		boolean found = false;
 		try {
-			stmt = dbConnection.prepareStatement("SELECT sessionID FROM session WHERE sessionID = ?");
+			con = borrow();
+			stmt = con.prepare("SELECT sessionID FROM session WHERE sessionID = ?");
 			stmt.setInt(1, sessionID);
 			
 			rset = executeQuery(stmt);
@@ -568,10 +773,11 @@ public class DBConnector {
 			}			
 		} catch (SQLException e) {
 			log.writelogfile(e.getMessage());
+		} finally {
+			closeStatement(stmt);
+			release(con);
 		}
 
-		closeStatement(stmt);
-		
 		return found;
 	}
 	
@@ -585,10 +791,12 @@ public class DBConnector {
 	 */
 	public User loginUser(String userID, String pw) {
 		PreparedStatement stmt = null;
+		PooledConnection con = null;
 		ResultSet rset = null;
 		User user = null;
 		try {
-			stmt = dbConnection.prepareStatement("SELECT nickname, rightFlag FROM user WHERE userID = ? AND password = ?");
+			con = borrow();
+			stmt = con.prepare("SELECT nickname, rightFlag FROM user WHERE userID = ? AND password = ?");
 			stmt.setString(1, userID);
 			stmt.setString(2, hashPassword(pw));
 			
@@ -607,10 +815,11 @@ public class DBConnector {
 			}			
 		} catch (SQLException e) {
 			log.writelogfile(e.getMessage());
+		} finally {
+			closeStatement(stmt);
+			release(con);
 		}
 
-		closeStatement(stmt);
-		
 		return user;
 	}
 
@@ -622,16 +831,23 @@ public class DBConnector {
 	 */
 	public boolean changeNickname(String userID, String newNick) {
 		PreparedStatement stmt = null;
+		PooledConnection con = null;
 		
 		try {
-			stmt = dbConnection.prepareStatement("UPDATE user SET `nickname`=? WHERE `userID`=?");
+			con = borrow();
+			stmt = con.prepare("UPDATE user SET `nickname`=? WHERE `userID`=?");
 			stmt.setString(1, newNick);
 			stmt.setString(2, userID);			
 			
 			executeUpdate(stmt);
+			userCache.invalidate(userID);
+			activeSession.invalidateUser(userID);
 		} catch (SQLException e) {
 			log.writelogfile(e.getMessage());
 			return false;
+		} finally {
+			closeStatement(stmt);
+			release(con);
 		}
 
 		return true;
@@ -647,18 +863,24 @@ public class DBConnector {
 	 */
 	public boolean createUser(String userID, String nick, String pw, Right r) {
 		PreparedStatement stmt = null;
+		PooledConnection con = null;
 		
 		try {
-			stmt = dbConnection.prepareStatement("INSERT INTO user (`userID`, `nickname`, `password`, `rightFlag`) VALUES (?, ?, ?, ?)");
+			con = borrow();
+			stmt = con.prepare("INSERT INTO user (`userID`, `nickname`, `password`, `rightFlag`) VALUES (?, ?, ?, ?)");
 			stmt.setString(1, userID);
 			stmt.setString(2, nick);
 			stmt.setString(3, hashPassword(pw)); 
 			stmt.setByte(4, (byte)r.ordinal());
 			
 			executeUpdate(stmt);
+			userCache.invalidate(userID);
 		} catch (SQLException e) {
 			log.writelogfile(e.getMessage());
 			return false;
+		} finally {
+			closeStatement(stmt);
+			release(con);
 		}
 
 		return true;
@@ -671,15 +893,22 @@ public class DBConnector {
 	 */
 	private boolean deleteUser(String userID) {
 		PreparedStatement stmt = null;
+		PooledConnection con = null;
 		
 		try {
-			stmt = dbConnection.prepareStatement("DELETE FROM user WHERE `userID`=?");
+			con = borrow();
+			stmt = con.prepare("DELETE FROM user WHERE `userID`=?");
 			stmt.setString(1, userID);
 			
 			executeUpdate(stmt);
+			userCache.invalidate(userID);
+			activeSession.invalidateUser(userID);
 		} catch (SQLException e) {
 			log.writelogfile(e.getMessage());
 			return false;
+		} finally {
+			closeStatement(stmt);
+			release(con);
 		}
 		
 		return true;
@@ -687,12 +916,18 @@ public class DBConnector {
 
 	/**
 	 * \brief Gets all user from the database .
+	 * \details The list is cached until a user is created, changed or deleted.
 	 * @return Returns all users in the database in an ArrayList.
 	 */
 	public List<User> getAllUser() {
 		// TODO: besondere filter?
+		List<User> cached = userCache.getAllUsers();
+		if(cached != null)
+			return cached.isEmpty() ? null : new ArrayList<User>(cached);
+		long generation = userCache.generation();
 		
 		PreparedStatement stmt = null;
+		PooledConnection con = null;
 		ResultSet rset = null;
 		User user = null;
 		List<User> list = new ArrayList<User>();
@@ -701,12 +936,14 @@ public class DBConnector {
 		byte right;
 		
 		try {
-			stmt = dbConnection.prepareStatement("SELECT userID, nickname, rightFlag FROM user");
+			con = borrow();
+			stmt = con.prepare("SELECT userID, nickname, rightFlag FROM user");
 			
 			rset = executeQuery(stmt);
 			
 			if(!rset.isBeforeFirst()) {
 				// kein user?
+				userCache.putAllUsers(generation, list);
 				return null;
 			} else {
 				rset.next();
@@ -721,27 +958,37 @@ public class DBConnector {
 					user = null;
 					rset.next();
 				}
+				userCache.putAllUsers(generation, list);
 			}			
 		} catch (SQLException e) {
 			log.writelogfile(e.getMessage());
+		} finally {
+			closeStatement(stmt);
+			release(con);
 		}
 
-		closeStatement(stmt);
-		
 		return list;	
 	}
 	
 	/**
 	 * \brief Gets the number of all user in the database.
+	 * \details The number is cached until a user is created or deleted.
 	 * @return Number of users.
 	 */
 	public int getAllUserCount() {
+		int cached = userCache.getUserCount();
+		if(cached >= 0)
+			return cached;
+		long generation = userCache.generation();
+		
 		PreparedStatement stmt = null;
+		PooledConnection con = null;
 		ResultSet rset = null;
 		int returnValue = 0;
 
 		try {
-			stmt = dbConnection.prepareStatement("SELECT Count(userID) from user");
+			con = borrow();
+			stmt = con.prepare("SELECT Count(userID) from user");
 			
 			rset = executeQuery(stmt);
 			
@@ -751,29 +998,36 @@ public class DBConnector {
 			} else {
 				rset.next();
 				returnValue = rset.getInt(1);
+				userCache.putUserCount(generation, returnValue);
 			}			
 		} catch (SQLException e) {
 			log.writelogfile(e.getMessage());
+		} finally {
+			closeStatement(stmt);
+			release(con);
 		}
 
-		closeStatement(stmt);
-		
 		return returnValue;	
 	}
 	
 	/**
 	 * \brief Looks up a userID by a given sessionID.
-	 * \details Similar to getUserBySession(int sessionID).
+	 * \details Similar to getUserBySession(int sessionID). The userID of a session never changes, so it is cached.
 	 * @param sessionID SessionID to search for.
 	 * @return UserID associated with the session or null if no session was found.
 	 */
 	public String getUserIdBySession(int sessionID) {
+		String userID = userCache.getUserID(sessionID);
+		if(userID != null)
+			return userID;
+		
 		PreparedStatement stmt = null;
+		PooledConnection con = null;
 		ResultSet rset = null;
-		String userID = null;
 
 		try {
-			stmt = dbConnection.prepareStatement("SELECT userID FROM session WHERE sessionID=?");
+			con = borrow();
+			stmt = con.prepare("SELECT userID FROM session WHERE sessionID=?");
 			stmt.setInt(1, sessionID);
 			
 			rset = executeQuery(stmt);
@@ -784,62 +1038,155 @@ public class DBConnector {
 			} else {
 				rset.next();
 				userID = rset.getString("userID");
+				userCache.putSession(sessionID, userID);
 			}			
 		} catch (SQLException e) {
 			log.writelogfile(e.getMessage());
+		} finally {
+			closeStatement(stmt);
+			release(con);
 		}
 
-		closeStatement(stmt);
-		
 		return userID;	
 	}
 	
 	/**
 	 * \brief Gets a user object based on an given session ID.
-	 * \details Similar to getUserIdBySession(int sessionID).
+	 * \details Similar to getUserIdBySession(int sessionID). The user is cached until it is changed or deleted,
+	 * sessions of users which don't exist (e.g. guests) are cached as well.
 	 * @param sessionID SessionID to search for.
 	 * @return Returns an User-object associated with the session or null if no session was found.
 	 */
 	public User getUserBySession(int sessionID) {
+		User user = userCache.getUserBySession(sessionID);
+		if(user != null)
+			return user == UserCache.MISSING ? null : user;
+		long generation = userCache.generation();
+		
 		PreparedStatement stmt = null;
+		PooledConnection con = null;
 		ResultSet rset = null;
-		User user = null;
 		try {
-			stmt = dbConnection.prepareStatement("SELECT userID, nickname, rightFlag FROM user WHERE userID = (SELECT userID FROM session WHERE sessionID=?)");
+			con = borrow();
+			stmt = con.prepare("SELECT s.sessionID, s.userID AS sessionUser, u.userID, u.nickname, u.rightFlag FROM session s LEFT JOIN user u ON u.userID = s.userID WHERE s.sessionID=?");
 			stmt.setInt(1, sessionID);
 			
 			rset = executeQuery(stmt);
 			
 			if(!rset.isBeforeFirst()) {
-				// no user found
+				// no session found
 			} else {
 				rset.next();
-				String userID = rset.getString("userID");
-				String nickname = rset.getString("nickname");
-				if(nickname == null) nickname = userID;
-				byte right = rset.getByte("rightFlag");
-				user = new User(userID, nickname, Right.values()[right]);
+				user = readSessionUser(rset, generation);
 			}			
 		} catch (SQLException e) {
 			log.writelogfile(e.getMessage());
+		} finally {
+			closeStatement(stmt);
+			release(con);
 		}
 
-		closeStatement(stmt);
+		return user;
+	}
+	
+	/**
+	 * \brief Gets the users of several sessions with one query.
+	 * \details Like getUserBySession(int sessionID) for every session, but with a single JOIN over all sessions. To keep the number of
+	 * different statements small, the IN list is padded to a power of two by repeating the last sessionID.
+	 * @param sessionIDs SessionIDs to search for.
+	 * Only sessions which are not in the user cache are queried.
+	 * @return Returns a map from sessionID to User-object, sessions without user are missing. Returns null if an error occurs.
+	 */
+	public Map<Integer, User> getUsersBySessions(int[] sessionIDs) {
+		Map<Integer, User> users = new HashMap<Integer, User>();
+		int[] missing = new int[sessionIDs.length];
+		int count = 0;
+		for(int sessionID : sessionIDs) {
+			User cached = userCache.getUserBySession(sessionID);
+			if(cached == null)
+				missing[count++] = sessionID;
+			else if(cached != UserCache.MISSING)
+				users.put(sessionID, cached);
+		}
+		if(count == 0)
+			return users;
+		sessionIDs = Arrays.copyOf(missing, count);
+		long generation = userCache.generation();
+		
+		PreparedStatement stmt = null;
+		PooledConnection con = null;
+		ResultSet rset = null;
+		int params = sessionIDs.length == 1 ? 1 : Integer.highestOneBit(sessionIDs.length - 1) << 1;
+		
+		StringBuilder sql = new StringBuilder("SELECT s.sessionID, s.userID AS sessionUser, u.userID, u.nickname, u.rightFlag FROM session s LEFT JOIN user u ON u.userID = s.userID WHERE s.sessionID IN (?");
+		for(int i = 1; i < params; i++)
+			sql.append(", ?");
+		sql.append(")");
+		
+		try {
+			con = borrow();
+			stmt = con.prepare(sql.toString());
+			for(int i = 0; i < params; i++)
+				stmt.setInt(i + 1, sessionIDs[Math.min(i, sessionIDs.length - 1)]);
+			
+			rset = executeQuery(stmt);
+			if(rset == null)
+				return null;
+			while(rset.next()) {
+				User user = readSessionUser(rset, generation);
+				if(user != null)
+					users.put(rset.getInt("sessionID"), user);
+			}
+		} catch (SQLException e) {
+			log.writelogfile(e.getMessage());
+			return null;
+		} finally {
+			closeStatement(stmt);
+			release(con);
+		}
 		
+		return users;
+	}
+	
+	/**
+	 * \brief Reads a row of session LEFT JOIN user and caches the session and its user.
+	 * @param rset Result set with the columns sessionID, sessionUser, userID, nickname and rightFlag.
+	 * @param generation Value of userCache.generation() before the query.
+	 * @return Returns the User-object or null if the user of the session doesn't exist.
+	 */
+	private User readSessionUser(ResultSet rset, long generation) throws SQLException {
+		String sessionUser = rset.getString("sessionUser");
+		String userID = rset.getString("userID");
+		User user = null;
+		if(userID != null) {
+			String nickname = rset.getString("nickname");
+			if(nickname == null) nickname = userID;
+			byte right = rset.getByte("rightFlag");
+			user = new User(userID, nickname, Right.values()[right]);
+		}
+		userCache.putSession(rset.getInt("sessionID"), sessionUser);
+		userCache.putUser(generation, sessionUser, user);
 		return user;
 	}
 	
 	/**
 	 * \brief Checks if the given userID exists.
+	 * \details Users in the user cache are checked without query.
 	 * @param userID UserID to check.
 	 * @return Returns "true" if the UserID was found or "false" if not.
 	 */
 	private boolean isValidUserID(String userID) {
+		User cached = userCache.getUser(userID);
+		if(cached != null)
+			return cached != UserCache.MISSING;
+		
 		PreparedStatement stmt = null;
+		PooledConnection con = null;
 		ResultSet rset = null;
 		boolean found = false;
 		try {
-			stmt = dbConnection.prepareStatement("SELECT userID FROM user WHERE userID = ?");
+			con = borrow();
+			stmt = con.prepare("SELECT userID FROM user WHERE userID = ?");
 			stmt.setString(1, userID);
 			
 			rset = executeQuery(stmt);
@@ -851,10 +1198,11 @@ public class DBConnector {
 			}			
 		} catch (SQLException e) {
 			log.writelogfile(e.getMessage());
+		} finally {
+			closeStatement(stmt);
+			release(con);
 		}
 
-		closeStatement(stmt);
-		
 		return found;
 	}
 	
@@ -867,46 +1215,76 @@ public class DBConnector {
 	 */
 	protected int logQueue(String userID, int sessionID) {
 		PreparedStatement stmt = null;
-		ResultSet rset = null;
+		PooledConnection con = null;
 		int queueID = -1;
 		
 		Timestamp datetime = new Timestamp(System.currentTimeMillis());
 		
-		// insert new session
 		try {
-			stmt = dbConnection.prepareStatement("INSERT INTO waitingQueue (`userID`, `sessionID`, `time`) VALUES (?, ?, ?);");
+			con = borrow();
+			stmt = con.prepare("INSERT INTO waitingQueue (`userID`, `sessionID`, `time`) VALUES (?, ?, ?);", Statement.RETURN_GENERATED_KEYS);
 			stmt.setString(1, userID);
 			stmt.setInt(2, sessionID);
 			stmt.setTimestamp(3, datetime);
 			
-			executeUpdate(stmt);
+			queueID = executeInsert(stmt);
+			if(queueID == -1)
+				log.writelogfile("unable to create new queue entry");
 		} catch (SQLException e) {
 			log.writelogfile(e.getMessage());
+		} finally {
+			release(con);
 		}
 		
-		// lookup sessionID
+		return queueID;
+	}
+	
+	/**
+	 * \brief Writes enqueue events recorded by the segment log with one batch.
+	 * \details Unlike logQueue(String userID, int sessionID) the time is taken from the events and the assigned QueueIDs are not returned.
+	 * The batch is written in one transaction, so a failed batch leaves no rows behind and can be written again without duplicates.
+	 * @param batch Enqueue events to write.
+	 * @return Returns "true" if successful or "false" if an error occurs.
+	 */
+	boolean writeQueue(List<TelemetryFileLog.QueueEvent> batch) {
+		PreparedStatement stmt = null;
+		PooledConnection con = null;
+		
+		boolean transaction = false;
+		
 		try {
-			stmt = dbConnection.prepareStatement("SELECT queueID FROM waitingQueue WHERE `userID`=? AND `sessionID`=? AND `time`=?");
-			stmt.setString(1, userID);
-			stmt.setInt(2, sessionID);
-			stmt.setObject(3, datetime);
-			
-			rset = executeQuery(stmt);
-			
-			if(!rset.isBeforeFirst()) {
-				log.writelogfile("unable to create new queue entry");
-				return queueID; 	// -> return -1;
-			} else {
-				rset.next();
-				queueID = rset.getInt("queueID");
-			}			
+			con = borrow();
+			con.begin();
+			transaction = true;
+			stmt = con.prepare("INSERT INTO waitingQueue (`userID`, `sessionID`, `time`) VALUES (?, ?, ?);");
+			for(TelemetryFileLog.QueueEvent event : batch) {
+				stmt.setString(1, event.userID);
+				stmt.setInt(2, event.sessionID);
+				stmt.setTimestamp(3, event.time);
+				stmt.addBatch();
+			}
+			stmt.executeBatch();
+			con.commit();
 		} catch (SQLException e) {
 			log.writelogfile(e.getMessage());
+			if(transaction)
+				con.rollback();
+			return false;
+		} finally {
+			if(stmt != null) {
+				try {
+					stmt.clearBatch();
+				} catch (SQLException e) {
+					log.writelogfile(e.getMessage());
+				}
+			}
+			closeStatement(stmt);
+			if(transaction)
+				con.end();
+			release(con);
 		}
-		
-		closeStatement(stmt);
-		
-		return queueID;
+
+		return true;
 	}
 
 	
@@ -926,8 +1304,10 @@ public class DBConnector {
 		 * Erwartung: Verbindung ist ok
 		 */
 		System.out.print("testing connection ... ");
+		PooledConnection con = null;
 		try {
-			if(dbConnection.isValid(5)) {
+			con = borrow();
+			if(con.connection.isValid(5)) {
 				System.out.print("OK\n");
 			} else {
 				System.out.print("BAD - connection is NOT valid! exiting ...\n");
@@ -936,6 +1316,8 @@ public class DBConnector {
 		} catch (SQLException e) {
 			System.out.println("error: " + e.getMessage());
 			return;
+		} finally {
+			release(con);
 		}
 		System.out.println("");
 		
@@ -971,7 +1353,7 @@ public class DBConnector {
 		 * Erwartung: geht
 		 */
 		System.out.print("saving random chat text ... ");
-		if(logChat(userID, sessionID, txt)) 
+		if(logChat(userID, sessionID, txt) && chatWriter.flush(CHAT_CLOSE_TIMEOUT)) 
 			System.out.print("OK\n");
 		else {
 			System.out.print("BAD\n");
@@ -1024,7 +1406,7 @@ public class DBConnector {
 		 * Erwartung: geht
 		 */
 		System.out.print("saving GPS ... ");
-		if(logGPS(driveID, longitude, latitude)) 
+		if(logGPS(driveID, longitude, latitude) && gpsWriter.flush(GPS_CLOSE_TIMEOUT)) 
 			System.out.print("OK\n");
 		else {
 			System.out.print("BAD\n");
@@ -0,0 +1,93 @@
+package de.carduinodroid.utilities;
+
+import java.util.Arrays;
+
+/**
+ * \brief Sparse line index of the log file.
+ * \details The index is built while LogNG writes: it counts the lines and UTF-8 bytes of everything appended and remembers the
+ * byte offset of every INTERVAL-th line. To read from line n a reader seeks to the entry of line n - n % INTERVAL and skips
+ * at most INTERVAL - 1 lines, instead of reading the file from the start.
+ * \details Lines are counted like BufferedReader.readLine() does (\\n, \\r and \\r\\n end a line), so a message containing line breaks
+ * counts as several lines. Only lines which are flushed to the file (see flushed()) are visible to readers.
+ */
+class LogIndex {
+
+	/** Distance of the indexed lines. */
+	static final int INTERVAL = 256;
+
+	private long[] offsets = new long[64];	/** offsets[k] is the byte offset of line k * INTERVAL */
+	private long lines = 0;
+	private long bytes = 0;
+	private boolean pendingCR = false;	/** the last character was \\r, the line ends after a following \\n */
+	private long flushedLines = 0;
+
+	/**
+	 * \brief Counts text appended to the log file.
+	 * @param text Text as it was given to the writer.
+	 */
+	synchronized void append(CharSequence text) {
+		final int length = text.length();
+		for (int i = 0; i < length; i++) {
+			final char c = text.charAt(i);
+			if (pendingCR) {
+				pendingCR = false;
+				if (c == '\n') {
+					bytes++;
+					endLine();
+					continue;
+				}
+				endLine();
+			}
+			if (c < 0x80) {
+				bytes++;
+			} else if (c < 0x800) {
+				bytes += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+				bytes += 4;
+				i++;
+			} else if (Character.isSurrogate(c)) {
+				bytes++;	// a single surrogate is written as '?'
+			} else {
+				bytes += 3;
+			}
+			if (c == '\r')
+				pendingCR = true;
+			else if (c == '\n')
+				endLine();
+		}
+	}
+
+	/**
+	 * \brief Makes all lines appended so far visible to readers, called after the writer was flushed.
+	 */
+	synchronized void flushed() {
+		flushedLines = lines;
+	}
+
+	/**
+	 * @return Returns the number of complete lines flushed to the file.
+	 */
+	synchronized long getLineCount() {
+		return flushedLines;
+	}
+
+	/**
+	 * \brief Finds the nearest indexed line at or before the given line.
+	 * @param line Line to seek to.
+	 * @return Returns {number of the indexed line, its byte offset}.
+	 */
+	synchronized long[] seek(long line) {
+		final long entry = Math.max(0, Math.min(line, flushedLines) / INTERVAL);
+		return new long[] { entry * INTERVAL, offsets[(int) entry] };
+	}
+
+	private void endLine() {
+		lines++;
+		if (lines % INTERVAL == 0) {
+			final int entry = (int) (lines / INTERVAL);
+			if (entry == offsets.length)
+				offsets = Arrays.copyOf(offsets, offsets.length * 2);
+			offsets[entry] = bytes;
+		}
+	}
+}
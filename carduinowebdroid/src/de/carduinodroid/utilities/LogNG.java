@@ -3,12 +3,17 @@ package de.carduinodroid.utilities;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.LinkedList;
+import java.util.List;
 
 import de.carduinodroid.shared.GPS;
 import de.carduinodroid.utilities.Config.Options;
@@ -22,19 +27,73 @@ import de.carduinodroid.utilities.Config.Options;
  * ///TODO \todo: rename!
  */
 public class LogNG {
+	/** Number of lines the ring of the asynchronous mode can hold. */
+	static final int ASYNC_CAPACITY = 8192;
+	/** Maximum time close() and getLog() wait for the writer thread in milliseconds. */
+	static final long ASYNC_TIMEOUT = 2000;
+	
 	Options options = null;
 	DBConnector db;
-	LinkedList<String> tmpLog;
+	TelemetryFileLog fileLog;
+	volatile LinkedList<String> tmpLog;
+	AsyncLogWriter async;
 	
 	BufferedWriter writer;
+	final LogIndex index = new LogIndex();
+	static final String LINE_SEPARATOR = System.getProperty("line.separator");
 	SimpleDateFormat dateformat;
-	Date date;
+	final Object stampLock = new Object();	/** guards the timestamp cache, used by the writer thread too */
+	long stampSecond = -1;	/** second of the cached timestamp */
+	String stamp;	/** cached timestamp */
+	final Object tmpLock = new Object();	/** guards tmpLog, never needed by the writer thread */
 	File file;
 	File path;
 	
+	/**
+	 * \brief Creates a synchronous log, every line is written and flushed by the calling thread.
+	 */
 	public LogNG() {
+		this(false);
+	}
+	
+	/**
+	 * \brief Creates a log.
+	 * \details In asynchronous mode a logging call only puts the line into a ring (see AsyncLogWriter), a writer thread
+	 * formats and writes the lines and flushes the file every few hundred milliseconds. The order of the lines is kept.
+	 * @param async Set to "true" for the asynchronous mode.
+	 */
+	public LogNG(boolean async) {
 		file = null;
 		tmpLog = new LinkedList<String>();
+		dateformat = new SimpleDateFormat("dd.MM.yyyy HH:mm:ss");
+		if(async)
+			this.async = new AsyncLogWriter(ASYNC_CAPACITY, new AsyncLogWriter.Sink() {
+				StringBuilder console = new StringBuilder();
+				
+				public int write(long time, String line, int flags) {
+					String timestamp = stamp(time);
+					try {
+						if((flags & AsyncLogWriter.SKIP_FILE) == 0)
+							writeEntry(timestamp, line);
+					} catch (IOException e) { e.printStackTrace(); }
+					if((flags & AsyncLogWriter.SKIP_LIVE_LOG) == 0)
+						console.append(timestamp).append(' ').append(line).append(LINE_SEPARATOR);
+					return timestamp.length() + line.length() + 2;
+				}
+				
+				public void flush() {
+					try {
+						if(writer != null) {
+							writer.flush();
+							index.flushed();
+						}
+					} catch (IOException e) { e.printStackTrace(); }
+					if(console.length() > 0) {
+						write_Live_Log_Batch(console);
+						console.setLength(0);
+					}
+				}
+			});
 	}
 	
 	/**
@@ -52,10 +111,7 @@ public class LogNG {
 			return true;
 		
 		if(options.logChatToFile)
-		{
-			// TODO - nicht unsere Aufgabe
-			throw new UnsupportedOperationException("Not implemented yet");
-		}
+			return getFileLog().logChat(userID, sessionID, text);
 		else
 			return db.logChat(userID, sessionID, text);
 	}
@@ -75,10 +131,7 @@ public class LogNG {
 			return true;
 		
 		if(options.logGPSToFile)
-		{
-			// TODO - nicht unsere Aufgabe
-			throw new UnsupportedOperationException("Not implemented yet");
-		}
+			return getFileLog().logGPS(driveID, longitude, latitude);
 		else
 			return db.logGPS(driveID, longitude, latitude);
 	}
@@ -107,10 +160,7 @@ public class LogNG {
 			return queueID;
 		
 		if(options.logQueueToFile)
-		{
-			// TODO - nicht unsere Aufgabe
-			throw new UnsupportedOperationException("Not implemented yet");
-		}
+			return getFileLog().logQueue(userID, sessionID);
 		else
 			return db.logQueue(userID, sessionID);
 	}
@@ -121,12 +171,29 @@ public class LogNG {
 	 * @param string Text to save to the log.
 	 */
 	public void writelogfile(String string) {
-		if(file == null) {
-			tmpLog.addLast(string);
-			writelogfile_second(string, false, true);
+		if(tmpLog != null) {
+			synchronized(tmpLock) {
+				if(tmpLog != null) {
+					tmpLog.addLast(string);
+					write(string, false, true);
+					return;
+				}
+			}
 		}
-		else
-			writelogfile_second(string, false, false);
+		write(string, false, false);
+	}
+	
+	/**
+	 * \brief Hands the text to the writer thread or writes it directly if the log is synchronous or closed.
+	 * @param line Text to log.
+	 * @param skipLiveLog Set to "true" if the text shouldn't printed to System.out.
+	 * @param skipFile Set to "true" if the text shouldn't be written to the log file.
+	 */
+	private void write(String line, boolean skipLiveLog, boolean skipFile) {
+		if(async != null && async.offer(System.currentTimeMillis(), line,
+				(skipLiveLog ? AsyncLogWriter.SKIP_LIVE_LOG : 0) | (skipFile ? AsyncLogWriter.SKIP_FILE : 0)))
+			return;
+		writelogfile_second(line, skipLiveLog, skipFile);
 	}
 	
 	/**
@@ -137,20 +204,36 @@ public class LogNG {
 	 * @param skipLiveLog Set to "true" if the text shouldn't printed to System.out.
 	 * @param skipFile Set to "true" if the text shouldn't be written to the log file.
 	 */
-	private void writelogfile_second(String line, boolean skipLiveLog, boolean skipFile){
+	private synchronized void writelogfile_second(String line, boolean skipLiveLog, boolean skipFile){
 		try {
-			Date data = new Date();
-			SimpleDateFormat df = new SimpleDateFormat("dd.MM.yyyy HH:mm:ss" );
-			String entry = df.format(data)+" "+line;
+			String timestamp = stamp(System.currentTimeMillis());
 			if(!skipFile) {
-				writer.write(entry,0,entry.length());
-				writer.write(System.getProperty("line.separator"));
+				writeEntry(timestamp, line);
 				writer.flush();
+				index.flushed();
 			}
-			if(!skipLiveLog) write_Live_Log(entry);
+			if(!skipLiveLog) write_Live_Log(timestamp+" "+line);
 		} catch (IOException e) { e.printStackTrace(); }
 	}
 	
+	/**
+	 * \brief Writes one line to the log file and adds it to the line index.
+	 * \details Called by the writer thread in asynchronous mode, by writelogfile_second() otherwise.
+	 * @param timestamp Formatted time of the line.
+	 * @param line Text to log.
+	 * @throws IOException if the line can not be written.
+	 */
+	private void writeEntry(String timestamp, String line) throws IOException {
+		writer.write(timestamp);
+		writer.write(' ');
+		writer.write(line);
+		writer.write(LINE_SEPARATOR);
+		index.append(timestamp);
+		index.append(" ");
+		index.append(line);
+		index.append(LINE_SEPARATOR);
+	}
+	
 	/**
 	 * \brief Prints a given text to System.out.
 	 * @param msg Text to send to System.out
@@ -158,6 +241,31 @@ public class LogNG {
 	private void write_Live_Log(String msg) {
 		System.out.println(msg);
 	}
+	
+	/**
+	 * \brief Prints several lines to System.out at once.
+	 * @param lines Lines to send to System.out, each one terminated by a line separator.
+	 */
+	private void write_Live_Log_Batch(CharSequence lines) {
+		System.out.print(lines);
+		System.out.flush();
+	}
+	
+	/**
+	 * \brief Formats a timestamp, the result is cached for the current second.
+	 * @param time Time in milliseconds.
+	 * @return Formatted timestamp.
+	 */
+	private String stamp(long time) {
+		synchronized(stampLock) {
+			long second = time / 1000;
+			if(second != stampSecond) {
+				stamp = dateformat.format(new Date(time));
+				stampSecond = second;
+			}
+			return stamp;
+		}
+	}
 
 	/**
 	 * \brief Sets the options.
@@ -189,7 +297,7 @@ public class LogNG {
 		file.canRead();
 		
 		try {
-			writer = new BufferedWriter(new FileWriter(file));
+			writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
 		} catch (IOException e) { e.printStackTrace(); }
 	}
 	
@@ -197,12 +305,14 @@ public class LogNG {
 	 * \brief Moves the temporary list log to the log file
 	 */
 	private void addTmpLog() {
-		if(tmpLog == null) return;
-		
-		for(String s : tmpLog)
-			writelogfile_second(s, true, false);
-		
-		tmpLog = null;
+		synchronized(tmpLock) {
+			if(tmpLog == null) return;
+			
+			for(String s : tmpLog)
+				write(s, true, false);
+			
+			tmpLog = null;
+		}
 	}
 	
 	/**
@@ -211,20 +321,112 @@ public class LogNG {
 	 */
 	public void setDB(DBConnector database) {
 		this.db = database;
+		importFileLog();
+	}
+	
+	/**
+	 * \brief Returns the file backend for GPS, chat and queue events and creates it if necessary.
+	 * @return The file log.
+	 */
+	private synchronized TelemetryFileLog getFileLog() {
+		if(fileLog == null)
+			fileLog = new TelemetryFileLog(options, this);
+		return fileLog;
+	}
+	
+	/**
+	 * \brief Loads GPS, chat and queue events which were logged to file into the database.
+	 * \details Runs in the background, events logged to file meanwhile are imported next time.
+	 */
+	public void importFileLog() {
+		if(options == null || db == null)
+			return;
+		final TelemetryFileLog files = getFileLog();
+		Thread importer = new Thread("segment importer") {
+			public void run() {
+				long count = files.importInto(db);
+				if(count > 0)
+					writelogfile(count + " logged events imported into the database");
+			}
+		};
+		importer.setDaemon(true);
+		importer.start();
 	}
 	
+	/**
+	 * \brief Closes the file backend and the writer thread, logged events and lines are forced to disk.
+	 * \details The lock of the log is not held while waiting for the writer thread, the lines logged by other threads meanwhile are still written.
+	 */
+	public void close() {
+		TelemetryFileLog files;
+		synchronized(this) {
+			files = fileLog;
+		}
+		if(files != null)
+			files.close();
+		if(async != null)
+			async.close(ASYNC_TIMEOUT);
+		// later lines are written synchronously
+		synchronized(this) {
+			try {
+				if(writer != null)
+					writer.flush();
+			} catch (IOException e) { e.printStackTrace(); }
+		}
+	}
+	
+	/**
+	 * \brief Returns the whole log file.
+	 * @return All lines of the log file.
+	 */
 	public LinkedList<String> getLog() {
-		LinkedList<String> l = new LinkedList<String>();
+		return new LinkedList<String>(getLog(0, Integer.MAX_VALUE));
+	}
+	
+	/**
+	 * \brief Returns a part of the log file.
+	 * \details The line index is used to seek near the first line, so the cost does not depend on the size of the log file.
+	 * Use getLineCount() to read only lines which were added since the last call.
+	 * @param fromLine Number of the first line to return, starting at 0.
+	 * @param limit Maximum number of lines to return.
+	 * @return Lines of the log file, empty if fromLine is behind the end.
+	 */
+	public List<String> getLog(long fromLine, int limit) {
+		List<String> l = new ArrayList<String>();
+		if(file == null)
+			return l;
+		if(async != null)
+			async.flush(ASYNC_TIMEOUT);
+		
+		long end = Math.min(index.getLineCount(), fromLine + limit);
+		long[] start = index.seek(fromLine);
+		long line = start[0];
 		try {
-			BufferedReader in = new BufferedReader(new FileReader(file));
-			String zeile = null;
-			while ((zeile = in.readLine()) != null) {
-				l.add(zeile);
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				raf.seek(start[1]);
+				BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(raf.getChannel()), "UTF-8"));
+				String zeile = null;
+				while (line < end && (zeile = in.readLine()) != null) {
+					if(line >= fromLine)
+						l.add(zeile);
+					line++;
+				}
+			} finally {
+				raf.close();
 			}
-			in.close();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 		return l;
 	}
+	
+	/**
+	 * \brief Returns the number of lines in the log file.
+	 * \details In asynchronous mode lines which are still waiting for the writer thread are not counted.
+	 * @return Number of lines.
+	 */
+	public long getLineCount() {
+		return index.getLineCount();
+	}
 }
@@ -0,0 +1,223 @@
+package de.carduinodroid.utilities;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * \brief A connection of the ConnectionPool with its own cache of prepared statements.
+ * \details The statements are only used by the thread which borrowed the connection, so they can be reused without locking.
+ * The least recently used statement is closed when the cache is full.
+ * \details The cached statements report their exceptions to the connection: after a connection error (SQLState class 08, e.g. a lost
+ * connection) the connection is marked as broken and the pool closes it instead of handing it out again.
+ */
+class PooledConnection {
+
+	final Connection connection;
+	final long created = System.currentTimeMillis();
+	long lastUsed = created;
+	private volatile boolean broken = false;
+	private final LogNG log;
+	private final Map<String, PreparedStatement> statements;
+
+	PooledConnection(Connection connection, final int cacheSize, LogNG log) {
+		this.connection = connection;
+		this.log = log;
+		this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+				if (size() <= cacheSize)
+					return false;
+				closeQuietly(eldest.getValue());
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * \brief Returns a prepared statement for the given SQL, from the cache if possible.
+	 * \details Do not close the statement, close its ResultSet and clear its parameters instead.
+	 * @param sql SQL of the statement.
+	 * @return Returns the prepared statement.
+	 * @throws SQLException if the statement can not be prepared.
+	 */
+	PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement stmt = statements.get(sql);
+		if (stmt == null || stmt.isClosed()) {
+			try {
+				stmt = watch(connection.prepareStatement(sql));
+			} catch (SQLException e) {
+				check(e);
+				throw e;
+			}
+			statements.put(sql, stmt);
+		}
+		return stmt;
+	}
+
+	/**
+	 * \brief Returns a prepared statement for the given SQL which can return generated keys, from the cache if possible.
+	 * @param sql SQL of the statement.
+	 * @param autoGeneratedKeys Statement.RETURN_GENERATED_KEYS or Statement.NO_GENERATED_KEYS.
+	 * @return Returns the prepared statement.
+	 * @throws SQLException if the statement can not be prepared.
+	 */
+	PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+		final String key = sql + '#' + autoGeneratedKeys;
+		PreparedStatement stmt = statements.get(key);
+		if (stmt == null || stmt.isClosed()) {
+			try {
+				stmt = watch(connection.prepareStatement(sql, autoGeneratedKeys));
+			} catch (SQLException e) {
+				check(e);
+				throw e;
+			}
+			statements.put(key, stmt);
+		}
+		return stmt;
+	}
+
+	/**
+	 * @return Returns "true" if a statement of this connection failed with a connection error, the connection must not be used again.
+	 */
+	boolean isBroken() {
+		return broken;
+	}
+
+	/**
+	 * \brief Marks the connection as broken if the exception is a connection error.
+	 */
+	void check(Throwable t) {
+		for (; t != null; t = t.getCause()) {
+			if (t instanceof SQLNonTransientConnectionException || t instanceof SQLRecoverableException) {
+				broken = true;
+				return;
+			}
+			if (t instanceof SQLException) {
+				String state = ((SQLException) t).getSQLState();
+				if (state != null && state.startsWith("08")) {
+					broken = true;
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * \brief Wraps a statement so its exceptions are checked by check().
+	 */
+	private PreparedStatement watch(final PreparedStatement stmt) {
+		return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[] { PreparedStatement.class },
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						try {
+							return method.invoke(stmt, args);
+						} catch (InvocationTargetException e) {
+							check(e.getCause());
+							throw e.getCause();
+						}
+					}
+				});
+	}
+
+	/**
+	 * \brief Starts a transaction, the statements until commit() or rollback() are written all or nothing.
+	 * \details Every begin() has to be followed by end() in a finally block, before the connection is released.
+	 * @throws SQLException if autocommit can not be switched off.
+	 */
+	void begin() throws SQLException {
+		try {
+			connection.setAutoCommit(false);
+		} catch (SQLException e) {
+			check(e);
+			throw e;
+		}
+	}
+
+	/**
+	 * \brief Commits the transaction started with begin().
+	 * @throws SQLException if the commit fails, the transaction has to be rolled back then.
+	 */
+	void commit() throws SQLException {
+		try {
+			connection.commit();
+		} catch (SQLException e) {
+			check(e);
+			throw e;
+		}
+	}
+
+	/**
+	 * \brief Rolls the transaction started with begin() back.
+	 * \details A connection which can not roll back is marked as broken, so the pool does not hand out its open transaction again.
+	 */
+	void rollback() {
+		try {
+			connection.rollback();
+		} catch (SQLException e) {
+			log.writelogfile(e.getMessage());
+			broken = true;
+		}
+	}
+
+	/**
+	 * \brief Switches autocommit on again after begin().
+	 * \details A connection which can not switch back is marked as broken, the next user would otherwise run without autocommit.
+	 */
+	void end() {
+		try {
+			connection.setAutoCommit(true);
+		} catch (SQLException e) {
+			log.writelogfile(e.getMessage());
+			broken = true;
+		}
+	}
+
+	boolean isValid() {
+		try {
+			return connection.isValid(ConnectionPool.VALIDATE_TIMEOUT);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	boolean isClosed() {
+		try {
+			return connection.isClosed();
+		} catch (SQLException e) {
+			return true;
+		}
+	}
+
+	/**
+	 * \brief Closes all cached statements and the connection.
+	 */
+	void close() {
+		for (PreparedStatement stmt : statements.values())
+			closeQuietly(stmt);
+		statements.clear();
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			log.writelogfile(e.getMessage());
+		}
+	}
+
+	private void closeQuietly(PreparedStatement stmt) {
+		try {
+			stmt.close();
+		} catch (SQLException e) {
+			log.writelogfile(e.getMessage());
+		}
+	}
+}
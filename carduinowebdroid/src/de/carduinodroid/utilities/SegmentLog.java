@@ -0,0 +1,314 @@
+package de.carduinodroid.utilities;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * \brief Append-only store of binary records in memory mapped segment files.
+ * \details Records are appended to the active segment, which is a preallocated file mapped into memory, so appending a record is a memory copy
+ * and no system call. When a record does not fit anymore the segment is sealed and a new one is started. Only the newest maxSegments
+ * segments are kept, older ones are deleted (retention).
+ * \details Segment layout: header (MAGIC, VERSION, sequence number of the first record) followed by records (length, CRC32, payload).
+ * The unused rest of a segment is zero, a zero length marks the end. On startup the active segment is scanned and appending continues
+ * behind the last complete record, a torn record from a crash is overwritten.
+ * \details The data reaches the page cache immediately and survives a crash of the JVM. It is forced to disk by flush(), when a segment is sealed and on close().
+ */
+class SegmentLog {
+
+	static final int MAGIC = 0x43445347;	/** "CDSG" */
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 16;
+	static final int RECORD_HEADER_SIZE = 8;
+	static final String SUFFIX = ".seg";
+
+	/**
+	 * \brief Receives the records of a segment, see read(File, RecordVisitor).
+	 */
+	interface RecordVisitor {
+		/**
+		 * @param sequence Sequence number of the record.
+		 * @param payload Payload of the record, only valid during the call.
+		 * @throws IOException to abort reading.
+		 */
+		void visit(long sequence, ByteBuffer payload) throws IOException;
+	}
+
+	private final File dir;
+	private final int segmentSize;
+	private final int maxSegments;
+	private final LogNG log;
+	private final CRC32 crc = new CRC32();
+
+	private File activeFile;
+	private RandomAccessFile activeRaf;
+	private MappedByteBuffer active;
+	private long nextSequence;
+	private boolean closed = false;
+
+	/**
+	 * \brief Opens the segment log in the given directory and recovers the active segment.
+	 * @param dir Directory of the segments, created if necessary.
+	 * @param segmentSize Size of one segment in bytes.
+	 * @param maxSegments Maximum number of segments to keep.
+	 * @param log Log for logging.
+	 * @throws IOException if the directory or the active segment can not be opened.
+	 */
+	SegmentLog(File dir, int segmentSize, int maxSegments, LogNG log) throws IOException {
+		this.dir = dir;
+		this.segmentSize = Math.max(segmentSize, HEADER_SIZE + RECORD_HEADER_SIZE + 1024);
+		this.maxSegments = Math.max(2, maxSegments);
+		this.log = log;
+
+		dir.mkdirs();
+		if (!dir.isDirectory())
+			throw new IOException("can not create " + dir);
+
+		final File[] segments = segments();
+		if (segments.length == 0)
+			open(0);
+		else
+			recover(segments[segments.length - 1]);
+	}
+
+	/**
+	 * \brief Appends one record.
+	 * @param payload Payload of the record, from its position to its limit.
+	 * @return Returns the sequence number of the record.
+	 * @throws IOException if the log is closed, the record is larger than a segment or a new segment can not be created.
+	 */
+	synchronized long append(ByteBuffer payload) throws IOException {
+		if (closed)
+			throw new IOException("segment log is closed");
+		final int length = payload.remaining();
+		if (length == 0 || HEADER_SIZE + RECORD_HEADER_SIZE + length > segmentSize)
+			throw new IOException("invalid record size " + length);
+		if (active.remaining() < RECORD_HEADER_SIZE + length)
+			roll();
+
+		crc.reset();
+		if (payload.hasArray()) {
+			crc.update(payload.array(), payload.arrayOffset() + payload.position(), length);
+		} else {
+			for (int i = payload.position(); i < payload.limit(); i++)
+				crc.update(payload.get(i));
+		}
+		final int start = active.position();
+		active.position(start + 4);
+		active.putInt((int) crc.getValue());
+		active.put(payload);
+		// the length is written last, so a reader never sees a record without its data
+		active.putInt(start, length);
+		return nextSequence++;
+	}
+
+	/**
+	 * \brief Seals the active segment and starts a new one.
+	 * \details Called by append() if the active segment is full. Also used to make the records appended so far available to the importer.
+	 * @throws IOException if the new segment can not be created.
+	 */
+	synchronized void roll() throws IOException {
+		if (active.position() == HEADER_SIZE)
+			return;	// nothing to seal
+		active.force();
+		open(nextSequence);
+		retain();
+	}
+
+	/**
+	 * \brief Forces the active segment to disk.
+	 */
+	synchronized void flush() {
+		if (!closed)
+			active.force();
+	}
+
+	/**
+	 * \brief Forces the active segment to disk and closes it.
+	 */
+	synchronized void close() {
+		if (closed)
+			return;
+		closed = true;
+		active.force();
+		closeQuietly(activeRaf);
+		active = null;
+	}
+
+	/**
+	 * @return Returns all sealed segments, oldest first. The active segment is not included.
+	 */
+	synchronized File[] getSealedSegments() {
+		final File[] segments = segments();
+		int n = segments.length;
+		if (n > 0 && segments[n - 1].equals(activeFile))
+			n--;
+		return Arrays.copyOf(segments, n);
+	}
+
+	/**
+	 * @return Returns the sequence number of the next record.
+	 */
+	synchronized long getNextSequence() {
+		return nextSequence;
+	}
+
+	/**
+	 * \brief Reads all records of a sealed segment.
+	 * @param segment Segment file.
+	 * @param visitor Receives the records in order.
+	 * @return Returns the number of records read.
+	 * @throws IOException if the segment can not be read or the visitor aborts.
+	 */
+	static long read(File segment, RecordVisitor visitor) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(segment, "r");
+		try {
+			final ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			final long base = checkHeader(buffer, segment);
+			final CRC32 crc = new CRC32();
+			long count = 0;
+			int length;
+			while ((length = validRecord(buffer, crc)) > 0) {
+				final ByteBuffer payload = buffer.duplicate();
+				payload.position(buffer.position() + RECORD_HEADER_SIZE);
+				payload.limit(payload.position() + length);
+				visitor.visit(base + count, payload.slice());
+				buffer.position(buffer.position() + RECORD_HEADER_SIZE + length);
+				count++;
+			}
+			return count;
+		} finally {
+			closeQuietly(raf);
+		}
+	}
+
+	/**
+	 * \brief Deletes a sealed segment, e.g. after it was imported.
+	 * @param segment Segment file.
+	 * @return Returns "true" if the segment was deleted.
+	 */
+	synchronized boolean delete(File segment) {
+		if (segment.equals(activeFile))
+			return false;
+		return segment.delete();
+	}
+
+	private void open(long base) throws IOException {
+		if (activeRaf != null)
+			closeQuietly(activeRaf);
+		activeFile = new File(dir, String.format("%020d", base) + SUFFIX);
+		activeRaf = new RandomAccessFile(activeFile, "rw");
+		active = activeRaf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+		active.putInt(0, MAGIC);
+		active.putInt(4, VERSION);
+		active.putLong(8, base);
+		active.position(HEADER_SIZE);
+		nextSequence = base;
+	}
+
+	/**
+	 * \brief Continues appending to an existing segment behind its last complete record.
+	 */
+	private void recover(File segment) throws IOException {
+		activeFile = segment;
+		activeRaf = new RandomAccessFile(segment, "rw");
+		final long size = Math.max(segmentSize, activeRaf.length());
+		active = activeRaf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		long base;
+		try {
+			base = checkHeader(active, segment);
+		} catch (IOException e) {
+			log.writelogfile("segment log: " + e.getMessage() + ", starting a new segment");
+			open(parseBase(segment) + 1);
+			return;
+		}
+		final CRC32 check = new CRC32();
+		long count = 0;
+		int length;
+		while ((length = validRecord(active, check)) > 0) {
+			active.position(active.position() + RECORD_HEADER_SIZE + length);
+			count++;
+		}
+		// clear a torn record, so the next record is not read behind it
+		if (active.remaining() >= RECORD_HEADER_SIZE && active.getInt(active.position()) != 0) {
+			log.writelogfile("segment log: dropping incomplete record in " + segment.getName());
+			final int pos = active.position();
+			final int torn = active.getInt(pos);
+			final int end = torn > 0 && torn <= active.remaining() - RECORD_HEADER_SIZE ? pos + RECORD_HEADER_SIZE + torn : pos + RECORD_HEADER_SIZE;
+			for (int i = pos; i < end; i++)
+				active.put(i, (byte) 0);
+		}
+		nextSequence = base + count;
+		log.writelogfile("segment log: recovered " + count + " records from " + segment.getName());
+	}
+
+	/**
+	 * \brief Deletes the oldest segments if there are more than maxSegments.
+	 */
+	private void retain() {
+		final File[] segments = segments();
+		for (int i = 0; i < segments.length - maxSegments; i++) {
+			if (segments[i].delete())
+				log.writelogfile("segment log: retention deleted " + segments[i].getName() + " before it was imported");
+		}
+	}
+
+	private File[] segments() {
+		File[] segments = dir.listFiles(new FileFilter() {
+			public boolean accept(File f) {
+				return f.isFile() && f.getName().endsWith(SUFFIX);
+			}
+		});
+		if (segments == null)
+			segments = new File[0];
+		// zero padded names, so the name order is the sequence order
+		Arrays.sort(segments);
+		return segments;
+	}
+
+	/**
+	 * @return Returns the length of the record at the current position or 0 if there is no complete record.
+	 */
+	private static int validRecord(ByteBuffer buffer, CRC32 crc) {
+		final int pos = buffer.position();
+		if (buffer.remaining() < RECORD_HEADER_SIZE)
+			return 0;
+		final int length = buffer.getInt(pos);
+		if (length <= 0 || length > buffer.remaining() - RECORD_HEADER_SIZE)
+			return 0;
+		crc.reset();
+		for (int i = pos + RECORD_HEADER_SIZE; i < pos + RECORD_HEADER_SIZE + length; i++)
+			crc.update(buffer.get(i));
+		return (int) crc.getValue() == buffer.getInt(pos + 4) ? length : 0;
+	}
+
+	private static long checkHeader(ByteBuffer buffer, File segment) throws IOException {
+		if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+			throw new IOException(segment.getName() + " is no segment of version " + VERSION);
+		buffer.position(HEADER_SIZE);
+		return buffer.getLong(8);
+	}
+
+	private static long parseBase(File segment) {
+		final String name = segment.getName();
+		try {
+			return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			return System.currentTimeMillis();
+		}
+	}
+
+	private static void closeQuietly(RandomAccessFile raf) {
+		try {
+			raf.close();
+		} catch (IOException e) {
+			// nothing left to do
+		}
+	}
+}
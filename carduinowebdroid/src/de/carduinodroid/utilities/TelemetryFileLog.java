@@ -0,0 +1,326 @@
+package de.carduinodroid.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.carduinodroid.shared.ChatMessage;
+import de.carduinodroid.shared.GPS;
+import de.carduinodroid.utilities.Config.Options;
+
+/**
+ * \brief File backend of LogNG for GPS, chat and queue events, used if logGPSToFile, logChatToFile or logQueueToFile is set.
+ * \details Every kind of event has its own SegmentLog below filePath/segments. GPS records have a fixed width of GPS_RECORD_SIZE bytes
+ * (time, driveID, latitude, longitude as doubles), chat and queue records contain length prefixed UTF-8 strings.
+ * \details The car can run without database this way. importInto(DBConnector) loads the sealed segments into the database later
+ * and deletes them afterwards, it is started by LogNG when the database is set and can be run offline with main().
+ */
+class TelemetryFileLog {
+
+	static final int GPS_RECORD_SIZE = 8 + 4 + 8 + 8;
+	/** Number of records written to the database with one batch during import. */
+	static final int IMPORT_BATCH = 500;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int KIND_GPS = 0;
+	private static final int KIND_CHAT = 1;
+	private static final int KIND_QUEUE = 2;
+	private static final String[] NAMES = { "gps", "chat", "queue" };
+
+	/**
+	 * \brief Queue event as it is stored in the segment log.
+	 */
+	static class QueueEvent {
+		final String userID;
+		final int sessionID;
+		final Timestamp time;
+
+		QueueEvent(String userID, int sessionID, Timestamp time) {
+			this.userID = userID;
+			this.sessionID = sessionID;
+			this.time = time;
+		}
+	}
+
+	private final File root;
+	private final int segmentSize;
+	private final int maxSegments;
+	private final LogNG log;
+
+	private final SegmentLog[] logs = new SegmentLog[NAMES.length];
+
+	/**
+	 * \brief Creates the file log, the segment logs are opened on first use.
+	 * @param options Options with file path, segment size and retention.
+	 * @param log Log for logging.
+	 */
+	TelemetryFileLog(Options options, LogNG log) {
+		this.root = new File(options.filePath, "segments");
+		this.segmentSize = options.logSegmentSize * 1024 * 1024;
+		this.maxSegments = options.logSegmentRetention;
+		this.log = log;
+	}
+
+	/**
+	 * \brief Appends GPS coordinates, same parameters as DBConnector.logGPS(int, String, String).
+	 * \details The records store the coordinates as doubles, coordinates which are no decimal degrees (e.g. "52d31'N") are rejected
+	 * and logged instead of being stored as NaN.
+	 * @return Returns "true" if successful or "false" if an error occurs.
+	 */
+	boolean logGPS(int driveID, String latitude, String longitude) {
+		final double lat = parseCoordinate(latitude);
+		final double lon = parseCoordinate(longitude);
+		if (Double.isNaN(lat) || Double.isNaN(lon)) {
+			log.writelogfile("logGPS: unparseable coordinates \"" + latitude + "\", \"" + longitude + "\" rejected");
+			return false;
+		}
+		final ByteBuffer record = ByteBuffer.allocate(GPS_RECORD_SIZE);
+		record.putLong(System.currentTimeMillis());
+		record.putInt(driveID);
+		record.putDouble(lat);
+		record.putDouble(lon);
+		record.flip();
+		try {
+			get(KIND_GPS, true).append(record);
+			return true;
+		} catch (IOException e) {
+			log.writelogfile("logGPS: " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * \brief Appends a chat message, same parameters as DBConnector.logChat(String, int, String).
+	 * @return Returns "true" if successful or "false" if an error occurs.
+	 */
+	boolean logChat(String userID, int sessionID, String text) {
+		if (text.length() > 256)
+			text = text.substring(0, 255);	// same limit as the database
+		final byte[] user = encode(userID);
+		final byte[] msg = encode(text);
+		final ByteBuffer record = ByteBuffer.allocate(8 + 4 + size(user) + size(msg));
+		record.putLong(System.currentTimeMillis());
+		record.putInt(sessionID);
+		putString(record, user);
+		putString(record, msg);
+		record.flip();
+		try {
+			get(KIND_CHAT, true).append(record);
+			return true;
+		} catch (IOException e) {
+			log.writelogfile("logChat: " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * \brief Appends an enqueue event, same parameters as DBConnector.logQueue(String, int).
+	 * @return Returns the sequence number of the record as local QueueID or -1 if an error occurs.
+	 * The database assigns a different QueueID when the record is imported.
+	 */
+	int logQueue(String userID, int sessionID) {
+		final byte[] user = encode(userID);
+		final ByteBuffer record = ByteBuffer.allocate(8 + 4 + size(user));
+		record.putLong(System.currentTimeMillis());
+		record.putInt(sessionID);
+		putString(record, user);
+		record.flip();
+		try {
+			return (int) get(KIND_QUEUE, true).append(record);
+		} catch (IOException e) {
+			log.writelogfile("logQueue: " + e.getMessage());
+			return -1;
+		}
+	}
+
+	/**
+	 * \brief Loads all records written so far into the database.
+	 * \details The active segments are sealed first. A segment is deleted after all its records were written,
+	 * if a batch fails the segment is kept and imported again next time (records written before the failure are then written twice).
+	 * @param db Database to write to.
+	 * @return Returns the number of imported records.
+	 */
+	long importInto(final DBConnector db) {
+		long imported = 0;
+
+		imported += importAll(KIND_GPS, new Importer<GPS>() {
+			GPS decode(ByteBuffer r) {
+				final Timestamp time = new Timestamp(r.getLong());
+				final int driveID = r.getInt();
+				final String latitude = Double.toString(r.getDouble());
+				final String longitude = Double.toString(r.getDouble());
+				return new GPS(driveID, longitude, latitude, time);
+			}
+
+			boolean write(List<GPS> batch) {
+				return db.writeGPS(batch);
+			}
+		});
+
+		imported += importAll(KIND_CHAT, new Importer<ChatMessage>() {
+			ChatMessage decode(ByteBuffer r) {
+				final Timestamp time = new Timestamp(r.getLong());
+				final int sessionID = r.getInt();
+				final String userID = getString(r);
+				return new ChatMessage(userID, sessionID, getString(r), time);
+			}
+
+			boolean write(List<ChatMessage> batch) {
+				return db.writeChat(batch);
+			}
+		});
+
+		imported += importAll(KIND_QUEUE, new Importer<QueueEvent>() {
+			QueueEvent decode(ByteBuffer r) {
+				final Timestamp time = new Timestamp(r.getLong());
+				final int sessionID = r.getInt();
+				return new QueueEvent(getString(r), sessionID, time);
+			}
+
+			boolean write(List<QueueEvent> batch) {
+				return db.writeQueue(batch);
+			}
+		});
+
+		return imported;
+	}
+
+	/**
+	 * \brief Forces all segments to disk and closes them.
+	 */
+	synchronized void close() {
+		for (SegmentLog segments : logs) {
+			if (segments != null)
+				segments.close();
+		}
+	}
+
+	/**
+	 * \brief Decodes records of one kind and writes them in batches.
+	 */
+	private abstract static class Importer<T> implements SegmentLog.RecordVisitor {
+		final List<T> batch = new ArrayList<T>(IMPORT_BATCH);
+
+		abstract T decode(ByteBuffer record);
+
+		abstract boolean write(List<T> batch);
+
+		public void visit(long sequence, ByteBuffer payload) throws IOException {
+			batch.add(decode(payload));
+			if (batch.size() >= IMPORT_BATCH)
+				flush();
+		}
+
+		void flush() throws IOException {
+			if (batch.isEmpty())
+				return;
+			final boolean ok = write(batch);
+			batch.clear();
+			if (!ok)
+				throw new IOException("database write failed");
+		}
+	}
+
+	private <T> long importAll(int kind, Importer<T> importer) {
+		final SegmentLog segments;
+		try {
+			segments = get(kind, false);
+			if (segments == null)
+				return 0;
+			segments.roll();
+		} catch (IOException e) {
+			log.writelogfile("segment import: " + e.getMessage());
+			return 0;
+		}
+		long imported = 0;
+		for (File segment : segments.getSealedSegments()) {
+			try {
+				final long count = SegmentLog.read(segment, importer);
+				importer.flush();
+				segments.delete(segment);
+				imported += count;
+				log.writelogfile("segment import: " + count + " records from " + segment.getParentFile().getName() + "/" + segment.getName());
+			} catch (IOException e) {
+				importer.batch.clear();
+				log.writelogfile("segment import of " + segment.getName() + " failed: " + e.getMessage());
+				break;
+			}
+		}
+		return imported;
+	}
+
+	/**
+	 * @param kind KIND_GPS, KIND_CHAT or KIND_QUEUE.
+	 * @param create True to create the segment log if it does not exist yet.
+	 * @return Returns the segment log or null if it does not exist and create is false.
+	 */
+	private synchronized SegmentLog get(int kind, boolean create) throws IOException {
+		if (logs[kind] == null && (create || new File(root, NAMES[kind]).isDirectory()))
+			logs[kind] = new SegmentLog(new File(root, NAMES[kind]), segmentSize, maxSegments, log);
+		return logs[kind];
+	}
+
+	/**
+	 * @return Returns the coordinate in decimal degrees, NaN if it is no finite decimal number.
+	 */
+	private static double parseCoordinate(String value) {
+		try {
+			final double coordinate = Double.parseDouble(value);
+			return Double.isInfinite(coordinate) ? Double.NaN : coordinate;
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		} catch (NullPointerException e) {
+			return Double.NaN;
+		}
+	}
+
+	private static byte[] encode(String s) {
+		return s == null ? null : s.getBytes(UTF8);
+	}
+
+	private static int size(byte[] s) {
+		return 2 + (s == null ? 0 : s.length);
+	}
+
+	private static void putString(ByteBuffer buffer, byte[] s) {
+		if (s == null) {
+			buffer.putShort((short) -1);
+		} else {
+			buffer.putShort((short) s.length);
+			buffer.put(s);
+		}
+	}
+
+	private static String getString(ByteBuffer buffer) {
+		final int length = buffer.getShort();
+		if (length < 0)
+			return null;
+		final byte[] s = new byte[length];
+		buffer.get(s);
+		return new String(s, UTF8);
+	}
+
+	/**
+	 * \brief Imports the segments of an installation into its database, e.g. after the car was driven without database.
+	 * @param args Root folder of the installation (the folder containing config/config.properties).
+	 */
+	public static void main(String[] args) {
+		if (args.length != 1) {
+			System.out.println("usage: TelemetryFileLog <folder containing config/config.properties>");
+			return;
+		}
+		final LogNG log = new LogNG();
+		final Config config = new Config(log, args[0]);
+		config.readOptions();
+		final Options options = config.getOptions();
+		final DBConnector db = new DBConnector(log, options);
+		final TelemetryFileLog files = new TelemetryFileLog(options, log);
+		System.out.println(files.importInto(db) + " records imported");
+		files.close();
+		db.shutDown();
+	}
+}
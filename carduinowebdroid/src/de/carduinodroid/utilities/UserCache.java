@@ -0,0 +1,207 @@
+package de.carduinodroid.utilities;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.carduinodroid.shared.User;
+
+/**
+ * \brief Read-through cache of the user queries of DBConnector.
+ * \details Caches sessionID -> userID (never changes once the session exists), userID -> User, the list of all users and their number.
+ * The maps are LRU ordered and hold at most maxSize entries each. Users which don't exist (e.g. guests) are cached as MISSING.
+ * \details createUser(), deleteUser() and changeNickname() call invalidate(). Every invalidation increments a generation,
+ * a value loaded from the database is only stored if no invalidation happened since the load started (see generation()),
+ * so a slow read can't put an outdated user back into the cache.
+ */
+class UserCache {
+
+	/** Marks a user which does not exist in the database. */
+	static final User MISSING = new User();
+
+	private final int maxSize;
+	private final LinkedHashMap<Integer, String> sessions;
+	private final LinkedHashMap<String, User> users;
+	private List<User> allUsers = null;	/** unmodifiable, null if not cached */
+	private int userCount = -1;	/** -1 if not cached */
+	private long generation = 0;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	private long invalidations = 0;
+
+	/**
+	 * @param maxSize Maximum number of cached sessions and of cached users.
+	 */
+	UserCache(int maxSize) {
+		this.maxSize = Math.max(1, maxSize);
+		this.sessions = new LinkedHashMap<Integer, String>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+				return evict(size());
+			}
+		};
+		this.users = new LinkedHashMap<String, User>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, User> eldest) {
+				return evict(size());
+			}
+		};
+	}
+
+	/**
+	 * \brief Has to be called before a value is loaded from the database.
+	 * @return Returns the current generation, pass it to the put method afterwards.
+	 */
+	synchronized long generation() {
+		return generation;
+	}
+
+	/**
+	 * @param sessionID SessionID of the database.
+	 * @return Returns the userID of the session or null if it is not cached.
+	 */
+	synchronized String getUserID(int sessionID) {
+		return count(sessions.get(sessionID));
+	}
+
+	/**
+	 * \brief Caches the userID of a session, e.g. when the session is created.
+	 */
+	synchronized void putSession(int sessionID, String userID) {
+		if (userID != null)
+			sessions.put(sessionID, userID);
+	}
+
+	/**
+	 * @param sessionID SessionID of the database.
+	 * @return Returns the user of the session, MISSING if it doesn't exist or null if it is not cached.
+	 */
+	synchronized User getUserBySession(int sessionID) {
+		final String userID = sessions.get(sessionID);
+		return count(userID == null ? null : users.get(userID));
+	}
+
+	/**
+	 * @param userID UserID of the user.
+	 * @return Returns the user, MISSING if it doesn't exist or null if it is not cached.
+	 */
+	synchronized User getUser(String userID) {
+		return count(users.get(userID));
+	}
+
+	/**
+	 * \brief Caches a user loaded from the database.
+	 * @param generation Value of generation() before the load.
+	 * @param userID UserID of the user.
+	 * @param user User or null if the user doesn't exist.
+	 */
+	synchronized void putUser(long generation, String userID, User user) {
+		if (generation == this.generation && userID != null)
+			users.put(userID, user == null ? MISSING : user);
+	}
+
+	/**
+	 * @return Returns all users, an empty list if there are none or null if not cached.
+	 */
+	synchronized List<User> getAllUsers() {
+		return count(allUsers);
+	}
+
+	/**
+	 * \brief Caches the list of all users, every user of the list is cached as well.
+	 * @param generation Value of generation() before the load.
+	 */
+	synchronized void putAllUsers(long generation, List<User> list) {
+		if (generation != this.generation)
+			return;
+		allUsers = Collections.unmodifiableList(new ArrayList<User>(list));
+		userCount = list.size();
+		for (User user : list)
+			users.put(user.getUserID(), user);
+	}
+
+	/**
+	 * @return Returns the number of users or -1 if not cached.
+	 */
+	synchronized int getUserCount() {
+		if (userCount < 0)
+			misses++;
+		else
+			hits++;
+		return userCount;
+	}
+
+	/**
+	 * \brief Caches the number of users.
+	 * @param generation Value of generation() before the load.
+	 */
+	synchronized void putUserCount(long generation, int count) {
+		if (generation == this.generation)
+			userCount = count;
+	}
+
+	/**
+	 * \brief Drops everything cached about a user, called after the user was created, changed or deleted.
+	 * @param userID UserID of the user.
+	 */
+	synchronized void invalidate(String userID) {
+		generation++;
+		invalidations++;
+		users.remove(userID);
+		allUsers = null;
+		userCount = -1;
+	}
+
+	/**
+	 * \brief Drops all cached values.
+	 */
+	synchronized void clear() {
+		generation++;
+		sessions.clear();
+		users.clear();
+		allUsers = null;
+		userCount = -1;
+	}
+
+	synchronized long getHits() {
+		return hits;
+	}
+
+	synchronized long getMisses() {
+		return misses;
+	}
+
+	synchronized long getEvictions() {
+		return evictions;
+	}
+
+	@Override
+	public synchronized String toString() {
+		final long lookups = hits + misses;
+		return "user cache: " + hits + " hits, " + misses + " misses (" + (lookups == 0 ? 0 : hits * 100 / lookups) + "% hit rate), "
+				+ evictions + " evictions, " + invalidations + " invalidations, " + sessions.size() + " sessions, " + users.size() + " users";
+	}
+
+	private <T> T count(T value) {
+		if (value == null)
+			misses++;
+		else
+			hits++;
+		return value;
+	}
+
+	private boolean evict(int size) {
+		if (size <= maxSize)
+			return false;
+		evictions++;
+		return true;
+	}
+}
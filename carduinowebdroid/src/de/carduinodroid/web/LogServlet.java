@@ -0,0 +1,196 @@
+package de.carduinodroid.web;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import de.carduinodroid.utilities.LogNG;
+
+/**
+ * \brief Streams the log file to the admin page.
+ * \details GET /log?since=n sends the lines from line n on and keeps the response open for STREAM_TIME, new lines are sent as soon as
+ * they are written (chunked). Without since the last limit lines are sent first. The number of the first line is sent in the header
+ * X-Log-Line, so the client can continue with since = X-Log-Line + received lines. With stream=false only the requested lines are sent.
+ * \details A streaming response is continued asynchronously, the request thread is returned to the container right after the first lines.
+ * One poller thread checks all open streams every POLL_INTERVAL milliseconds and sends their new lines.
+ * \details Only admins are allowed to read the log.
+ */
+@WebServlet(urlPatterns = "/log", asyncSupported = true)
+public class LogServlet extends HttpServlet {
+	private static final long serialVersionUID = 1L;
+
+	/** Default and maximum number of lines sent at once. */
+	static final int DEFAULT_LIMIT = 200;
+	static final int MAX_LIMIT = 5000;
+	/** Time in milliseconds a streaming response stays open, the client reconnects afterwards. */
+	static final long STREAM_TIME = 25000;
+	/** Time in milliseconds between two checks for new lines. */
+	static final long POLL_INTERVAL = 500;
+
+	private final Queue<Stream> streams = new ConcurrentLinkedQueue<Stream>();
+	private ScheduledExecutorService poller;
+
+	/**
+	 * \brief An open streaming response.
+	 */
+	private static class Stream {
+		final AsyncContext context;
+		final PrintWriter out;
+		final long end;
+		long next;
+
+		Stream(AsyncContext context, PrintWriter out, long next) {
+			this.context = context;
+			this.out = out;
+			this.next = next;
+			this.end = System.currentTimeMillis() + STREAM_TIME;
+		}
+	}
+
+	@Override
+	public void init() throws ServletException {
+		super.init();
+		poller = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "log poller");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		poller.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					poll();
+				} catch (RuntimeException e) {
+					// an exception would cancel the schedule
+					e.printStackTrace();
+				}
+			}
+		}, POLL_INTERVAL, POLL_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		HttpSession session = request.getSession(false);
+		if(session == null || !Boolean.TRUE.equals(session.getAttribute("isAdmin"))) {
+			response.sendError(HttpServletResponse.SC_FORBIDDEN);
+			return;
+		}
+		LogNG log = (LogNG)getServletContext().getAttribute("log");
+
+		int limit = Math.min(MAX_LIMIT, parse(request.getParameter("limit"), DEFAULT_LIMIT));
+		long since = parse(request.getParameter("since"), -1);
+		if(since < 0)
+			since = Math.max(0, log.getLineCount() - limit);
+		boolean stream = !"false".equals(request.getParameter("stream"));
+
+		response.setContentType("text/plain; charset=UTF-8");
+		response.setHeader("Cache-Control", "no-cache");
+		response.setHeader("X-Log-Line", String.valueOf(since));
+		PrintWriter out = response.getWriter();
+
+		long next = send(out, log.getLog(since, limit), since);
+		if(!stream)
+			return;
+
+		AsyncContext context = request.startAsync();
+		// the poller completes the response after STREAM_TIME, the timeout only catches a stream it missed
+		context.setTimeout(STREAM_TIME + 2 * POLL_INTERVAL);
+		final Stream s = new Stream(context, out, next);
+		context.addListener(new AsyncListener() {
+			public void onComplete(AsyncEvent event) {
+				streams.remove(s);
+			}
+
+			public void onTimeout(AsyncEvent event) {
+				streams.remove(s);
+				event.getAsyncContext().complete();
+			}
+
+			public void onError(AsyncEvent event) {
+				streams.remove(s);
+			}
+
+			public void onStartAsync(AsyncEvent event) {
+			}
+		});
+		streams.add(s);
+	}
+
+	/**
+	 * \brief Sends the new lines to all open streams and completes the streams which are expired or closed by the client.
+	 */
+	private void poll() {
+		if(streams.isEmpty())
+			return;
+		LogNG log = (LogNG)getServletContext().getAttribute("log");
+		long lines = log.getLineCount();
+		long now = System.currentTimeMillis();
+		for(Stream s : streams) {
+			if(lines > s.next)
+				s.next = send(s.out, log.getLog(s.next, MAX_LIMIT), s.next);
+			if(now >= s.end || s.out.checkError()) {
+				streams.remove(s);
+				try {
+					s.context.complete();
+				} catch (IllegalStateException e) {
+					// already completed by a timeout or an error
+				}
+			}
+		}
+	}
+
+	@Override
+	public void destroy() {
+		if(poller != null)
+			poller.shutdownNow();
+		for(Stream s : streams) {
+			try {
+				s.context.complete();
+			} catch (IllegalStateException e) {
+				// already completed
+			}
+		}
+		streams.clear();
+		super.destroy();
+	}
+
+	/**
+	 * \brief Sends lines as one chunk.
+	 * @return Returns the number of the next line.
+	 */
+	private long send(PrintWriter out, List<String> lines, long first) {
+		for(String line : lines) {
+			out.write(line);
+			out.write('\n');
+		}
+		out.flush();
+		return first + lines.size();
+	}
+
+	private static int parse(String value, int def) {
+		if(value == null)
+			return def;
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			return def;
+		}
+	}
+}
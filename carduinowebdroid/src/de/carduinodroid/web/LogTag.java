@@ -1,7 +1,7 @@
 package de.carduinodroid.web;
 
 import java.io.IOException;
-import java.util.LinkedList;
+import java.util.List;
 import javax.servlet.jsp.JspException;
 import javax.servlet.jsp.JspWriter;
 import javax.servlet.jsp.tagext.TagSupport;
@@ -10,12 +10,29 @@ import de.carduinodroid.utilities.LogNG;
 
 public class LogTag extends TagSupport {
 	private static final long serialVersionUID = 1L;
+	private long from = -1;
+	private int limit = 500;
+	
+	/**
+	 * \brief Setter methods
+	 * @param f First line to output, the last limit lines if not set.
+	 */
+	public void setFrom(long f) {
+		from = f;
+	}
+	
+	/**
+	 * @param l Maximum number of lines to output.
+	 */
+	public void setLimit(int l) {
+		limit = l;
+	}
 
 	public int doStartTag() throws JspException {
 		LogNG log = (LogNG)pageContext.getServletContext().getAttribute("log");
 		JspWriter out = pageContext.getOut();
-		LinkedList<String> logList = new LinkedList<String>();
-		logList = log.getLog();
+		long first = from >= 0 ? from : Math.max(0, log.getLineCount() - limit);
+		List<String> logList = log.getLog(first, limit);
 		
 		try {
 			for(String s : logList)	
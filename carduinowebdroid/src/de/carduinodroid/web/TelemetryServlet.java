@@ -0,0 +1,141 @@
+package de.carduinodroid.web;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import org.apache.catalina.websocket.MessageInbound;
+import org.apache.catalina.websocket.StreamInbound;
+import org.apache.catalina.websocket.WebSocketServlet;
+import org.apache.catalina.websocket.WsOutbound;
+
+import de.carduinodroid.shared.Broadcaster;
+import de.carduinodroid.shared.Telemetry;
+import de.carduinodroid.utilities.CarControllerWrapper;
+import de.carduinodroid.utilities.Config.Options;
+import de.carduinodroid.utilities.LogNG;
+
+/**
+ * \brief Pushes position, speed, steering angle and the keys of the driver to all viewers.
+ * \details Every telemetryInterval milliseconds the fields changed since the last tick (see Telemetry) are serialized once into a JSON delta
+ * and the same message is queued for all viewers, nothing is sent if nothing changed. A new connection first gets a full snapshot.
+ * \details Only the latest state matters, so a viewer which falls behind loses its oldest updates instead of being disconnected. A full
+ * snapshot is sent every KEYFRAME_INTERVAL milliseconds, so such a viewer has all fields right again after a while.
+ * \details The Filter lets the handshake through without forwarding it to a page, so the servlet refuses it itself if the session is not logged in.
+ */
+@WebServlet("/telemetry")
+public class TelemetryServlet extends WebSocketServlet {
+	private static final long serialVersionUID = 1L;
+
+	/** Maximum number of updates waiting for one viewer. */
+	static final int CLIENT_QUEUE_SIZE = 16;
+	/** Time in milliseconds between two full snapshots. */
+	static final long KEYFRAME_INTERVAL = 5000;
+
+	private final Broadcaster viewers = new Broadcaster("telemetry", CLIENT_QUEUE_SIZE, Broadcaster.Overflow.DROP_OLDEST,
+			Math.max(2, Runtime.getRuntime().availableProcessors()));
+	private final Telemetry telemetry = CarControllerWrapper.getTelemetry();
+	private ScheduledExecutorService ticker;
+	private volatile long sequence = 0;	/** written by the ticker thread only */
+	private long ticks = 0;
+	private long keyframeTicks;
+
+	@Override
+	public void init() throws ServletException {
+		super.init();
+		Options options = (Options) getServletContext().getAttribute("options");
+		final long interval = Math.max(10, options == null ? 100 : options.telemetryInterval);
+		keyframeTicks = Math.max(1, KEYFRAME_INTERVAL / interval);
+		ticker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "telemetry ticker");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		ticker.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				try {
+					tick();
+				} catch (RuntimeException e) {
+					// an exception would cancel the schedule
+					e.printStackTrace();
+				}
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * \brief Sends the changed fields to all viewers, serialized once for all of them.
+	 */
+	private void tick() {
+		int fields = telemetry.takeChanges();
+		if (++ticks % keyframeTicks == 0)
+			fields = Telemetry.ALL;
+		if (fields == 0 || viewers.getClientCount() == 0)
+			return;
+		viewers.broadcast(telemetry.toJson(++sequence, fields));
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		HttpSession session = request.getSession(false);
+		Object nickName = session == null ? null : session.getAttribute("nickName");
+		if (nickName == null || ((String) nickName).isEmpty()) {
+			response.sendError(HttpServletResponse.SC_FORBIDDEN);
+			return;
+		}
+		super.doGet(request, response);
+	}
+
+	@Override
+	protected StreamInbound createWebSocketInbound(String protocol, HttpServletRequest request) {
+		return new MessageInbound() {
+
+			private Broadcaster.Client client;
+
+			@Override
+			protected void onOpen(WsOutbound outbound) {
+				client = viewers.add(outbound);
+				// an update serialized before the snapshot may still arrive after it, fields which changed meanwhile are sent again with the next tick
+				client.send(telemetry.toJson(sequence, Telemetry.ALL));
+			}
+
+			@Override
+			protected void onClose(int status) {
+				viewers.remove(client);
+			}
+
+			@Override
+			protected void onTextMessage(CharBuffer cb) throws IOException {
+				// viewers only receive
+			}
+
+			@Override
+			protected void onBinaryMessage(ByteBuffer bb) throws IOException {
+				// viewers only receive
+			}
+		};
+	}
+
+	@Override
+	public void destroy() {
+		if (ticker != null)
+			ticker.shutdownNow();
+		LogNG log = (LogNG) getServletContext().getAttribute("log");
+		if (log != null)
+			log.writelogfile(viewers.toString() + ", " + telemetry.toString());
+		viewers.close();
+		super.destroy();
+	}
+}